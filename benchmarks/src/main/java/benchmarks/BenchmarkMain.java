@@ -0,0 +1,24 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs JMH with machine-readable results: unless the arguments choose a result format, results
+ * are written as JSON to {@code jmh-result.json} in the working directory.
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(List.of(args));
+        if (!arguments.contains("-rf")) {
+            arguments.addAll(List.of("-rf", "json"));
+            if (!arguments.contains("-rff")) {
+                arguments.addAll(List.of("-rff", "jmh-result.json"));
+            }
+        }
+        org.openjdk.jmh.Main.main(arguments.toArray(String[]::new));
+    }
+}
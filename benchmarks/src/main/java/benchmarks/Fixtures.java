@@ -0,0 +1,37 @@
+package benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared setup for the benchmarks.
+ */
+public final class Fixtures {
+    private Fixtures() {
+    }
+
+    public static List<String> options(int count) {
+        List<String> options = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            options.add("Option " + i);
+        }
+        return options;
+    }
+
+    /**
+     * A single election in {@code voting.elections} syntax.
+     */
+    public static String electionSpec(int optionCount) {
+        return "Bench=" + String.join(",", options(optionCount));
+    }
+
+    /**
+     * The server logs every connection, vote and broadcast to stdout; inside a benchmark that
+     * would measure the console rather than the code.
+     */
+    public static void silenceStdout() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
@@ -0,0 +1,51 @@
+package client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side parsing of the text protocol's RESULTS and HISTORY lines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"3", "50"})
+    int optionCount;
+
+    @Param({"10", "100", "1000"})
+    int historySize;
+
+    private String resultsLine;
+    private String historyLine;
+
+    @Setup
+    public void setUp() {
+        StringBuilder results = new StringBuilder("RESULTS:");
+        for (int i = 0; i < optionCount; i++) {
+            results.append("Option ").append(i).append(":").append(1000 + i * 37).append(";");
+        }
+        resultsLine = results.toString();
+
+        StringBuilder history = new StringBuilder("HISTORY_APPEND:").append(100_000).append("|");
+        for (int i = 0; i < historySize; i++) {
+            history.append("voter-").append(i).append(" voted|");
+        }
+        historyLine = history.toString();
+    }
+
+    @Benchmark
+    public Map<String, Integer> parseResults() {
+        return ServerMessageParser.parseResults(resultsLine);
+    }
+
+    @Benchmark
+    public HistoryBatch parseHistory() {
+        return ServerMessageParser.parseHistory(historyLine, 15);
+    }
+}
@@ -0,0 +1,113 @@
+package client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One second of a 5k messages/s RESULTS and HISTORY feed into a simulated FX thread, a single
+ * thread whose every render costs {@code renderMicros}. {@code perMessage} schedules one update
+ * and render per message, like {@code Platform.runLater} per message; {@code coalesced} goes
+ * through {@link UpdateCoalescer}.
+ *
+ * The score is the time until the UI has caught up with the feed. The maxQueueDepth and renders
+ * counters show how far the UI thread fell behind and how much rendering it did; JMH sums them
+ * over the measurement iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UiFeedBenchmark {
+    private static final int MESSAGES_PER_SECOND = 5_000;
+    private static final Object RESULTS_KEY = new Object();
+
+    @Param({"50", "500"})
+    int renderMicros;
+
+    private ThreadPoolExecutor uiThread;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long maxQueueDepth;
+        public long renders;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            maxQueueDepth = 0;
+            renders = 0;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        uiThread = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        uiThread.shutdownNow();
+    }
+
+    @Benchmark
+    public void perMessage(Counters counters) throws InterruptedException {
+        long[] renders = new long[1];
+        feed(counters, (key, update) -> uiThread.execute(() -> {
+            update.run();
+            render(renders);
+        }));
+        counters.renders = renders[0];
+    }
+
+    @Benchmark
+    public void coalesced(Counters counters) throws InterruptedException {
+        long[] renders = new long[1];
+        UpdateCoalescer coalescer = new UpdateCoalescer(uiThread, UpdateCoalescer.FRAME_NANOS, () -> render(renders));
+        feed(counters, (key, update) -> {
+            if (key == null) {
+                coalescer.post(update);
+            } else {
+                coalescer.post(key, update);
+            }
+        });
+        counters.renders = renders[0];
+    }
+
+    private interface Sink {
+        void post(Object key, Runnable update);
+    }
+
+    private void feed(Counters counters, Sink sink) throws InterruptedException {
+        long interval = TimeUnit.SECONDS.toNanos(1) / MESSAGES_PER_SECOND;
+        long next = System.nanoTime();
+        for (int i = 0; i < MESSAGES_PER_SECOND; i++) {
+            // alternate results snapshots, which may be conflated, and history appends, which may not
+            sink.post(i % 2 == 0 ? RESULTS_KEY : null, () -> { });
+            counters.maxQueueDepth = Math.max(counters.maxQueueDepth, uiThread.getQueue().size());
+            next += interval;
+            LockSupport.parkNanos(next - System.nanoTime());
+        }
+        // wait until the last posted update has been rendered
+        while (uiThread.getQueue().size() > 0 || uiThread.getActiveCount() > 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(2 * UpdateCoalescer.FRAME_NANOS / 1_000_000);
+        while (uiThread.getQueue().size() > 0 || uiThread.getActiveCount() > 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void render(long[] renders) {
+        long until = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(renderMicros);
+        while (System.nanoTime() < until) {
+            Thread.onSpinWait();
+        }
+        renders[0]++;
+    }
+}
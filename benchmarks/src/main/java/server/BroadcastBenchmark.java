@@ -0,0 +1,92 @@
+package server;
+
+import benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one results broadcast: encoding the frames once and queueing them to every client.
+ * Half of the clients negotiate the binary protocol. Sockets are replaced by no-op connections,
+ * and conflation keeps each client's queue at a single RESULTS frame.
+ *
+ * The cached* benchmarks measure serving the pre-encoded snapshots that replies reuse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({"1000", "10000"})
+    int clients;
+
+    @Param({"3", "50"})
+    int optionCount;
+
+    private VotingServer server;
+    private Election election;
+    private TallySnapshot tallies;
+
+    @Setup
+    public void setUp() {
+        Fixtures.silenceStdout();
+        ServerConfig config = new ServerConfig();
+        config.setElections(Fixtures.electionSpec(optionCount));
+        server = new VotingServer(config);
+        election = server.getVoteService().getElections().getDefault();
+        for (int i = 0; i < clients; i++) {
+            ClientHandler handler = server.accept(new NullConnection(), null);
+            String handshake = "client-" + i + ":client-" + i + (i % 2 == 0 ? ":BIN1" : "") + "\n";
+            handler.onBytes(ByteBuffer.wrap(handshake.getBytes(StandardCharsets.UTF_8)));
+            server.getVoteService().castVote(0, "client-" + i, "client-" + i, i % optionCount);
+        }
+        tallies = election.getSnapshot();
+    }
+
+    @Benchmark
+    public void broadcastResults() {
+        server.broadcastResults(election.getId());
+    }
+
+    @Benchmark
+    public Frame encodeTextResults() {
+        return server.getTextCodec().results(election, tallies);
+    }
+
+    @Benchmark
+    public Frame encodeBinaryResults() {
+        return server.getBinaryCodec().results(election, tallies);
+    }
+
+    /**
+     * What GET_RESULTS and a new connection cost while the tally is unchanged: a version check.
+     */
+    @Benchmark
+    public Frame cachedTextResults() {
+        return server.getSnapshots().results(election, server.getTextCodec());
+    }
+
+    @Benchmark
+    public Frame cachedRecentHistory() {
+        return server.getSnapshots().recentHistory(ClientHandler.HISTORY_PAGE_SIZE, server.getTextCodec());
+    }
+
+    private static class NullConnection implements ClientConnection {
+        @Override
+        public void outboundReady() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "benchmark";
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package server;
+
+import benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Votes per second through a real server on a loopback port, speaking the text protocol.
+ * Each benchmark thread is one connected client that sends a vote and waits for its
+ * VOTE_ACCEPTED, skipping the broadcasts in between.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(32)
+public class EndToEndBenchmark {
+    @Param({ServerConfig.ENGINE_VIRTUAL, ServerConfig.ENGINE_NIO})
+    String engine;
+
+    private VotingServer server;
+    private int port;
+    private final AtomicInteger nextClient = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws Exception {
+        Fixtures.silenceStdout();
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        ServerConfig config = new ServerConfig();
+        config.setPort(port);
+        config.setEngine(engine);
+        // measures the server flat out, not the per-client rate limit
+        config.setClientRequestRate(0);
+        server = new VotingServer(config);
+        Thread serverThread = new Thread(server::start, "benchmark-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        awaitListening();
+    }
+
+    private void awaitListening() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private static final String[] VOTES = {"VOTE:Option A\n", "VOTE:Option B\n", "VOTE:Option C\n"};
+
+        private Socket socket;
+        private OutputStream out;
+        private BufferedReader in;
+        private byte[][] votes;
+        private int next;
+
+        @Setup
+        public void connect(EndToEndBenchmark benchmark) throws IOException {
+            socket = new Socket("127.0.0.1", benchmark.port);
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String id = "bench-" + benchmark.nextClient.getAndIncrement();
+            out.write((id + ":" + id + "\n").getBytes(StandardCharsets.UTF_8));
+            votes = new byte[VOTES.length][];
+            for (int i = 0; i < VOTES.length; i++) {
+                votes[i] = VOTES[i].getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
+        @TearDown
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public String vote(Client client) throws IOException {
+        client.out.write(client.votes[client.next++ % client.votes.length]);
+        String line;
+        while ((line = client.in.readLine()) != null) {
+            if (line.startsWith("VOTE_ACCEPTED:") || line.startsWith("ERROR")) {
+                return line;
+            }
+        }
+        throw new IOException("Server closed the connection");
+    }
+}
@@ -0,0 +1,64 @@
+package server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full scans of a vote journal: rebuilding one election's tally and bucketing votes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JournalScanBenchmark {
+    private static final long START_MILLIS = 1_700_000_000_000L;
+
+    @Param({"1000000", "4000000"})
+    int records;
+
+    @Param({"3", "50"})
+    int optionCount;
+
+    private Path journal;
+
+    @Setup
+    public void setUp() throws IOException {
+        journal = Files.createTempFile("vote-journal-bench", ".bin");
+        VoteJournal writer = VoteJournal.open(journal, new VoterRegistry());
+        SplittableRandom random = new SplittableRandom(42);
+        int[] choices = new int[100_000];
+        Arrays.fill(choices, -1);
+        for (int i = 0; i < records; i++) {
+            int voter = random.nextInt(choices.length);
+            int option = random.nextInt(optionCount);
+            // one vote per millisecond, spread over two elections
+            writer.onVote(START_MILLIS + i, voter & 1, voter, "voter-" + voter, "voter-" + voter, option, choices[voter], i + 1);
+            choices[voter] = option;
+        }
+        writer.close();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(journal);
+        Files.deleteIfExists(VoteJournal.dictionaryPath(journal));
+    }
+
+    @Benchmark
+    public long[] rebuildTallies() throws IOException {
+        return JournalScanner.rebuildTallies(journal, 0, optionCount);
+    }
+
+    @Benchmark
+    public long[] countPerSecond() throws IOException {
+        return JournalScanner.countPerInterval(journal, START_MILLIS, 1000, records / 1000 + 1);
+    }
+}
@@ -0,0 +1,147 @@
+package server;
+
+import benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Milliseconds from launching a server process on a vote log of {@code voters} voters to its
+ * first RESULTS line and to its first accepted vote. The vote is from a voter the log already
+ * has, so it waits for the voters to load; the results do not. cds=false still uses the JDK's
+ * own archive, cds=true adds one of the server's classes, written by a training run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartupBenchmark {
+    private static final String VOTER = "voter-0";
+
+    @Param({"0", "1000000"})
+    int voters;
+
+    @Param({"false", "true"})
+    boolean cds;
+
+    private Path directory;
+    private Path archive;
+    private String classPath;
+    private int port;
+    private Process server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Fixtures.silenceStdout();
+        directory = Files.createTempDirectory("startup-bench");
+        archive = directory.resolve("server.jsa");
+        classPath = Path.of(VotingServer.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        VoteService voteService = new VoteService();
+        VoteLog voteLog = new VoteLog(directory.resolve("wal"), 0, 4096, 0, VoteService.DEFAULT_HISTORY_WINDOW);
+        voteLog.open(voteService);
+        for (int i = 0; i < voters; i++) {
+            voteService.castVote(0, "voter-" + i, "voter-" + i, i % 3);
+        }
+        voteService.sync().join();
+        voteLog.close();
+        if (cds) {
+            // the archive is written when the training run exits
+            firstVote();
+            stop();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() throws InterruptedException {
+        // terminated, not killed: the server folds its log into the snapshot as in a planned restart
+        server.destroy();
+        server.waitFor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String firstResults() throws IOException, InterruptedException {
+        launch();
+        return exchange("RESULTS");
+    }
+
+    @Benchmark
+    public String firstVote() throws IOException, InterruptedException {
+        launch();
+        return exchange("VOTE_ACCEPTED:");
+    }
+
+    private void launch() throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (cds) {
+            command.add("-XX:+AutoCreateSharedArchive");
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+        command.add("-cp");
+        command.add(classPath);
+        command.add("-Dvoting.port=" + port);
+        command.add("-Dvoting.wal.dir=" + directory.resolve("wal"));
+        command.add("server.VotingServer");
+        server = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+    }
+
+    /**
+     * Connects as soon as the server listens, votes, and returns the first line starting with
+     * {@code expected}.
+     */
+    private String exchange(String expected) throws IOException, InterruptedException {
+        try (Socket socket = connect()) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out.write((VOTER + ":" + VOTER + "\nVOTE:Option B\n").getBytes(StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(expected) || line.startsWith("ERROR")) {
+                    return line;
+                }
+            }
+            throw new IOException("Server closed the connection");
+        }
+    }
+
+    private Socket connect() throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (true) {
+            try {
+                return new Socket("127.0.0.1", port);
+            } catch (IOException e) {
+                if (!server.isAlive() || System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("Server did not start on port " + port, e);
+                }
+                Thread.sleep(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package server;
+
+import benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Durable votes per second with the write-ahead log: a vote followed by waiting for its sync,
+ * from 16 voters at once. maxBatch=1 with no commit window forces once per vote; the defaults
+ * (2 ms, 4096) group concurrent votes into one force.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@Threads(16)
+public class VoteLogBenchmark {
+    @Param({"0", "2"})
+    long groupCommitMillis;
+
+    @Param({"1", "4096"})
+    int maxBatch;
+
+    private Path directory;
+    private VoteService voteService;
+    private VoteLog voteLog;
+    private final AtomicInteger nextVoter = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Voter {
+        String id;
+        int option;
+
+        @Setup
+        public void setUp(VoteLogBenchmark benchmark) {
+            id = "voter-" + benchmark.nextVoter.getAndIncrement();
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        Fixtures.silenceStdout();
+        directory = Files.createTempDirectory("vote-log-bench");
+        voteService = new VoteService();
+        voteLog = new VoteLog(directory, groupCommitMillis, maxBatch, 0, VoteService.DEFAULT_HISTORY_WINDOW);
+        voteLog.open(voteService);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        voteLog.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void durableVote(Voter voter) {
+        voter.option = (voter.option + 1) % 3;
+        voteService.castVote(0, voter.id, voter.id, voter.option);
+        voteService.sync().join();
+    }
+}
@@ -0,0 +1,65 @@
+package server;
+
+import benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What vote velocity tracking costs: counting one vote, from 1 and 4 threads, and the snapshot
+ * a rates reply is encoded from, which the snapshot cache takes at most once a second.
+ * Timestamps advance a millisecond per vote, so buckets keep being reused as in a long run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VoteRatesBenchmark {
+    @Param({"3", "50"})
+    int optionCount;
+
+    private Election election;
+    private VoteRates rates;
+    private long start;
+
+    @State(Scope.Thread)
+    public static class Voter {
+        final SplittableRandom random = new SplittableRandom();
+        long votes;
+    }
+
+    @Setup
+    public void setUp() {
+        ElectionRegistry elections = new ElectionRegistry();
+        election = elections.create("Bench", Fixtures.options(optionCount));
+        rates = new VoteRates(elections);
+        start = System.currentTimeMillis();
+        for (int i = 0; i < 3_600_000; i += 7) {
+            rates.onVote(start + i, 0, i, null, null, i % optionCount, -1, 0);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void record1Thread(Voter voter) {
+        record(voter);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void record4Threads(Voter voter) {
+        record(voter);
+    }
+
+    @Benchmark
+    public VoteRates.Snapshot snapshot() {
+        return rates.snapshot(election, (start + 3_600_000) / 1000);
+    }
+
+    private void record(Voter voter) {
+        rates.onVote(start + 3_600_000 + voter.votes++, 0, 0, null, null, voter.random.nextInt(optionCount), -1, 0);
+    }
+}
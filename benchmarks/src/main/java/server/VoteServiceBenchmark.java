@@ -0,0 +1,136 @@
+package server;
+
+import benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * castVote() under contention from 1, 4 and all available threads, and the reads that race
+ * with it. Voters are drawn at random, so most votes change an existing voter's choice.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VoteServiceBenchmark {
+    static final int BATCH = 1000;
+
+    @Param({"3", "50"})
+    int optionCount;
+
+    @Param({"1000", "100000"})
+    int voters;
+
+    @Param({"1000", "100000"})
+    int historyWindow;
+
+    private VoteService voteService;
+    private String[] voterIds;
+
+    @State(Scope.Thread)
+    public static class Voter {
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Reads {
+        public long torn; // snapshots whose total is not the number of voters
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            torn = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        ElectionRegistry elections = new ElectionRegistry();
+        elections.create("Bench", Fixtures.options(optionCount));
+        voteService = new VoteService(elections, new VoteHistory(historyWindow));
+        voterIds = new String[voters];
+        for (int i = 0; i < voters; i++) {
+            voterIds[i] = "voter-" + i;
+            voteService.castVote(0, voterIds[i], voterIds[i], i % optionCount);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean castVote1Thread(Voter voter) {
+        return cast(voter);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean castVote4Threads(Voter voter) {
+        return cast(voter);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean castVoteMaxThreads(Voter voter) {
+        return cast(voter);
+    }
+
+    /**
+     * One kiosk-style batch of {@value #BATCH} votes; scores are per vote.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int castBatch(Voter voter) {
+        String[] batchVoters = new String[BATCH];
+        int[] batchOptions = new int[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            batchVoters[i] = voterIds[voter.random.nextInt(voters)];
+            batchOptions[i] = voter.random.nextInt(optionCount);
+        }
+        return voteService.castVotes(0, batchVoters, batchOptions).getAccepted();
+    }
+
+    private boolean cast(Voter voter) {
+        String voterId = voterIds[voter.random.nextInt(voters)];
+        return voteService.castVote(0, voterId, voterId, voter.random.nextInt(optionCount));
+    }
+
+    @Benchmark
+    public long[] tallies() {
+        return voteService.getElections().getDefault().getTallies();
+    }
+
+    /**
+     * Snapshots taken while three threads keep moving votes between options. Every voter has
+     * voted, so every consistent snapshot totals {@code voters}; torn counts those that do not.
+     */
+    @Benchmark
+    @Group("snapshotUnderVotes")
+    @GroupThreads(1)
+    public TallySnapshot snapshot(Reads reads) {
+        TallySnapshot snapshot = voteService.getElections().getDefault().getSnapshot();
+        long total = 0;
+        for (int i = 0; i < snapshot.getOptionCount(); i++) {
+            total += snapshot.get(i);
+        }
+        if (total != voters) {
+            reads.torn++;
+        }
+        return snapshot;
+    }
+
+    @Benchmark
+    @Group("snapshotUnderVotes")
+    @GroupThreads(3)
+    public boolean voteDuringSnapshots(Voter voter) {
+        return cast(voter);
+    }
+
+    @Benchmark
+    public List<HistoryEntry> recentHistory() {
+        return voteService.getRecentHistory(ClientHandler.HISTORY_PAGE_SIZE);
+    }
+}
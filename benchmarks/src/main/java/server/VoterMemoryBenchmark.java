@@ -0,0 +1,101 @@
+package server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap held by the votes of {@code voters} voters in {@code elections} elections of three
+ * options. {@code voteService} casts them through a {@link VoteService}, so it counts everything
+ * a vote leaves behind: the interned clientIds, the choice tables, tallies, voter counts and
+ * the in-memory history window. {@code registry} is the part that grows with the
+ * voters, a {@link VoterRegistry} and one {@link ChoiceTable} per election, on its own. ClientIds
+ * are shaped like the client's {@code username_uuid8}.
+ *
+ * The bytesPerVoter counter is the retained heap after a full GC, which the score, the time to
+ * build the layout, includes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-XX:+UseG1GC"})
+public class VoterMemoryBenchmark {
+    private static final int OPTIONS = 3;
+
+    @Param({"1000000", "10000000"})
+    int voters;
+
+    @Param({"1", "4"})
+    int elections;
+
+    private Object retained;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long bytesPerVoter;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesPerVoter = 0;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void release() {
+        retained = null;
+    }
+
+    @Benchmark
+    public void voteService(Footprint footprint) {
+        long before = usedHeap();
+        StringBuilder spec = new StringBuilder();
+        for (int e = 0; e < elections; e++) {
+            spec.append("Election").append(e).append("=A,B,C;");
+        }
+        VoteService service = new VoteService(ElectionRegistry.parse(spec.toString()),
+                new VoteHistory(VoteService.DEFAULT_HISTORY_WINDOW));
+        for (int voter = 0; voter < voters; voter++) {
+            String clientId = clientId(voter);
+            for (Election election : service.getElections().list()) {
+                service.castVote(election.getId(), clientId, clientId, voter % OPTIONS);
+            }
+        }
+        retained = service;
+        footprint.bytesPerVoter = (usedHeap() - before) / voters;
+    }
+
+    @Benchmark
+    public void registry(Footprint footprint) {
+        long before = usedHeap();
+        VoterRegistry registry = new VoterRegistry();
+        ChoiceTable[] choices = new ChoiceTable[elections];
+        for (int e = 0; e < elections; e++) {
+            choices[e] = new ChoiceTable(OPTIONS);
+        }
+        for (int voter = 0; voter < voters; voter++) {
+            int id = registry.intern(clientId(voter));
+            for (ChoiceTable election : choices) {
+                election.set(id, voter % OPTIONS);
+            }
+        }
+        retained = new Object[] {registry, choices};
+        footprint.bytesPerVoter = (usedHeap() - before) / voters;
+    }
+
+    private static String clientId(int voter) {
+        return "voter" + voter + "_" + Integer.toHexString(voter * 0x9E3779B9 | 0x10000000);
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 2; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
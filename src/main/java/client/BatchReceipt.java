@@ -0,0 +1,20 @@
+package client;
+
+import java.util.Map;
+
+/**
+ * The server's answer to a vote batch: how many entries were accepted, and the reason for
+ * each rejected one by its position in the batch.
+ */
+public class BatchReceipt {
+    private final int accepted;
+    private final Map<Integer, String> rejected;
+
+    public BatchReceipt(int accepted, Map<Integer, String> rejected) {
+        this.accepted = accepted;
+        this.rejected = rejected;
+    }
+
+    public int getAccepted() { return accepted; }
+    public Map<Integer, String> getRejected() { return rejected; }
+}
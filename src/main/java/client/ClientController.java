@@ -1,50 +1,74 @@
 package client;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
+import javafx.scene.chart.LineChart;
 import javafx.scene.chart.PieChart;
+import javafx.scene.chart.XYChart;
 import javafx.scene.control.*;
+import javafx.scene.layout.VBox;
+import javafx.util.Duration;
 
 import java.net.URL;
 import java.util.*;
 
-public class ClientController implements Initializable {
+/**
+ * Listener callbacks arrive on the client's reader thread. They are handed to an
+ * {@link UpdateCoalescer}, which applies them on the FX thread in arrival order and renders at
+ * most once per frame, so a vote storm costs one chart and history update per frame.
+ *
+ * While connected, the vote rates are polled once a second for the rate chart.
+ */
+public class ClientController implements Initializable, VotingClientListener {
+    private static final int HISTORY_LINES = 10;
+    private static final Object RESULTS_KEY = new Object();
+    private static final Object RATES_KEY = new Object();
+    private static final String[] WINDOW_LABELS = {"1s", "10s", "1m", "1h"}; // of the server's windows, in order
+
     @FXML private TextField usernameField;
     @FXML private Button connectButton;
     @FXML private Button disconnectButton;
     @FXML private Button voteButton;
     @FXML private Button changeVoteButton;
-    @FXML private RadioButton optionA, optionB, optionC;
+    @FXML private ComboBox<String> electionBox;
+    @FXML private VBox optionsBox;
     @FXML private Label statusLabel;
     @FXML private Label totalVotesLabel;
     @FXML private Label connectionLabel;
     @FXML private Label myVoteLabel;
     @FXML private PieChart voteChart;
+    @FXML private LineChart<Number, Number> rateChart;
+    @FXML private Label ratesLabel;
     @FXML private TextArea historyTextArea;
 
     @FXML
     private final ToggleGroup voteGroup = new ToggleGroup();
     private VotingClient client;
-    private Map<String, Integer> voteResults = new HashMap<>();
-    private List<String> voteHistory = new ArrayList<>();
+    private Map<String, Integer> voteResults = new LinkedHashMap<>();
+    private final List<Integer> electionIds = new ArrayList<>();
+    private int currentElectionId = -1;
+    private final Map<String, PieChart.Data> chartData = new HashMap<>();
+    private final UpdateCoalescer updates = new UpdateCoalescer(Platform::runLater, UpdateCoalescer.FRAME_NANOS, this::render);
+    private boolean resultsDirty = false;
+    private final Timeline ratesPoll = new Timeline(new KeyFrame(Duration.seconds(1), event -> pollRates()));
+    private boolean ratesPending = false;
+    private VoteRates rates;
+    private final List<String> unshownHistory = new ArrayList<>();
+    private final ArrayDeque<Integer> historyLineLengths = new ArrayDeque<>(); // of the lines shown
+    private long lastHistorySeq = 0;
+    private boolean historyResyncPending = false;
     private String currentVote = null;
     private String username = "";
 
     @Override
     public void initialize(URL location, ResourceBundle resources) {
-        // Initialize toggle group
-        optionA.setToggleGroup(voteGroup);
-        optionB.setToggleGroup(voteGroup);
-        optionC.setToggleGroup(voteGroup);
-
-        // Initialize vote results
-        voteResults.put("Option A", 0);
-        voteResults.put("Option B", 0);
-        voteResults.put("Option C", 0);
-
-        updateChart();
-        updateHistoryDisplay();
+        // Options arrive from the server once connected
+        rebuildChart();
+        ratesPoll.setCycleCount(Animation.INDEFINITE);
 
         // Add listener to vote group to enable change vote button
         voteGroup.selectedToggleProperty().addListener((observable, oldValue, newValue) -> {
@@ -68,8 +92,15 @@ public class ClientController implements Initializable {
         }
 
         try {
+            unshownHistory.clear();
+            clearHistoryDisplay();
+            currentElectionId = -1;
+            lastHistorySeq = 0;
+            historyResyncPending = false;
             client = new VotingClient("localhost", 12345, username, this);
             new Thread(client).start();
+            ratesPending = false;
+            ratesPoll.play();
 
             connectButton.setDisable(true);
             disconnectButton.setDisable(false);
@@ -94,6 +125,18 @@ public class ClientController implements Initializable {
         handleDisconnection();
     }
 
+    @FXML
+    private void handleElectionSelected() {
+        int index = electionBox.getSelectionModel().getSelectedIndex();
+        if (index < 0 || electionIds.get(index) == currentElectionId) {
+            return;
+        }
+        if (client != null && client.isConnected()) {
+            client.joinElection(electionIds.get(index));
+            statusLabel.setText("Switching election...");
+        }
+    }
+
     @FXML
     private void handleVote() {
         RadioButton selected = (RadioButton) voteGroup.getSelectedToggle();
@@ -104,7 +147,10 @@ public class ClientController implements Initializable {
 
         if (client != null && client.isConnected()) {
             String option = selected.getText();
-            client.sendVote(option);
+            if (client.sendVote(option).isCompletedExceptionally()) {
+                statusLabel.setText("Too many requests pending, try again");
+                return;
+            }
             statusLabel.setText("Submitting vote...");
         } else {
             showAlert("Error", "Not connected to server");
@@ -121,7 +167,10 @@ public class ClientController implements Initializable {
 
         if (client != null && client.isConnected()) {
             String newOption = selected.getText();
-            client.sendVote(newOption);
+            if (client.sendVote(newOption).isCompletedExceptionally()) {
+                statusLabel.setText("Too many requests pending, try again");
+                return;
+            }
             statusLabel.setText("Changing vote...");
         } else {
             showAlert("Error", "Not connected to server");
@@ -138,103 +187,312 @@ public class ClientController implements Initializable {
         }
     }
 
+    @Override
     public void updateVoteResults(Map<String, Integer> results) {
-        Platform.runLater(() -> {
-            voteResults.putAll(results);
+        // only the newest results matter, so a backlog of them collapses into one
+        updates.post(RESULTS_KEY, () -> applyResults(results));
+    }
+
+    private void applyResults(Map<String, Integer> results) {
+        if (optionsBox.getChildren().isEmpty()) {
+            // Servers without elections never send OPTIONS; take the options from the results
+            showOptions(0, new ArrayList<>(results.keySet()));
+        }
+        // Ignore options of an election we have just left
+        results.forEach((option, count) -> voteResults.replace(option, count));
+        resultsDirty = true;
+    }
+
+    // Runs on the FX thread once per batch of updates
+    private void render() {
+        if (resultsDirty) {
+            resultsDirty = false;
             updateChart();
+            statusLabel.setText("Results updated");
 
-            int total = results.values().stream().mapToInt(Integer::intValue).sum();
+            int total = voteResults.values().stream().mapToInt(Integer::intValue).sum();
             totalVotesLabel.setText("Total Votes: " + total);
-        });
+        }
+        if (!unshownHistory.isEmpty()) {
+            updateHistoryDisplay();
+        }
+        if (rates != null) {
+            showRates(rates);
+            rates = null;
+        }
     }
 
-    private void updateChart() {
-        voteChart.getData().clear();
+    // One request at a time, so a slow server is polled no faster than it answers
+    private void pollRates() {
+        if (ratesPending || client == null || !client.isConnected()) {
+            return;
+        }
+        ratesPending = true;
+        client.requestRates().whenComplete((reply, error) -> updates.post(RATES_KEY, () -> {
+            ratesPending = false;
+            if (reply != null && reply.getElectionId() == currentElectionId) {
+                rates = reply;
+            }
+        }));
+    }
 
+    // Plots votes per second over the last minute, one line per option, and the window rates
+    private void showRates(VoteRates reply) {
+        List<String> options = new ArrayList<>(voteResults.keySet());
+        long[][] series = reply.getSeries();
+        if (rateChart.getData().size() != options.size()) {
+            rebuildRateChart();
+        }
+        for (int option = 0; option < options.size(); option++) {
+            List<XYChart.Data<Number, Number>> points = rateChart.getData().get(option).getData();
+            if (points.size() != series.length) {
+                List<XYChart.Data<Number, Number>> fresh = new ArrayList<>(series.length);
+                for (int i = 0; i < series.length; i++) {
+                    fresh.add(new XYChart.Data<>(i - series.length + 1, 0));
+                }
+                rateChart.getData().get(option).getData().setAll(fresh);
+                points = rateChart.getData().get(option).getData();
+            }
+            for (int i = 0; i < series.length; i++) {
+                long votes = option < series[i].length ? series[i][option] : 0;
+                if (points.get(i).getYValue().longValue() != votes) {
+                    points.get(i).setYValue(votes);
+                }
+            }
+        }
+
+        StringBuilder text = new StringBuilder("Votes/s:");
+        int[] windowSeconds = reply.getWindowSeconds();
+        for (int window = 0; window < windowSeconds.length; window++) {
+            double total = 0;
+            for (int option = 0; option < reply.getWindows()[window].length; option++) {
+                total += reply.perSecond(window, option);
+            }
+            String label = window < WINDOW_LABELS.length ? WINDOW_LABELS[window] : windowSeconds[window] + "s";
+            text.append(String.format("  %s %.1f", label, total));
+        }
+        ratesLabel.setText(text.toString());
+    }
+
+    private void rebuildRateChart() {
+        List<XYChart.Series<Number, Number>> lines = new ArrayList<>(voteResults.size());
+        for (String option : voteResults.keySet()) {
+            XYChart.Series<Number, Number> line = new XYChart.Series<>();
+            line.setName(option);
+            lines.add(line);
+        }
+        rateChart.getData().setAll(lines);
+    }
+
+    // Replaces the slices, for when the options change
+    private void rebuildChart() {
+        chartData.clear();
+        List<PieChart.Data> slices = new ArrayList<>(voteResults.size());
         for (Map.Entry<String, Integer> entry : voteResults.entrySet()) {
-            PieChart.Data data = new PieChart.Data(entry.getKey() + " (" + entry.getValue() + ")", entry.getValue());
-            voteChart.getData().add(data);
+            PieChart.Data data = new PieChart.Data(sliceName(entry.getKey(), entry.getValue()), entry.getValue());
+            chartData.put(entry.getKey(), data);
+            slices.add(data);
         }
+        voteChart.getData().setAll(slices);
     }
 
+    // Updates the existing slices in place, so the chart animates instead of recreating its nodes
+    private void updateChart() {
+        for (Map.Entry<String, Integer> entry : voteResults.entrySet()) {
+            PieChart.Data data = chartData.get(entry.getKey());
+            if (data == null) {
+                rebuildChart();
+                return;
+            }
+            if (data.getPieValue() != entry.getValue()) {
+                data.setPieValue(entry.getValue());
+                data.setName(sliceName(entry.getKey(), entry.getValue()));
+            }
+        }
+    }
+
+    private static String sliceName(String option, int votes) {
+        return option + " (" + votes + ")";
+    }
+
+    // Appends the new entries and drops the oldest lines, showing only the latest HISTORY_LINES
     private void updateHistoryDisplay() {
+        if (unshownHistory.size() >= HISTORY_LINES) {
+            clearHistoryDisplay();
+        }
         StringBuilder historyText = new StringBuilder();
-        // Show only the latest 10 activities to avoid clutter
-        int startIndex = Math.max(0, voteHistory.size() - 10);
-        for (int i = startIndex; i < voteHistory.size(); i++) {
-            historyText.append("• ").append(voteHistory.get(i)).append("\n");
+        for (String entry : unshownHistory) {
+            int start = historyText.length();
+            historyText.append("• ").append(entry).append("\n");
+            historyLineLengths.addLast(historyText.length() - start);
+        }
+        unshownHistory.clear();
+        historyTextArea.appendText(historyText.toString());
+
+        int dropped = 0;
+        while (historyLineLengths.size() > HISTORY_LINES) {
+            dropped += historyLineLengths.removeFirst();
+        }
+        if (dropped > 0) {
+            historyTextArea.deleteText(0, dropped);
         }
-        historyTextArea.setText(historyText.toString());
     }
 
-    public void handleServerMessage(String message) {
-        Platform.runLater(() -> {
-            System.out.println("Processing message: " + message);
-
-            if (message.startsWith("RESULTS:")) {
-                parseResults(message);
-                statusLabel.setText("Results updated");
-            } else if (message.startsWith("HISTORY:")) {
-                parseHistory(message);
-            } else if (message.startsWith("VOTE_ACCEPTED:")) {
-                String option = message.substring(14);
-                currentVote = option;
-                updateMyVoteLabel();
-                voteButton.setDisable(true);
-                changeVoteButton.setDisable(true);
-                statusLabel.setText("Vote submitted successfully");
-                statusLabel.setStyle("-fx-text-fill: #27ae60;");
-            } else if (message.startsWith("ERROR:")) {
-                statusLabel.setText(message.substring(6));
-                statusLabel.setStyle("-fx-text-fill: #e74c3c;");
-                voteButton.setDisable(false);
-            }
-        });
+    private void clearHistoryDisplay() {
+        historyTextArea.clear();
+        historyLineLengths.clear();
     }
 
-    private void parseResults(String message) {
-        try {
-            String resultsStr = message.substring(8); // Remove "RESULTS:"
-            String[] pairs = resultsStr.split(";");
-
-            Map<String, Integer> newResults = new HashMap<>();
-            for (String pair : pairs) {
-                if (!pair.isEmpty()) {
-                    String[] keyValue = pair.split(":");
-                    if (keyValue.length == 2) {
-                        newResults.put(keyValue[0], Integer.parseInt(keyValue[1]));
-                    }
-                }
-            }
-            updateVoteResults(newResults);
-        } catch (Exception e) {
-            System.err.println("Error parsing results: " + e.getMessage());
+    // VotingClientListener: called on the client's reader thread, so each goes through the coalescer
+
+    @Override
+    public void handleElections(Map<Integer, String> elections) {
+        updates.post(() -> showElections(elections));
+    }
+
+    @Override
+    public void handleOptions(int electionId, List<String> options) {
+        updates.post(() -> showOptions(electionId, options));
+    }
+
+    @Override
+    public void handleVoteAccepted(String option) {
+        updates.post(() -> showVoteAccepted(option));
+    }
+
+    @Override
+    public void handleBatchResult(BatchReceipt receipt) {
+        updates.post(() -> statusLabel.setText("Batch: " + receipt.getAccepted() + " accepted, "
+                + receipt.getRejected().size() + " rejected"));
+    }
+
+    @Override
+    public void handleServerError(String message) {
+        updates.post(() -> showServerError(message));
+    }
+
+    @Override
+    public void handleHistory(long firstSeq, List<String> entries, boolean page) {
+        updates.post(() -> applyHistory(firstSeq, entries, page));
+    }
+
+    private void showElections(Map<Integer, String> elections) {
+        electionIds.clear();
+        electionIds.addAll(elections.keySet());
+        electionBox.getItems().setAll(elections.values());
+        int index = electionIds.indexOf(currentElectionId);
+        if (index >= 0) {
+            electionBox.getSelectionModel().select(index);
         }
     }
 
-    private void parseHistory(String message) {
-        try {
-            String historyStr = message.substring(8); // Remove "HISTORY:"
-            String[] entries = historyStr.split("\\|");
+    // Rebuilds the option buttons and chart for the election the server says we are now in
+    private void showOptions(int electionId, List<String> options) {
+        // a reconnect that could not resume resends the options of the election we are still in
+        boolean sameElection = electionId == currentElectionId && options.contains(currentVote);
+        currentElectionId = electionId;
+        int index = electionIds.indexOf(electionId);
+        if (index >= 0) {
+            electionBox.getSelectionModel().select(index);
+        }
 
-            voteHistory.clear();
-            for (String entry : entries) {
-                if (!entry.isEmpty()) {
-                    voteHistory.add(entry);
-                }
+        voteGroup.selectToggle(null);
+        voteGroup.getToggles().clear();
+        optionsBox.getChildren().clear();
+        voteResults.clear();
+        for (String option : options) {
+            RadioButton button = new RadioButton(option);
+            button.setToggleGroup(voteGroup);
+            optionsBox.getChildren().add(button);
+            voteResults.put(option, 0);
+        }
+        rebuildChart();
+        rebuildRateChart();
+        ratesLabel.setText("Votes/s: -");
+        totalVotesLabel.setText("Total Votes: 0");
+
+        if (!sameElection) {
+            currentVote = null;
+        }
+        updateMyVoteLabel();
+        voteButton.setDisable(!connectButton.isDisabled() || currentVote != null);
+        changeVoteButton.setDisable(true);
+    }
+
+    private void showVoteAccepted(String option) {
+        currentVote = option;
+        updateMyVoteLabel();
+        voteButton.setDisable(true);
+        changeVoteButton.setDisable(true);
+        statusLabel.setText("Vote submitted successfully");
+        statusLabel.setStyle("-fx-text-fill: #27ae60;");
+    }
+
+    private void showServerError(String message) {
+        statusLabel.setText(message);
+        statusLabel.setStyle("-fx-text-fill: #e74c3c;");
+        voteButton.setDisable(false);
+    }
+
+    // A page answers a history request and may start later than asked when the server no longer
+    // has older entries, so only appends are checked for gaps
+    private void applyHistory(long firstSeq, List<String> entries, boolean page) {
+        if (!page && firstSeq > lastHistorySeq + 1) {
+            // Missed an append, ask the server once for everything after the last entry we have
+            if (!historyResyncPending && client != null) {
+                historyResyncPending = true;
+                client.requestHistorySince(lastHistorySeq);
             }
-            updateHistoryDisplay();
-        } catch (Exception e) {
-            System.err.println("Error parsing history: " + e.getMessage());
+            return;
+        }
+        historyResyncPending = false;
+
+        long seq = firstSeq;
+        for (String entry : entries) {
+            if (seq > lastHistorySeq) {
+                unshownHistory.add(entry);
+                lastHistorySeq = seq;
+            }
+            seq++;
+        }
+        if (unshownHistory.size() > HISTORY_LINES) {
+            // would be scrolled out by the next render anyway
+            unshownHistory.subList(0, unshownHistory.size() - HISTORY_LINES).clear();
         }
     }
 
+    @Override
+    public void handleConnectionLost(int attempt, long retryInMillis) {
+        updates.post(() -> {
+            statusLabel.setText(String.format("Connection lost, retrying in %.1fs (attempt %d)",
+                    retryInMillis / 1000.0, attempt));
+            statusLabel.setStyle("-fx-text-fill: #f39c12;");
+            connectionLabel.setText("Reconnecting...");
+            connectionLabel.setStyle("-fx-text-fill: #f39c12;");
+            voteButton.setDisable(true);
+            changeVoteButton.setDisable(true);
+        });
+    }
+
+    @Override
+    public void handleReconnected(boolean resumed) {
+        updates.post(() -> {
+            statusLabel.setText(resumed ? "Reconnected, session resumed" : "Reconnected");
+            statusLabel.setStyle("-fx-text-fill: #27ae60;");
+            connectionLabel.setText("Connected to server");
+            connectionLabel.setStyle("-fx-text-fill: #27ae60;");
+            voteButton.setDisable(currentVote != null);
+        });
+    }
+
+    @Override
     public void handleDisconnection() {
-        Platform.runLater(() -> {
+        updates.post(() -> {
             statusLabel.setText("Disconnected");
             statusLabel.setStyle("-fx-text-fill: #e74c3c;");
             connectionLabel.setText("Disconnected from server");
             connectionLabel.setStyle("-fx-text-fill: #e74c3c;");
+            ratesPoll.stop();
             connectButton.setDisable(false);
             disconnectButton.setDisable(true);
             usernameField.setDisable(false);
@@ -0,0 +1,16 @@
+package client;
+
+import java.util.List;
+
+public class ElectionOptions {
+    private final int electionId;
+    private final List<String> options;
+
+    public ElectionOptions(int electionId, List<String> options) {
+        this.electionId = electionId;
+        this.options = options;
+    }
+
+    public int getElectionId() { return electionId; }
+    public List<String> getOptions() { return options; }
+}
@@ -0,0 +1,19 @@
+package client;
+
+import java.util.List;
+
+/**
+ * History entries with consecutive sequence numbers starting at {@code firstSeq}.
+ */
+public class HistoryBatch {
+    private final long firstSeq;
+    private final List<String> entries;
+
+    public HistoryBatch(long firstSeq, List<String> entries) {
+        this.firstSeq = firstSeq;
+        this.entries = entries;
+    }
+
+    public long getFirstSeq() { return firstSeq; }
+    public List<String> getEntries() { return entries; }
+}
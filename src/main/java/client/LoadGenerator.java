@@ -0,0 +1,276 @@
+package client;
+
+import common.LatencyHistogram;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load test: opens simulated voters against a running server, each on its own
+ * virtual thread with its own {@link VotingClient}.
+ *
+ * Voters connect at {@code loadgen.voteRate} per second and cast a first vote, then change
+ * their vote {@code loadgen.changeRate} times per second until the run ends. Latency is
+ * measured from when a vote was due to be sent, not when it actually went out, so a server
+ * that falls behind shows up in the percentiles instead of silently slowing the voters down.
+ *
+ * Run with {@code java -cp target/classes client.LoadGenerator} and -D options:
+ * loadgen.host, loadgen.port, loadgen.voters, loadgen.voteRate, loadgen.changeRate,
+ * loadgen.durationSec, loadgen.protocol (binary or text), loadgen.timeoutMs, loadgen.reportSec.
+ */
+public class LoadGenerator {
+    private final String host;
+    private final int port;
+    private final int voters;
+    private final double voteRate;
+    private final double changeRate;
+    private final long durationNanos;
+    private final boolean binary;
+    private final long timeoutNanos;
+    private final long reportNanos;
+
+    private final LatencyHistogram acceptLatency = new LatencyHistogram();
+    private final LatencyHistogram resultsLatency = new LatencyHistogram();
+    private final LongAdder votesSent = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final PrintStream report;
+    private volatile boolean running = true;
+
+    public LoadGenerator(String host, int port, int voters, double voteRate, double changeRate, long durationSeconds,
+                         boolean binary, long timeoutMillis, long reportSeconds, PrintStream report) {
+        this.host = host;
+        this.port = port;
+        this.voters = voters;
+        this.voteRate = voteRate;
+        this.changeRate = changeRate;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        this.binary = binary;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.reportNanos = TimeUnit.SECONDS.toNanos(reportSeconds);
+        this.report = report;
+    }
+
+    public void run() throws InterruptedException {
+        report.printf("Load test: %d voters against %s:%d (%s), %.1f new voters/s, %.2f changes/s per voter, %ds%n",
+                voters, host, port, binary ? "binary" : "text", voteRate, changeRate,
+                TimeUnit.NANOSECONDS.toSeconds(durationNanos));
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        CountDownLatch finished = new CountDownLatch(voters);
+        try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < voters; i++) {
+                long connectAt = start + (long) (i * 1e9 / voteRate);
+                int index = i;
+                threads.execute(() -> {
+                    try {
+                        runVoter(index, connectAt, end);
+                    } finally {
+                        finished.countDown();
+                    }
+                });
+            }
+            long nextReport = start + reportNanos;
+            while (!finished.await(Math.max(0, nextReport - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                if (System.nanoTime() >= end) {
+                    running = false;
+                }
+                printReport("progress", System.nanoTime() - start);
+                nextReport += reportNanos;
+            }
+        }
+        printReport("final", System.nanoTime() - start);
+    }
+
+    private void runVoter(int index, long connectAt, long end) {
+        parkUntil(connectAt);
+        if (!running || System.nanoTime() >= end) {
+            return;
+        }
+        Voter voter = new Voter();
+        VotingClient client = new VotingClient(host, port, "load-" + index, voter, binary);
+        Thread.ofVirtual().start(client);
+        try {
+            List<String> options = voter.awaitOptions(timeoutNanos);
+            if (options == null || options.isEmpty()) {
+                connectFailures.increment();
+                return;
+            }
+            long intervalNanos = changeRate > 0 ? (long) (1e9 / changeRate) : Long.MAX_VALUE;
+            long due = System.nanoTime();
+            int choice = index % options.size();
+            while (running && due < end) {
+                parkUntil(due);
+                Pending pending = voter.expect(due);
+                client.sendVote(options.get(choice));
+                votesSent.increment();
+                if (!pending.await(timeoutNanos)) {
+                    timeouts.increment();
+                }
+                if (intervalNanos == Long.MAX_VALUE) {
+                    break;
+                }
+                choice = (choice + 1) % options.size();
+                due += intervalNanos;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    private static void parkUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private void printReport(String label, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        report.printf("[%s %.0fs] sent=%d (%.0f/s) errors=%d timeouts=%d connectFailures=%d reconnects=%d%n",
+                label, seconds, votesSent.sum(), votesSent.sum() / seconds, errors.sum(), timeouts.sum(),
+                connectFailures.sum(), reconnects.sum());
+        printLatency("  VOTE -> VOTE_ACCEPTED", acceptLatency);
+        printLatency("  VOTE -> next RESULTS ", resultsLatency);
+    }
+
+    private void printLatency(String label, LatencyHistogram histogram) {
+        report.printf("%s  n=%d p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms%n", label, histogram.getCount(),
+                histogram.valueAtPercentile(50) / 1e6, histogram.valueAtPercentile(99) / 1e6,
+                histogram.valueAtPercentile(99.9) / 1e6, histogram.getMax() / 1e6);
+    }
+
+    /**
+     * One outstanding vote: complete once both its acceptance and a RESULTS broadcast arrived.
+     */
+    private static class Pending {
+        final long dueNanos;
+        final CountDownLatch done = new CountDownLatch(2);
+        volatile boolean accepted;
+        volatile boolean resultsSeen;
+
+        Pending(long dueNanos) {
+            this.dueNanos = dueNanos;
+        }
+
+        boolean await(long timeoutNanos) throws InterruptedException {
+            return done.await(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private class Voter implements VotingClientListener {
+        private final CountDownLatch optionsReceived = new CountDownLatch(1);
+        private volatile List<String> options;
+        private volatile Pending pending;
+
+        List<String> awaitOptions(long timeoutNanos) throws InterruptedException {
+            return optionsReceived.await(timeoutNanos, TimeUnit.NANOSECONDS) ? options : null;
+        }
+
+        Pending expect(long dueNanos) {
+            Pending next = new Pending(dueNanos);
+            pending = next;
+            return next;
+        }
+
+        @Override
+        public void handleOptions(int electionId, List<String> options) {
+            this.options = options;
+            optionsReceived.countDown();
+        }
+
+        @Override
+        public void updateVoteResults(Map<String, Integer> results) {
+            if (options == null) {
+                // servers without elections only send results
+                handleOptions(0, List.copyOf(results.keySet()));
+            }
+            Pending current = pending;
+            if (current != null && !current.resultsSeen) {
+                current.resultsSeen = true;
+                resultsLatency.record(System.nanoTime() - current.dueNanos);
+                current.done.countDown();
+            }
+        }
+
+        @Override
+        public void handleVoteAccepted(String option) {
+            Pending current = pending;
+            if (current != null && !current.accepted) {
+                current.accepted = true;
+                acceptLatency.record(System.nanoTime() - current.dueNanos);
+                current.done.countDown();
+            }
+        }
+
+        @Override
+        public void handleBatchResult(BatchReceipt receipt) {
+        }
+
+        @Override
+        public void handleServerError(String message) {
+            errors.increment();
+            Pending current = pending;
+            if (current != null) {
+                // an error answers the vote; do not wait for the timeout
+                while (current.done.getCount() > 0) {
+                    current.done.countDown();
+                }
+            }
+        }
+
+        @Override
+        public void handleElections(Map<Integer, String> elections) {
+        }
+
+        @Override
+        public void handleHistory(long firstSeq, List<String> entries, boolean page) {
+        }
+
+        @Override
+        public void handleConnectionLost(int attempt, long retryInMillis) {
+        }
+
+        @Override
+        public void handleReconnected(boolean resumed) {
+            reconnects.increment();
+        }
+
+        @Override
+        public void handleDisconnection() {
+            optionsReceived.countDown();
+            Pending current = pending;
+            if (current != null) {
+                while (current.done.getCount() > 0) {
+                    current.done.countDown();
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadGenerator generator = new LoadGenerator(
+                System.getProperty("loadgen.host", "localhost"),
+                Integer.getInteger("loadgen.port", 12345),
+                Integer.getInteger("loadgen.voters", 100),
+                Double.parseDouble(System.getProperty("loadgen.voteRate", "100")),
+                Double.parseDouble(System.getProperty("loadgen.changeRate", "1")),
+                Long.getLong("loadgen.durationSec", 30),
+                !"text".equals(System.getProperty("loadgen.protocol", "binary")),
+                Long.getLong("loadgen.timeoutMs", 5000),
+                Long.getLong("loadgen.reportSec", 5),
+                System.out);
+        generator.run();
+    }
+}
@@ -0,0 +1,12 @@
+package client;
+
+/**
+ * The server answered a request with ERROR; the message is the server's reason.
+ */
+public class ServerErrorException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public ServerErrorException(String message) {
+        super(message);
+    }
+}
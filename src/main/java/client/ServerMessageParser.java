@@ -0,0 +1,154 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the text protocol lines sent by the server. Kept free of JavaFX so it can be used
+ * off the FX thread and benchmarked on its own. Malformed lines throw a RuntimeException.
+ */
+public final class ServerMessageParser {
+    private ServerMessageParser() {
+    }
+
+    /**
+     * RESULTS:#version;option:count;option:count;... The version is optional.
+     */
+    public static Map<String, Integer> parseResults(String message) {
+        String resultsStr = message.substring(8); // Remove "RESULTS:"
+        String[] pairs = resultsStr.split(";");
+
+        Map<String, Integer> results = new LinkedHashMap<>();
+        for (String pair : pairs) {
+            if (!pair.isEmpty() && pair.charAt(0) != '#') {
+                String[] keyValue = pair.split(":");
+                if (keyValue.length == 2) {
+                    results.put(keyValue[0], Integer.parseInt(keyValue[1]));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The version of a RESULTS line, or -1 for a server that does not send one.
+     */
+    public static long parseResultsVersion(String message) {
+        if (message.length() < 10 || message.charAt(8) != '#') {
+            return -1;
+        }
+        return Long.parseLong(message, 9, message.indexOf(';', 9), 10);
+    }
+
+    /**
+     * RATES:electionId|second|seconds=count,count;seconds=count,count;...|count,count;count,count;...
+     */
+    public static VoteRates parseRates(String message) {
+        String[] parts = message.substring(6).split("\\|", -1);
+        String[] windowParts = parts[2].split(";");
+        int[] windowSeconds = new int[windowParts.length];
+        long[][] windows = new long[windowParts.length][];
+        for (int i = 0; i < windowParts.length; i++) {
+            int equals = windowParts[i].indexOf('=');
+            windowSeconds[i] = Integer.parseInt(windowParts[i].substring(0, equals));
+            windows[i] = parseCounts(windowParts[i].substring(equals + 1));
+        }
+        String[] seriesParts = parts[3].isEmpty() ? new String[0] : parts[3].split(";");
+        long[][] series = new long[seriesParts.length][];
+        for (int i = 0; i < seriesParts.length; i++) {
+            series[i] = parseCounts(seriesParts[i]);
+        }
+        return new VoteRates(Integer.parseInt(parts[0]), Long.parseLong(parts[1]), windowSeconds, windows, series);
+    }
+
+    private static long[] parseCounts(String counts) {
+        if (counts.isEmpty()) {
+            return new long[0];
+        }
+        String[] values = counts.split(",");
+        long[] parsed = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            parsed[i] = Long.parseLong(values[i]);
+        }
+        return parsed;
+    }
+
+    /**
+     * BATCH_RESULT:accepted|index=reason;index=reason;...
+     */
+    public static BatchReceipt parseBatchResult(String message) {
+        String resultStr = message.substring(13);
+        int separator = resultStr.indexOf('|');
+        int accepted = Integer.parseInt(separator < 0 ? resultStr : resultStr.substring(0, separator));
+        Map<Integer, String> rejected = new LinkedHashMap<>();
+        if (separator >= 0) {
+            for (String entry : resultStr.substring(separator + 1).split(";")) {
+                int equals = entry.indexOf('=');
+                if (equals > 0) {
+                    rejected.put(Integer.parseInt(entry.substring(0, equals)), entry.substring(equals + 1));
+                }
+            }
+        }
+        return new BatchReceipt(accepted, rejected);
+    }
+
+    /**
+     * HISTORY_APPEND:seq|entry|... or HISTORY_PAGE:seq|entry|..., with the prefix length given.
+     */
+    public static HistoryBatch parseHistory(String message, int prefixLength) {
+        String historyStr = message.substring(prefixLength);
+        String[] parts = historyStr.split("\\|");
+        long firstSeq = Long.parseLong(parts[0]);
+
+        List<String> entries = new ArrayList<>();
+        for (int i = 1; i < parts.length; i++) {
+            if (!parts[i].isEmpty()) {
+                entries.add(parts[i]);
+            }
+        }
+        return new HistoryBatch(firstSeq, entries);
+    }
+
+    /**
+     * HISTORY:entry|entry|..., the complete history from older servers, numbered from 1.
+     */
+    public static HistoryBatch parseFullHistory(String message) {
+        List<String> entries = new ArrayList<>();
+        for (String entry : message.substring(8).split("\\|")) {
+            if (!entry.isEmpty()) {
+                entries.add(entry);
+            }
+        }
+        return new HistoryBatch(1, entries);
+    }
+
+    /**
+     * ELECTIONS:id=name;id=name;...
+     */
+    public static Map<Integer, String> parseElections(String message) {
+        Map<Integer, String> elections = new LinkedHashMap<>();
+        for (String election : message.substring(10).split(";")) {
+            int separator = election.indexOf('=');
+            if (separator > 0) {
+                elections.put(Integer.parseInt(election.substring(0, separator)), election.substring(separator + 1));
+            }
+        }
+        return elections;
+    }
+
+    /**
+     * OPTIONS:electionId|option|option|...
+     */
+    public static ElectionOptions parseOptions(String message) {
+        String[] parts = message.substring(8).split("\\|");
+        List<String> options = new ArrayList<>();
+        for (int i = 1; i < parts.length; i++) {
+            if (!parts[i].isEmpty()) {
+                options.add(parts[i]);
+            }
+        }
+        return new ElectionOptions(Integer.parseInt(parts[0]), options);
+    }
+}
@@ -0,0 +1,95 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects model updates from the network thread and applies them on the UI thread in one go,
+ * followed by a single render, at most once per frame. However fast messages arrive, at most one
+ * flush is queued on the UI executor.
+ *
+ * Updates posted under the same key are snapshots of the same state, so a newer one replaces an
+ * older one that has not been applied yet and moves to its place in posting order. Updates
+ * without a key are all applied, in order.
+ */
+public class UpdateCoalescer {
+    public static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+
+    private static final ScheduledExecutorService PACER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ui-pacer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Executor uiExecutor;
+    private final long frameNanos;
+    private final Runnable render;
+    private final Map<Object, Runnable> pending = new LinkedHashMap<>();
+    private final LongAdder posted = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private boolean scheduled;
+    private long lastFlushNanos;
+
+    /**
+     * @param uiExecutor runs flushes on the UI thread, e.g. {@code Platform::runLater}
+     * @param render     called on the UI thread after each batch of updates
+     */
+    public UpdateCoalescer(Executor uiExecutor, long frameNanos, Runnable render) {
+        this.uiExecutor = uiExecutor;
+        this.frameNanos = frameNanos;
+        this.render = render;
+    }
+
+    public void post(Runnable update) {
+        post(new Object(), update);
+    }
+
+    public void post(Object key, Runnable update) {
+        posted.increment();
+        long delayNanos;
+        synchronized (pending) {
+            pending.remove(key);
+            pending.put(key, update);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+            delayNanos = lastFlushNanos + frameNanos - System.nanoTime();
+        }
+        if (delayNanos > 0) {
+            PACER.schedule(() -> uiExecutor.execute(this::flush), delayNanos, TimeUnit.NANOSECONDS);
+        } else {
+            uiExecutor.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        List<Runnable> updates;
+        synchronized (pending) {
+            updates = new ArrayList<>(pending.values());
+            pending.clear();
+            scheduled = false;
+            lastFlushNanos = System.nanoTime();
+        }
+        for (Runnable update : updates) {
+            update.run();
+        }
+        render.run();
+        flushes.increment();
+    }
+
+    public long getPostedCount() {
+        return posted.sum();
+    }
+
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+}
@@ -0,0 +1,34 @@
+package client;
+
+/**
+ * The server's vote velocity for one election: the votes per option id in each of a few windows
+ * ending with {@code second}, and per second over the last minute as a trend series.
+ */
+public class VoteRates {
+    private final int electionId;
+    private final long second;
+    private final int[] windowSeconds;
+    private final long[][] windows;
+    private final long[][] series;
+
+    public VoteRates(int electionId, long second, int[] windowSeconds, long[][] windows, long[][] series) {
+        this.electionId = electionId;
+        this.second = second;
+        this.windowSeconds = windowSeconds;
+        this.windows = windows;
+        this.series = series;
+    }
+
+    public int getElectionId() { return electionId; }
+    public long getSecond() { return second; }
+    public int[] getWindowSeconds() { return windowSeconds; }
+    public long[][] getWindows() { return windows; }
+    public long[][] getSeries() { return series; }
+
+    /**
+     * Votes per second for the option, averaged over the window at {@code window}.
+     */
+    public double perSecond(int window, int optionId) {
+        return (double) windows[window][optionId] / windowSeconds[window];
+    }
+}
@@ -1,78 +1,685 @@
 package client;
 
+import common.BinaryProtocol;
+import common.BinaryWriter;
+
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Connection to the voting server. When the connection drops, {@link #run()} reconnects with
+ * exponential backoff and jitter, keeping the same client id so the server still knows the
+ * voter, and resumes the session it was given so only results and missed history are resent.
+ * The listener only sees {@code handleDisconnection()} after {@link #disconnect()} or when
+ * reconnecting gives up.
+ *
+ * Requests are tagged with an id and return a future for their reply, so any number can be in
+ * flight at once, up to {@value #MAX_IN_FLIGHT}; past that a new request fails at once.
+ * The listener is still told about every reply as well. Futures of requests still unanswered
+ * when the connection drops fail with an IOException.
+ *
+ * Connects, disconnects and every message are only printed with {@code -Dvoting.client.debug=true};
+ * errors always go to stderr.
+ */
 public class VotingClient implements Runnable {
+    private static final long INITIAL_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final int MAX_RECONNECT_ATTEMPTS = 20;
+    // tagged replies are never coalesced, so stay well inside the server's outbound queue
+    private static final int MAX_IN_FLIGHT = 128;
+    // traces connects and every message sent and received; off, as a load run opens thousands of clients
+    private static final boolean DEBUG = Boolean.getBoolean("voting.client.debug");
+
     private final String host;
     private final int port;
     private final String username;
-    private final ClientController controller;
+    private final VotingClientListener listener;
+    private final boolean offerBinary;
 
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
-    private boolean connected;
+    private volatile Socket socket;
+    private volatile OutputStream out;
+    private volatile InputStream in;
+    private volatile boolean connected;
+    private volatile boolean binary;
+    private volatile boolean reconnect = !"false".equals(System.getProperty("voting.reconnect"));
+    private volatile String kioskSecret = System.getProperty("voting.kiosk.secret");
+    private final CountDownLatch closed = new CountDownLatch(1);
     private final String clientId;
+    private volatile String sessionToken;
+    private volatile long lastHistorySeq; // last history entry received without a gap before it
+    private boolean reconnecting;
+    // options of the election last announced by the server, which is the one votes go to
+    private volatile int electionId;
+    private volatile List<String> optionNames = List.of();
+    private long resultsVersion = -1; // of the latest RESULTS shown, read and written by the reader thread
+    private final Map<String, Integer> optionIds = new ConcurrentHashMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Map<Long, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
 
-    public VotingClient(String host, int port, String username, ClientController controller) {
+    public VotingClient(String host, int port, String username, VotingClientListener listener) {
+        this(host, port, username, listener, !"text".equals(System.getProperty("voting.protocol")));
+    }
+
+    public VotingClient(String host, int port, String username, VotingClientListener listener, boolean offerBinary) {
         this.host = host;
         this.port = port;
         this.username = username;
-        this.controller = controller;
+        this.listener = listener;
         this.clientId = username + "_" + UUID.randomUUID().toString().substring(0, 8);
+        this.offerBinary = offerBinary;
+    }
+
+    /**
+     * Whether to reconnect after the connection drops; on unless {@code -Dvoting.reconnect=false}.
+     */
+    public void setReconnect(boolean reconnect) {
+        this.reconnect = reconnect;
+    }
+
+    /**
+     * Connects as a kiosk, which may {@link #sendVoteBatch send vote batches}; from
+     * {@code -Dvoting.kiosk.secret} unless set here. A kiosk starts a new session on each connect.
+     */
+    public void setKioskSecret(String kioskSecret) {
+        this.kioskSecret = kioskSecret;
     }
 
     @Override
     public void run() {
+        int attempt = 0;
+        boolean everConnected = false;
+        while (!isClosed()) {
+            try {
+                connect();
+                everConnected = true;
+                attempt = 0;
+                readMessages();
+            } catch (EOFException e) {
+                if (!isClosed()) {
+                    System.err.println("Connection closed by server");
+                }
+            } catch (IOException e) {
+                // after disconnect() the blocked read fails because we closed the socket ourselves
+                if (!isClosed()) {
+                    System.err.println("Client connection error: " + e.getMessage());
+                }
+            } finally {
+                closeConnection();
+            }
+            if (isClosed()) {
+                return;
+            }
+            // a server that was never reachable is a configuration problem, not a blip
+            if (!reconnect || !everConnected || attempt >= MAX_RECONNECT_ATTEMPTS) {
+                closed.countDown();
+                listener.handleDisconnection();
+                return;
+            }
+            long delay = backoffMillis(attempt++);
+            listener.handleConnectionLost(attempt, delay);
+            try {
+                if (closed.await(delay, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            reconnecting = true;
+        }
+    }
+
+    // Doubling with "equal jitter": clients dropped together do not all come back together
+    private static long backoffMillis(int attempt) {
+        long cap = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+    }
+
+    private void connect() throws IOException {
+        Socket opened = new Socket(host, port);
+        opened.setTcpNoDelay(true);
+        socket = opened;
+        out = opened.getOutputStream();
+        in = new BufferedInputStream(opened.getInputStream());
+        binary = false;
+        resultsVersion = -1; // another server, or a restarted one, counts versions afresh
+        connected = true;
+
+        String token = sessionToken;
+        String kiosk = kioskSecret;
+        String hello;
+        if (kiosk != null) {
+            hello = "KIOSK:" + kiosk + ":" + clientId + ":" + username;
+        } else if (token != null) {
+            hello = "RESUME:" + token + ":" + lastHistorySeq + ":" + clientId + ":" + username;
+        } else {
+            hello = clientId + ":" + username;
+        }
+        writeLine(hello + (offerBinary ? ":" + BinaryProtocol.VERSION : ""));
+        debug((reconnecting ? "Reconnected" : "Connected") + " to server as: " + username);
+    }
+
+    private void readMessages() throws IOException {
+        // A server that speaks the binary protocol confirms it first; anything else is a text server
+        String message = readLine();
+        if (BinaryProtocol.ACCEPT_LINE.equals(message)) {
+            binary = true;
+            readFrames();
+            return;
+        }
+        while (connected && message != null) {
+            debug("Received from server: " + message);
+            handleLine(message);
+            message = readLine();
+        }
+    }
+
+    private void readFrames() throws IOException {
+        while (connected) {
+            long length = BinaryProtocol.readVarLong(in);
+            if (length <= 0 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            byte[] frame = in.readNBytes((int) length);
+            if (frame.length < length) {
+                throw new EOFException();
+            }
+            handleFrame(ByteBuffer.wrap(frame));
+        }
+    }
+
+    private void handleFrame(ByteBuffer frame) {
+        byte type = frame.get();
+        long requestId = -1;
+        if ((type & BinaryProtocol.CORRELATED) != 0) {
+            requestId = BinaryProtocol.readVarLong(frame);
+            type &= ~BinaryProtocol.CORRELATED;
+        }
+        switch (type) {
+            case BinaryProtocol.ELECTIONS -> {
+                int count = BinaryProtocol.readVarInt(frame);
+                Map<Integer, String> elections = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    elections.put(BinaryProtocol.readVarInt(frame), BinaryProtocol.readString(frame));
+                }
+                listener.handleElections(elections);
+            }
+            case BinaryProtocol.OPTIONS -> {
+                int election = BinaryProtocol.readVarInt(frame);
+                int count = BinaryProtocol.readVarInt(frame);
+                String[] names = new String[count];
+                for (int i = 0; i < count; i++) {
+                    int id = BinaryProtocol.readVarInt(frame);
+                    names[id] = BinaryProtocol.readString(frame);
+                }
+                applyOptions(election, List.of(names));
+            }
+            case BinaryProtocol.RESULTS -> {
+                int election = BinaryProtocol.readVarInt(frame);
+                int count = BinaryProtocol.readVarInt(frame);
+                List<String> names = optionNames;
+                if (election != electionId) {
+                    // still in flight from the election we just left, whose option names are gone
+                    reject(requestId, "Results of an election no longer joined");
+                    return;
+                }
+                Map<String, Integer> results = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    int id = BinaryProtocol.readVarInt(frame);
+                    int votes = BinaryProtocol.readVarInt(frame);
+                    if (id < names.size()) {
+                        results.put(names.get(id), votes);
+                    }
+                }
+                long version = frame.hasRemaining() ? BinaryProtocol.readVarLong(frame) : -1;
+                resultsReceived(requestId, results, version);
+            }
+            case BinaryProtocol.RATES -> {
+                int election = BinaryProtocol.readVarInt(frame);
+                long second = BinaryProtocol.readVarLong(frame);
+                int options = BinaryProtocol.readVarInt(frame);
+                int windowCount = BinaryProtocol.readVarInt(frame);
+                int[] windowSeconds = new int[windowCount];
+                long[][] windows = new long[windowCount][];
+                for (int i = 0; i < windowCount; i++) {
+                    windowSeconds[i] = BinaryProtocol.readVarInt(frame);
+                    windows[i] = readCounts(frame, options);
+                }
+                long[][] series = new long[BinaryProtocol.readVarInt(frame)][];
+                for (int i = 0; i < series.length; i++) {
+                    series[i] = readCounts(frame, options);
+                }
+                resolve(requestId, new VoteRates(election, second, windowSeconds, windows, series));
+            }
+            case BinaryProtocol.HISTORY_APPEND, BinaryProtocol.HISTORY_PAGE -> {
+                long firstSeq = BinaryProtocol.readVarLong(frame);
+                int count = BinaryProtocol.readVarInt(frame);
+                List<String> entries = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    entries.add(BinaryProtocol.readString(frame));
+                }
+                resolve(requestId, new HistoryBatch(firstSeq, entries));
+                historyReceived(firstSeq, entries, type == BinaryProtocol.HISTORY_PAGE);
+            }
+            case BinaryProtocol.VOTE_ACCEPTED -> {
+                int election = BinaryProtocol.readVarInt(frame);
+                int id = BinaryProtocol.readVarInt(frame);
+                if (election == electionId && id < optionNames.size()) {
+                    resolve(requestId, optionNames.get(id));
+                    listener.handleVoteAccepted(optionNames.get(id));
+                } else {
+                    resolve(requestId, null);
+                }
+            }
+            case BinaryProtocol.BATCH_RESULT -> {
+                BinaryProtocol.readVarInt(frame); // election
+                int accepted = BinaryProtocol.readVarInt(frame);
+                int count = BinaryProtocol.readVarInt(frame);
+                Map<Integer, String> rejected = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    rejected.put(BinaryProtocol.readVarInt(frame), BinaryProtocol.readString(frame));
+                }
+                BatchReceipt receipt = new BatchReceipt(accepted, rejected);
+                resolve(requestId, receipt);
+                listener.handleBatchResult(receipt);
+            }
+            case BinaryProtocol.ERROR -> {
+                String error = BinaryProtocol.readString(frame);
+                reject(requestId, error);
+                listener.handleServerError(error);
+            }
+            case BinaryProtocol.SESSION -> {
+                String token = BinaryProtocol.readString(frame);
+                sessionStarted(token, BinaryProtocol.readVarInt(frame) == 1);
+            }
+            default -> System.err.println("Unknown message type from server: " + type);
+        }
+    }
+
+    private void handleLine(String message) {
+        long requestId = -1;
         try {
-            socket = new Socket(host, port);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            connected = true;
+            if (message.startsWith("@")) {
+                int space = message.indexOf(' ');
+                requestId = Long.parseLong(message.substring(1, space));
+                message = message.substring(space + 1);
+            }
+            if (message.startsWith("SESSION:")) {
+                sessionStarted(message.substring(8), false);
+            } else if (message.startsWith("RESUMED:")) {
+                sessionStarted(message.substring(8), true);
+            } else if (message.startsWith("ELECTIONS:")) {
+                listener.handleElections(ServerMessageParser.parseElections(message));
+            } else if (message.startsWith("OPTIONS:")) {
+                ElectionOptions options = ServerMessageParser.parseOptions(message);
+                applyOptions(options.getElectionId(), options.getOptions());
+            } else if (message.startsWith("RESULTS:")) {
+                resultsReceived(requestId, ServerMessageParser.parseResults(message),
+                        ServerMessageParser.parseResultsVersion(message));
+            } else if (message.startsWith("RATES:")) {
+                resolve(requestId, ServerMessageParser.parseRates(message));
+            } else if (message.startsWith("HISTORY_APPEND:")) {
+                HistoryBatch batch = ServerMessageParser.parseHistory(message, 15);
+                historyReceived(batch.getFirstSeq(), batch.getEntries(), false);
+            } else if (message.startsWith("HISTORY_PAGE:")) {
+                HistoryBatch batch = ServerMessageParser.parseHistory(message, 13);
+                resolve(requestId, batch);
+                historyReceived(batch.getFirstSeq(), batch.getEntries(), true);
+            } else if (message.startsWith("HISTORY:")) {
+                // servers without sequenced history resend everything each time
+                HistoryBatch batch = ServerMessageParser.parseFullHistory(message);
+                historyReceived(batch.getFirstSeq(), batch.getEntries(), true);
+            } else if (message.startsWith("VOTE_ACCEPTED:")) {
+                resolve(requestId, message.substring(14));
+                listener.handleVoteAccepted(message.substring(14));
+            } else if (message.startsWith("BATCH_RESULT:")) {
+                BatchReceipt receipt = ServerMessageParser.parseBatchResult(message);
+                resolve(requestId, receipt);
+                listener.handleBatchResult(receipt);
+            } else if (message.startsWith("ERROR:")) {
+                reject(requestId, message.substring(6).trim());
+                listener.handleServerError(message.substring(6).trim());
+            } else {
+                resolve(requestId, message);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error parsing server message: " + e.getMessage());
+            reject(requestId, "Unreadable reply: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A future for the reply to {@code requestId}, or one that already failed when
+     * {@value #MAX_IN_FLIGHT} requests are unanswered or the connection is gone; callers must not
+     * send the request then. Never blocks, as the UI thread sends requests too.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> track(long requestId) {
+        if (!inFlight.tryAcquire()) {
+            return CompletableFuture.failedFuture(new IOException("Too many requests in flight, try again"));
+        }
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        pending.put(requestId, reply);
+        if (!connected && pending.remove(requestId) != null) {
+            // lost the race with closeConnection()
+            inFlight.release();
+            reply.completeExceptionally(new IOException("Connection lost"));
+        }
+        return (CompletableFuture<T>) (CompletableFuture<?>) reply;
+    }
 
-            out.println(clientId + ":" + username);
-            System.out.println("Connected to server as: " + username);
+    private void resolve(long requestId, Object value) {
+        CompletableFuture<Object> reply = requestId < 0 ? null : pending.remove(requestId);
+        if (reply != null) {
+            inFlight.release();
+            reply.complete(value);
+        }
+    }
+
+    private void reject(long requestId, String error) {
+        CompletableFuture<Object> reply = requestId < 0 ? null : pending.remove(requestId);
+        if (reply != null) {
+            inFlight.release();
+            reply.completeExceptionally(new ServerErrorException(error));
+        }
+    }
+
+    private static <T> CompletableFuture<T> notConnected(String what) {
+        System.err.println("Cannot send " + what + " - not connected to server");
+        return CompletableFuture.failedFuture(new IOException("Not connected to server"));
+    }
+
+    private void sessionStarted(String token, boolean resumed) {
+        sessionToken = token;
+        if (!resumed) {
+            // a new session starts over with a full history page
+            lastHistorySeq = 0;
+        }
+        if (reconnecting) {
+            reconnecting = false;
+            listener.handleReconnected(resumed);
+        }
+    }
+
+    // Pages may start later than asked for, appends after a gap are resynced by the listener
+    private void historyReceived(long firstSeq, List<String> entries, boolean page) {
+        long last = firstSeq + entries.size() - 1;
+        if ((page || firstSeq <= lastHistorySeq + 1) && last > lastHistorySeq) {
+            lastHistorySeq = last;
+        }
+        listener.handleHistory(firstSeq, entries, page);
+    }
+
+    // A reply may overtake a broadcast or the other way round; the older of the two is not shown
+    private void resultsReceived(long requestId, Map<String, Integer> results, long version) {
+        resolve(requestId, results);
+        if (version >= 0 && version < resultsVersion) {
+            return;
+        }
+        resultsVersion = version;
+        listener.updateVoteResults(results);
+    }
 
-            String message;
-            while (connected && (message = in.readLine()) != null) {
-                System.out.println("Received from server: " + message);
-                controller.handleServerMessage(message);
+    private void applyOptions(int election, List<String> names) {
+        resultsVersion = -1; // versions are per election
+        optionIds.clear();
+        for (int i = 0; i < names.size(); i++) {
+            optionIds.put(names.get(i), i);
+        }
+        optionNames = names;
+        electionId = election;
+        listener.handleOptions(election, names);
+    }
+
+    /**
+     * Votes without waiting for earlier requests. The future completes with the accepted option
+     * once the vote is durable, or fails with a {@link ServerErrorException} if it was rejected.
+     */
+    public CompletableFuture<String> sendVote(String option) {
+        if (!connected || out == null) {
+            return notConnected("vote");
+        }
+        long requestId = nextRequestId.incrementAndGet();
+        CompletableFuture<String> reply = track(requestId);
+        if (reply.isDone()) {
+            return reply;
+        }
+        if (binary) {
+            Integer optionId = optionIds.get(option);
+            writeFrame(new BinaryWriter(correlated(BinaryProtocol.VOTE)).writeVarLong(requestId)
+                    .writeVarLong(optionId == null ? -1 : optionId));
+        } else {
+            writeLine("@" + requestId + " VOTE:" + option);
+        }
+        debug("Sent vote: " + option);
+        return reply;
+    }
+
+    /**
+     * The current results of the joined election.
+     */
+    public CompletableFuture<Map<String, Integer>> requestResults() {
+        if (!connected || out == null) {
+            return notConnected("results request");
+        }
+        long requestId = nextRequestId.incrementAndGet();
+        CompletableFuture<Map<String, Integer>> reply = track(requestId);
+        if (reply.isDone()) {
+            return reply;
+        }
+        if (binary) {
+            writeFrame(new BinaryWriter(correlated(BinaryProtocol.GET_RESULTS)).writeVarLong(requestId));
+        } else {
+            writeLine("@" + requestId + " GET_RESULTS");
+        }
+        return reply;
+    }
+
+    /**
+     * The joined election's vote velocity and its trend over the last minute, as of the last
+     * completed second.
+     */
+    public CompletableFuture<VoteRates> requestRates() {
+        if (!connected || out == null) {
+            return notConnected("rates request");
+        }
+        long requestId = nextRequestId.incrementAndGet();
+        CompletableFuture<VoteRates> reply = track(requestId);
+        if (reply.isDone()) {
+            return reply;
+        }
+        if (binary) {
+            writeFrame(new BinaryWriter(correlated(BinaryProtocol.GET_RATES)).writeVarLong(requestId));
+        } else {
+            writeLine("@" + requestId + " GET_RATES");
+        }
+        return reply;
+    }
+
+    private static long[] readCounts(ByteBuffer frame, int options) {
+        long[] counts = new long[options];
+        for (int i = 0; i < options; i++) {
+            counts[i] = BinaryProtocol.readVarLong(frame);
+        }
+        return counts;
+    }
+
+    private static byte correlated(byte type) {
+        return (byte) (type | BinaryProtocol.CORRELATED);
+    }
+
+    /**
+     * Casts votes on behalf of other voters in one message, e.g. from a kiosk that collected them
+     * offline. {@code voterIds} and {@code options} are parallel lists; the server answers with a
+     * single {@link BatchReceipt}. Only a kiosk connection may send one, see {@link #setKioskSecret}.
+     */
+    public CompletableFuture<BatchReceipt> sendVoteBatch(List<String> voterIds, List<String> options) {
+        if (!connected || out == null) {
+            return notConnected("vote batch");
+        }
+        long requestId = nextRequestId.incrementAndGet();
+        CompletableFuture<BatchReceipt> reply = track(requestId);
+        if (reply.isDone()) {
+            return reply;
+        }
+        if (binary) {
+            BinaryWriter writer = new BinaryWriter(correlated(BinaryProtocol.VOTE_BATCH), voterIds.size() * 16)
+                    .writeVarLong(requestId)
+                    .writeVarLong(voterIds.size());
+            for (int i = 0; i < voterIds.size(); i++) {
+                Integer optionId = optionIds.get(options.get(i));
+                writer.writeString(voterIds.get(i)).writeVarLong(optionId == null ? -1 : optionId);
             }
-        } catch (IOException e) {
-            System.err.println("Client connection error: " + e.getMessage());
-            controller.handleDisconnection();
-        } finally {
-            disconnect();
+            writeFrame(writer);
+        } else {
+            StringBuilder line = new StringBuilder(voterIds.size() * 24).append("@").append(requestId)
+                    .append(" VOTE_BATCH:");
+            for (int i = 0; i < voterIds.size(); i++) {
+                line.append(voterIds.get(i)).append('=').append(options.get(i)).append(';');
+            }
+            writeLine(line.toString());
         }
+        debug("Sent vote batch of " + voterIds.size());
+        return reply;
     }
 
-    public void sendVote(String option) {
+    /**
+     * Asks the server to switch this connection to another election. The server answers with
+     * the election's options and results.
+     */
+    public void joinElection(int election) {
         if (connected && out != null) {
-            out.println("VOTE:" + option);
-            System.out.println("Sent vote: " + option);
+            if (binary) {
+                writeFrame(new BinaryWriter(BinaryProtocol.JOIN).writeVarLong(election));
+            } else {
+                writeLine("JOIN:" + election);
+            }
+        }
+    }
+
+    /**
+     * A page of history after {@code seq}; the listener receives it as well.
+     */
+    public CompletableFuture<HistoryBatch> requestHistorySince(long seq) {
+        if (!connected || out == null) {
+            return notConnected("history request");
+        }
+        long requestId = nextRequestId.incrementAndGet();
+        CompletableFuture<HistoryBatch> reply = track(requestId);
+        if (reply.isDone()) {
+            return reply;
+        }
+        if (binary) {
+            writeFrame(new BinaryWriter(correlated(BinaryProtocol.GET_HISTORY)).writeVarLong(requestId).writeVarLong(seq));
         } else {
-            System.err.println("Cannot send vote - not connected to server");
+            writeLine("@" + requestId + " GET_HISTORY since=" + seq);
+        }
+        return reply;
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private void writeLine(String line) {
+        write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeFrame(BinaryWriter writer) {
+        write(writer.toFrame());
+    }
+
+    // A lock rather than synchronized: a virtual thread blocked in a socket write inside a
+    // monitor would pin its carrier thread
+    private void write(byte[] bytes) {
+        writeLock.lock();
+        try {
+            out.write(bytes);
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Error sending to server: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
         }
     }
 
+    /**
+     * Logs out: the server ends the session and this client stops reconnecting.
+     */
     public void disconnect() {
+        closed.countDown();
+        if (connected && out != null) {
+            if (binary) {
+                writeFrame(new BinaryWriter(BinaryProtocol.DISCONNECT));
+            } else {
+                writeLine("DISCONNECT");
+            }
+        }
+        closeConnection();
+        debug("Disconnected from server");
+    }
+
+    private static void debug(String message) {
+        if (DEBUG) {
+            System.out.println(message);
+        }
+    }
+
+    private boolean isClosed() {
+        return closed.getCount() == 0;
+    }
+
+    private void closeConnection() {
         connected = false;
-        try {
-            if (out != null) {
-                out.println("DISCONNECT");
+        // whether these reached the server is unknown; votes are idempotent, so callers may resend
+        for (Long requestId : pending.keySet()) {
+            CompletableFuture<Object> reply = pending.remove(requestId);
+            if (reply != null) {
+                inFlight.release();
+                reply.completeExceptionally(new IOException("Connection lost"));
             }
+        }
+        try {
             if (in != null) in.close();
             if (out != null) out.close();
             if (socket != null && !socket.isClosed()) socket.close();
         } catch (IOException e) {
             System.err.println("Error disconnecting: " + e.getMessage());
         }
-        System.out.println("Disconnected from server");
+    }
+
+    public String getClientId() {
+        return clientId;
     }
 
     public boolean isConnected() {
         return connected && socket != null && !socket.isClosed() && socket.isConnected();
     }
-}
\ No newline at end of file
+}
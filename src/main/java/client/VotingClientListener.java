@@ -0,0 +1,50 @@
+package client;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives what the server sends, already decoded from whichever protocol was negotiated.
+ * Called on the client's reader thread, in the order the messages arrived.
+ */
+public interface VotingClientListener {
+    void handleElections(Map<Integer, String> elections);
+
+    /**
+     * The options of the election votes now go to.
+     */
+    void handleOptions(int electionId, List<String> options);
+
+    void updateVoteResults(Map<String, Integer> results);
+
+    /**
+     * History entries numbered consecutively from {@code firstSeq}. A page answers a history
+     * request; anything else is a broadcast append.
+     */
+    void handleHistory(long firstSeq, List<String> entries, boolean page);
+
+    void handleVoteAccepted(String option);
+
+    /**
+     * The outcome of a batch sent with {@link VotingClient#sendVoteBatch}.
+     */
+    void handleBatchResult(BatchReceipt receipt);
+
+    void handleServerError(String message);
+
+    /**
+     * The connection dropped; the client tries again in {@code retryInMillis}.
+     */
+    void handleConnectionLost(int attempt, long retryInMillis);
+
+    /**
+     * Connected again. When the session was resumed only results and missed history follow;
+     * otherwise the server sends everything, as on a first connect.
+     */
+    void handleReconnected(boolean resumed);
+
+    /**
+     * The client disconnected, or gave up reconnecting.
+     */
+    void handleDisconnection();
+}
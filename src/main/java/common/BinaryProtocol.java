@@ -0,0 +1,108 @@
+package common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Length-prefixed binary protocol shared by client and server.
+ *
+ * A client offers it by appending {@code :BIN1} to its handshake line. A server that supports it
+ * answers with the text line {@code PROTOCOL:BIN1} and both sides switch to frames of
+ * {@code varint length | type byte | payload}. Elections and options are referred to by numeric id;
+ * a vote is for the election the client last joined (election 0 until then). Counts
+ * and sequence numbers are varints and strings are a varint byte length followed by UTF-8.
+ *
+ * A request whose type has the {@link #CORRELATED} bit set carries a varint request id right
+ * after the type byte; the server sets the same bit and id on its reply.
+ */
+public final class BinaryProtocol {
+    public static final String VERSION = "BIN1";
+    public static final String ACCEPT_LINE = "PROTOCOL:" + VERSION;
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    public static final int MAX_LENGTH_BYTES = 5; // a varint frame length that is still going after this is malformed
+    public static final byte CORRELATED = (byte) 0x80;
+
+    // client -> server
+    public static final byte VOTE = 0x01;            // optionId
+    public static final byte GET_RESULTS = 0x02;
+    public static final byte GET_HISTORY = 0x03;     // [since seq]; without it, the latest page
+    public static final byte DISCONNECT = 0x04;
+    public static final byte JOIN = 0x05;            // electionId
+    public static final byte LIST_ELECTIONS = 0x06;
+    public static final byte VOTE_BATCH = 0x07;      // count, (voterId, optionId)*
+    public static final byte GET_RATES = 0x08;
+
+    // server -> client
+    public static final byte OPTIONS = 0x10;         // electionId, count, (optionId, name)*
+    public static final byte RESULTS = 0x11;         // electionId, count, (optionId, votes)*, version
+    public static final byte HISTORY_APPEND = 0x12;  // firstSeq, count, entry*
+    public static final byte HISTORY_PAGE = 0x13;    // firstSeq, count, entry*
+    public static final byte VOTE_ACCEPTED = 0x14;   // electionId, optionId
+    public static final byte ERROR = 0x15;           // message
+    public static final byte ELECTIONS = 0x16;       // count, (electionId, name)*
+    public static final byte SESSION = 0x17;         // token, resumed (0 or 1)
+    public static final byte BATCH_RESULT = 0x18;    // electionId, accepted, rejected, (index, reason)*
+    public static final byte RATES = 0x19;           // electionId, second, options, windows, (seconds, votes*)*, length, (votes*)*
+
+    private BinaryProtocol() {
+    }
+
+    public static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public static int readVarInt(ByteBuffer buffer) {
+        return (int) readVarLong(buffer);
+    }
+
+    /**
+     * Reads a varint frame length, returning -1 when the buffer does not hold the whole varint yet.
+     * The buffer position is left unchanged in that case.
+     */
+    public static int peekLength(ByteBuffer buffer) {
+        int value = 0;
+        int position = buffer.position();
+        for (int shift = 0; shift < 7 * MAX_LENGTH_BYTES && position < buffer.limit(); shift += 7) {
+            byte b = buffer.get(position++);
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                buffer.position(position);
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    public static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public static String readString(ByteBuffer buffer) {
+        int length = readVarInt(buffer);
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
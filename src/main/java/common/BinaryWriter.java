@@ -0,0 +1,73 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Builds one binary frame: a message type followed by varints and strings. {@link #toFrame()}
+ * prepends the varint length.
+ */
+public class BinaryWriter {
+    private byte[] bytes;
+    private int length;
+
+    public BinaryWriter(byte type) {
+        this(type, 32);
+    }
+
+    public BinaryWriter(byte type, int expectedSize) {
+        bytes = new byte[Math.max(expectedSize, 8)];
+        bytes[length++] = type;
+    }
+
+    public BinaryWriter writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7fL) != 0) {
+            bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+        return this;
+    }
+
+    public BinaryWriter writeString(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(utf8.length);
+        ensure(utf8.length);
+        System.arraycopy(utf8, 0, bytes, length, utf8.length);
+        length += utf8.length;
+        return this;
+    }
+
+    /**
+     * Appends the remaining bytes of {@code buffer} as they are.
+     */
+    public BinaryWriter writeBytes(ByteBuffer buffer) {
+        int count = buffer.remaining();
+        ensure(count);
+        buffer.get(bytes, length, count);
+        length += count;
+        return this;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+
+    public byte[] toFrame() {
+        BinaryWriter prefix = new BinaryWriter((byte) 0, 5);
+        prefix.length = 0;
+        prefix.writeVarLong(length);
+        byte[] frame = new byte[prefix.length + length];
+        System.arraycopy(prefix.bytes, 0, frame, 0, prefix.length);
+        System.arraycopy(bytes, 0, frame, prefix.length, length);
+        return frame;
+    }
+
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(toFrame());
+    }
+}
@@ -1,9 +1,11 @@
 module lk.ijse.votingsystem {
     requires javafx.controls;
     requires javafx.fxml;
+    requires jdk.httpserver;
 
 
     opens client to javafx.fxml;
     exports client;
+    exports common;
     exports server;
 }
\ No newline at end of file
@@ -0,0 +1,216 @@
+package server;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps one client or one address from taking the server down for everyone else.
+ *
+ * The connection cap is enforced by not accepting: engines stop calling accept while the server
+ * is full, so new connections wait in the kernel backlog instead of being accepted and dropped.
+ * An address over its own connection cap is told so and closed. Requests are metered by a token
+ * bucket per connection and one per address, and answered over the limit with a pre-encoded
+ * error that replaces any earlier one still queued, so a flood costs neither parsing nor memory.
+ * Buckets are charged per complete request, so the decoders cap how much of an unfinished one
+ * they buffer: {@link LineDecoder#MAX_LINE_LENGTH} and {@code BinaryProtocol.MAX_FRAME_LENGTH}.
+ * An address keeps its budget for a while after its last connection closes, so reconnecting
+ * does not buy a full bucket.
+ */
+public class AdmissionControl {
+    static final String RATE_LIMITED = "Rate limit exceeded";
+
+    private final ServerConfig config;
+    private final ServerMetrics metrics;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Map<InetAddress, Source> sources = new ConcurrentHashMap<>();
+    private final long idleTtlNanos;
+    private final long sweepIntervalNanos;
+    private final AtomicLong nextSweep;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition capacityFreed = lock.newCondition();
+    private final Frame textRejection;
+    private final Frame binaryRejection;
+    private final BinaryCodec binaryCodec;
+    private final ByteBuffer connectionRejection = ByteBuffer.allocateDirect(32)
+            .put("ERROR: Too many connections\n".getBytes(StandardCharsets.US_ASCII)).flip().asReadOnlyBuffer();
+
+    /**
+     * The connections and request budget shared by one remote address.
+     */
+    static final class Source {
+        private int connections; // guarded by the sources map entry
+        private long idleSince;  // nanoTime the last connection closed, guarded likewise
+        private final TokenBucket bucket;
+
+        Source(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    public AdmissionControl(ServerConfig config, ServerMetrics metrics, TextCodec textCodec, BinaryCodec binaryCodec) {
+        this.config = config;
+        this.metrics = metrics;
+        this.binaryCodec = binaryCodec;
+        // dropping a bucket only forgives nothing once it would have refilled anyway
+        double rate = config.getAddressRequestRate();
+        long refillNanos = rate <= 0 ? 0 : (long) (burst(rate, config.getAddressRequestBurst()) / rate * 1e9);
+        idleTtlNanos = Math.max(TimeUnit.SECONDS.toNanos(config.getAddressIdleTtlSeconds()), refillNanos);
+        sweepIntervalNanos = Math.max(TimeUnit.SECONDS.toNanos(1), idleTtlNanos / 4);
+        nextSweep = new AtomicLong(System.nanoTime() + sweepIntervalNanos);
+        // one coalesce key, so a client that keeps going has at most one rejection queued
+        textRejection = Frame.binary("THROTTLED", textCodec.error(RATE_LIMITED).buffer()).shared();
+        binaryRejection = Frame.binary("THROTTLED", binaryCodec.error(RATE_LIMITED).buffer()).shared();
+    }
+
+    public boolean hasCapacity() {
+        return config.getMaxConnections() <= 0 || connections.get() < config.getMaxConnections();
+    }
+
+    /**
+     * Waits up to {@code millis} for a connection slot; returns whether one is free.
+     */
+    public boolean awaitCapacity(long millis) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        lock.lock();
+        try {
+            while (!hasCapacity() && nanos > 0) {
+                nanos = capacityFreed.awaitNanos(nanos);
+            }
+            return hasCapacity();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts a new connection, or returns null when its address already has as many as allowed.
+     * Connections without an address, e.g. in-process ones, share no budget.
+     */
+    Source open(InetAddress address) {
+        Source source = null;
+        if (address != null) {
+            sweepIdle();
+            boolean[] admitted = {true};
+            source = sources.compute(address, (key, existing) -> {
+                Source entry = existing != null ? existing : new Source(addressBucket());
+                int limit = config.getMaxConnectionsPerAddress();
+                if (limit > 0 && entry.connections >= limit) {
+                    admitted[0] = false;
+                } else {
+                    entry.connections++;
+                }
+                return entry;
+            });
+            if (!admitted[0]) {
+                metrics.connectionRejected();
+                return null;
+            }
+        }
+        connections.incrementAndGet();
+        return source;
+    }
+
+    void close(InetAddress address) {
+        if (address != null) {
+            sources.computeIfPresent(address, (key, entry) -> {
+                if (--entry.connections == 0) {
+                    entry.idleSince = System.nanoTime();
+                }
+                return entry;
+            });
+        }
+        connections.decrementAndGet();
+        lock.lock();
+        try {
+            capacityFreed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets addresses idle for longer than the TTL, at most once per sweep interval and on the
+     * accept path, so only a server taking new connections spends time on it.
+     */
+    private void sweepIdle() {
+        long now = System.nanoTime();
+        long due = nextSweep.get();
+        if (now - due < 0 || !nextSweep.compareAndSet(due, now + sweepIntervalNanos)) {
+            return;
+        }
+        for (InetAddress address : sources.keySet()) {
+            sources.computeIfPresent(address, (key, entry) ->
+                    entry.connections == 0 && now - entry.idleSince > idleTtlNanos ? null : entry);
+        }
+    }
+
+    /**
+     * A fresh bucket for one connection, or null when connections are not rate limited.
+     */
+    TokenBucket clientBucket() {
+        double rate = config.getClientRequestRate();
+        return rate <= 0 ? null : new TokenBucket(rate, burst(rate, config.getClientRequestBurst()));
+    }
+
+    private TokenBucket addressBucket() {
+        double rate = config.getAddressRequestRate();
+        return rate <= 0 ? null : new TokenBucket(rate, burst(rate, config.getAddressRequestBurst()));
+    }
+
+    private static double burst(double rate, double burst) {
+        return burst > 0 ? burst : rate * 2;
+    }
+
+    /**
+     * Charges the request to the connection's and its address's budget.
+     */
+    boolean admit(TokenBucket client, Source source, int cost) {
+        if (cost <= 0) {
+            return true;
+        }
+        if ((client == null || client.tryTake(cost))
+                && (source == null || source.bucket == null || source.bucket.tryTake(cost))) {
+            return true;
+        }
+        metrics.requestThrottled();
+        return false;
+    }
+
+    Frame rejection(WireCodec codec) {
+        return codec == binaryCodec ? binaryRejection : textRejection;
+    }
+
+    /**
+     * What an address over its connection cap is sent before the socket is closed.
+     */
+    public ByteBuffer connectionRejection() {
+        return connectionRejection.duplicate();
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Addresses with a connection open or a budget not yet expired.
+     */
+    public int getAddressCount() {
+        return sources.size();
+    }
+
+    int getHistoryCost() {
+        return config.getHistoryRequestCost();
+    }
+
+    int getBatchCost() {
+        return config.getBatchRequestCost();
+    }
+}
@@ -0,0 +1,47 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Outcome of a vote batch: how many entries were accepted, and the index and reason of each
+ * rejected one. Rejections are expected to be rare, so only they are listed.
+ */
+public class BatchResult {
+    public static final String INVALID_OPTION = "Invalid option";
+    public static final String INVALID_VOTER = "Invalid voter";
+
+    private final int size;
+    private int accepted;
+    private int[] rejectedIndexes = new int[0];
+    private String[] rejectReasons = new String[0];
+    private int rejected;
+
+    BatchResult(int size) {
+        this.size = size;
+    }
+
+    void accept() {
+        accepted++;
+    }
+
+    void reject(int index, String reason) {
+        if (rejected == rejectedIndexes.length) {
+            int capacity = Math.max(8, rejected * 2);
+            rejectedIndexes = Arrays.copyOf(rejectedIndexes, capacity);
+            rejectReasons = Arrays.copyOf(rejectReasons, capacity);
+        }
+        rejectedIndexes[rejected] = index;
+        rejectReasons[rejected] = reason;
+        rejected++;
+    }
+
+    public int getSize() { return size; }
+    public int getAccepted() { return accepted; }
+    public int getRejectedCount() { return rejected; }
+
+    /**
+     * Position in the batch of the {@code i}-th rejected entry, in ascending order.
+     */
+    public int getRejectedIndex(int i) { return rejectedIndexes[i]; }
+    public String getRejectReason(int i) { return rejectReasons[i]; }
+}
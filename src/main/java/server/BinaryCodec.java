@@ -0,0 +1,130 @@
+package server;
+
+import common.BinaryProtocol;
+import common.BinaryWriter;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public class BinaryCodec implements WireCodec {
+    @Override
+    public Frame elections(List<Election> elections) {
+        BinaryWriter writer = new BinaryWriter(BinaryProtocol.ELECTIONS).writeVarLong(elections.size());
+        elections.forEach(election -> writer.writeVarLong(election.getId()).writeString(election.getName()));
+        return Frame.binary(null, writer.toByteBuffer());
+    }
+
+    @Override
+    public Frame options(Election election) {
+        List<String> options = election.getOptions();
+        BinaryWriter writer = new BinaryWriter(BinaryProtocol.OPTIONS)
+                .writeVarLong(election.getId())
+                .writeVarLong(options.size());
+        for (int i = 0; i < options.size(); i++) {
+            writer.writeVarLong(i).writeString(options.get(i));
+        }
+        return Frame.binary(null, writer.toByteBuffer());
+    }
+
+    @Override
+    public Frame results(Election election, TallySnapshot tallies) {
+        int count = tallies.getOptionCount();
+        BinaryWriter writer = new BinaryWriter(BinaryProtocol.RESULTS, 12 + count * 4)
+                .writeVarLong(election.getId())
+                .writeVarLong(count);
+        for (int i = 0; i < count; i++) {
+            writer.writeVarLong(i).writeVarLong(tallies.get(i));
+        }
+        writer.writeVarLong(tallies.getVersion());
+        return Frame.binary("RESULTS:" + election.getId(), writer.toByteBuffer());
+    }
+
+    @Override
+    public Frame rates(Election election, VoteRates.Snapshot rates) {
+        long[][] windows = rates.getWindows();
+        long[][] series = rates.getSeries();
+        int options = election.getOptionCount();
+        BinaryWriter writer = new BinaryWriter(BinaryProtocol.RATES, 16 + (windows.length + series.length) * options * 2)
+                .writeVarLong(election.getId())
+                .writeVarLong(rates.getSecond())
+                .writeVarLong(options)
+                .writeVarLong(windows.length);
+        for (int i = 0; i < windows.length; i++) {
+            writer.writeVarLong(VoteRates.WINDOW_SECONDS[i]);
+            for (long count : windows[i]) {
+                writer.writeVarLong(count);
+            }
+        }
+        writer.writeVarLong(series.length);
+        for (long[] second : series) {
+            for (long count : second) {
+                writer.writeVarLong(count);
+            }
+        }
+        return Frame.binary(null, writer.toByteBuffer());
+    }
+
+    @Override
+    public Frame historyAppend(List<HistoryEntry> entries, long nextSeq) {
+        return history(BinaryProtocol.HISTORY_APPEND, entries, nextSeq);
+    }
+
+    @Override
+    public Frame historyPage(List<HistoryEntry> entries, long nextSeq) {
+        return history(BinaryProtocol.HISTORY_PAGE, entries, nextSeq);
+    }
+
+    private Frame history(byte type, List<HistoryEntry> entries, long nextSeq) {
+        long firstSeq = entries.isEmpty() ? nextSeq : entries.get(0).getSeq();
+        BinaryWriter writer = new BinaryWriter(type, 8 + entries.size() * 16)
+                .writeVarLong(firstSeq)
+                .writeVarLong(entries.size());
+        entries.forEach(entry -> writer.writeString(entry.getText()));
+        return Frame.binary(null, writer.toByteBuffer());
+    }
+
+    @Override
+    public Frame voteAccepted(Election election, int optionId) {
+        return Frame.binary(null, new BinaryWriter(BinaryProtocol.VOTE_ACCEPTED)
+                .writeVarLong(election.getId())
+                .writeVarLong(optionId)
+                .toByteBuffer());
+    }
+
+    @Override
+    public Frame batchResult(Election election, BatchResult result) {
+        BinaryWriter writer = new BinaryWriter(BinaryProtocol.BATCH_RESULT, 8 + result.getRejectedCount() * 16)
+                .writeVarLong(election.getId())
+                .writeVarLong(result.getAccepted())
+                .writeVarLong(result.getRejectedCount());
+        for (int i = 0; i < result.getRejectedCount(); i++) {
+            writer.writeVarLong(result.getRejectedIndex(i)).writeString(result.getRejectReason(i));
+        }
+        return Frame.binary(null, writer.toByteBuffer());
+    }
+
+    @Override
+    public Frame error(String message) {
+        return Frame.binary(null, new BinaryWriter(BinaryProtocol.ERROR).writeString(message).toByteBuffer());
+    }
+
+    @Override
+    public Frame correlate(long requestId, Frame reply) {
+        ByteBuffer frame = reply.buffer();
+        int length = BinaryProtocol.peekLength(frame);
+        byte type = frame.get();
+        frame.limit(frame.position() + length - 1);
+        return Frame.binary(null, new BinaryWriter((byte) (type | BinaryProtocol.CORRELATED), length + 10)
+                .writeVarLong(requestId)
+                .writeBytes(frame)
+                .toByteBuffer());
+    }
+
+    @Override
+    public Frame session(String token, boolean resumed) {
+        return Frame.binary(null, new BinaryWriter(BinaryProtocol.SESSION)
+                .writeString(token)
+                .writeVarLong(resumed ? 1 : 0)
+                .toByteBuffer());
+    }
+}
@@ -0,0 +1,137 @@
+package server;
+
+import common.BinaryProtocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reassembles binary frames from socket reads and hands each complete one to a {@link Sink}.
+ * {@link #dispatch} turns a client's request frames into {@link Requests} calls.
+ */
+public class BinaryDecoder {
+    private ByteBuffer pending = ByteBuffer.allocate(256);
+
+    /**
+     * Receives the frames of one connection, in order, starting at the type byte.
+     */
+    public interface Sink {
+        void onFrame(ByteBuffer frame);
+
+        void protocolError(String message);
+    }
+
+    /**
+     * The requests a client connection serves, as {@link #dispatch} decodes them. Implemented by
+     * {@link ClientHandler}, and by {@link RelayClientHandler}, which answers them from a relay.
+     */
+    interface Requests extends Sink {
+        void frameReceived(byte type);
+
+        int costOf(byte type);
+
+        boolean admit(int cost, long requestId);
+
+        void handleVote(int optionId, long requestId);
+
+        void handleVoteBatch(String[] voterIds, int[] optionIds, long requestId);
+
+        void joinElection(int electionId, long requestId);
+
+        void sendElections(long requestId);
+
+        void sendCurrentResults(long requestId);
+
+        void sendRates(long requestId);
+
+        void sendRecentHistory(long requestId);
+
+        void sendVoteHistory(long since, long requestId);
+
+        void logout();
+    }
+
+    /**
+     * Consumes all of {@code buffer}, handing over every complete frame.
+     */
+    public void decode(ByteBuffer buffer, Sink sink) {
+        if (pending.remaining() < buffer.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + buffer.remaining()));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        pending.put(buffer);
+        pending.flip();
+        while (true) {
+            int start = pending.position();
+            int available = pending.remaining();
+            int length = BinaryProtocol.peekLength(pending);
+            if (length < 0 && available < BinaryProtocol.MAX_LENGTH_BYTES) {
+                break; // the length itself is not all here yet
+            }
+            // checked before waiting for the body, so a huge declared frame is refused at its header
+            if (length <= 0 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                sink.protocolError(length < 0 ? "Malformed frame length" : "Invalid frame length " + length);
+                return;
+            }
+            if (pending.remaining() < length) {
+                pending.position(start);
+                break;
+            }
+            int end = pending.position() + length;
+            ByteBuffer frame = pending.duplicate();
+            frame.limit(end);
+            pending.position(end);
+            sink.onFrame(frame);
+        }
+        pending.compact();
+    }
+
+    static void dispatch(ByteBuffer frame, Requests handler) {
+        byte type = frame.get();
+        handler.frameReceived(type);
+        try {
+            long requestId = ClientHandler.NO_REQUEST;
+            if ((type & BinaryProtocol.CORRELATED) != 0) {
+                requestId = BinaryProtocol.readVarLong(frame);
+                type &= ~BinaryProtocol.CORRELATED;
+            }
+            if (!handler.admit(handler.costOf(type), requestId)) {
+                return;
+            }
+            switch (type) {
+                case BinaryProtocol.VOTE -> handler.handleVote(BinaryProtocol.readVarInt(frame), requestId);
+                case BinaryProtocol.GET_RESULTS -> handler.sendCurrentResults(requestId);
+                case BinaryProtocol.GET_RATES -> handler.sendRates(requestId);
+                case BinaryProtocol.GET_HISTORY -> {
+                    if (frame.hasRemaining()) {
+                        handler.sendVoteHistory(BinaryProtocol.readVarLong(frame), requestId);
+                    } else {
+                        handler.sendRecentHistory(requestId);
+                    }
+                }
+                case BinaryProtocol.DISCONNECT -> handler.logout();
+                case BinaryProtocol.JOIN -> handler.joinElection(BinaryProtocol.readVarInt(frame), requestId);
+                case BinaryProtocol.LIST_ELECTIONS -> handler.sendElections(requestId);
+                case BinaryProtocol.VOTE_BATCH -> {
+                    int count = BinaryProtocol.readVarInt(frame);
+                    // every entry takes at least two bytes, so a bogus count cannot make us allocate
+                    if (count < 0 || count > frame.remaining() / 2) {
+                        handler.protocolError("Invalid batch size " + count);
+                        return;
+                    }
+                    String[] voterIds = new String[count];
+                    int[] optionIds = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        voterIds[i] = BinaryProtocol.readString(frame);
+                        optionIds[i] = BinaryProtocol.readVarInt(frame);
+                    }
+                    handler.handleVoteBatch(voterIds, optionIds, requestId);
+                }
+                default -> handler.protocolError("Unknown message type " + type);
+            }
+        } catch (RuntimeException e) {
+            handler.protocolError("Malformed message type " + type);
+        }
+    }
+}
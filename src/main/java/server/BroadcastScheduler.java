@@ -0,0 +1,87 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces result and history broadcasts. Votes only mark state dirty; once per tick the
+ * frames are rebuilt and fanned out on a dedicated thread, so broadcast cost is bounded by
+ * tick rate x clients instead of vote rate x clients. Results are tracked per election, so a
+ * tick only re-encodes the elections that received votes.
+ */
+public class BroadcastScheduler {
+    private final VotingServer server;
+    private final long tickMillis;
+    private final Set<Integer> dirtyElections = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean historyDirty = new AtomicBoolean();
+    private final AtomicBoolean fanOutRunning = new AtomicBoolean();
+    private final ScheduledExecutorService ticker;
+    private final ExecutorService fanOut;
+
+    public BroadcastScheduler(VotingServer server, long tickMillis) {
+        this.server = server;
+        this.tickMillis = tickMillis;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "broadcast-tick"));
+        this.fanOut = Executors.newSingleThreadExecutor(r -> daemon(r, "broadcast-fanout"));
+    }
+
+    public void start() {
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        ticker.shutdownNow();
+        fanOut.shutdownNow();
+    }
+
+    public void markResultsDirty(int electionId) {
+        dirtyElections.add(electionId);
+    }
+
+    public void markHistoryDirty() {
+        historyDirty.set(true);
+    }
+
+    private void tick() {
+        // A fan-out slower than one tick just leaves the flags set for the next tick
+        if (!fanOutRunning.compareAndSet(false, true)) {
+            return;
+        }
+        List<Integer> elections = new ArrayList<>();
+        for (Iterator<Integer> dirty = dirtyElections.iterator(); dirty.hasNext(); ) {
+            elections.add(dirty.next());
+            dirty.remove();
+        }
+        boolean history = historyDirty.getAndSet(false);
+        if (elections.isEmpty() && !history) {
+            fanOutRunning.set(false);
+            return;
+        }
+        fanOut.execute(() -> {
+            try {
+                for (int electionId : elections) {
+                    server.broadcastResults(electionId);
+                }
+                if (history) server.broadcastVoteHistory();
+            } catch (RuntimeException e) {
+                Log.error("Broadcast failed: {}", e.getMessage());
+            } finally {
+                fanOutRunning.set(false);
+            }
+        });
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
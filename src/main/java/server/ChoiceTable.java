@@ -0,0 +1,113 @@
+package server;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Each voter's current choice in one election, indexed by {@link VoterRegistry} id. Choices are
+ * stored as option id + 1, 0 meaning no vote, in chunks of one byte per voter, or of an int
+ * when the election has too many options for a byte; chunks are allocated as ids reach them.
+ *
+ * Writers hold the voter's registry lock. Readers need no lock and see each voter's latest
+ * choice, but a scan of all voters is only as consistent as a ConcurrentHashMap iteration.
+ */
+final class ChoiceTable {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_BYTE_OPTIONS = 254;
+    private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final boolean wide;
+    private volatile Object[] chunks = new Object[0]; // byte[] or int[], null until used
+    private final AtomicInteger voters = new AtomicInteger();
+
+    interface ChoiceConsumer {
+        void accept(int voter, int optionId);
+    }
+
+    ChoiceTable(int optionCount) {
+        this.wide = optionCount > MAX_BYTE_OPTIONS;
+    }
+
+    /**
+     * The voter's option id, or -1 if it has not voted.
+     */
+    int get(int voter) {
+        Object[] current = chunks;
+        int index = voter >>> CHUNK_BITS;
+        Object chunk = index < current.length ? current[index] : null;
+        return chunk == null ? -1 : read(chunk, voter & (CHUNK_SIZE - 1)) - 1;
+    }
+
+    /**
+     * Records the voter's choice and returns the previous one, or -1. The caller holds the
+     * voter's lock.
+     */
+    int set(int voter, int optionId) {
+        Object chunk = chunk(voter >>> CHUNK_BITS);
+        int offset = voter & (CHUNK_SIZE - 1);
+        int previous = read(chunk, offset) - 1;
+        if (wide) {
+            INTS.setRelease((int[]) chunk, offset, optionId + 1);
+        } else {
+            BYTES.setRelease((byte[]) chunk, offset, (byte) (optionId + 1));
+        }
+        if (previous < 0) {
+            voters.incrementAndGet();
+        }
+        return previous;
+    }
+
+    private int read(Object chunk, int offset) {
+        return wide ? (int) INTS.getAcquire((int[]) chunk, offset)
+                : (byte) BYTES.getAcquire((byte[]) chunk, offset) & 0xFF;
+    }
+
+    private Object chunk(int index) {
+        Object[] current = chunks;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        synchronized (this) {
+            current = chunks;
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, index + 1);
+            } else if (current[index] != null) {
+                return current[index];
+            } else {
+                current = current.clone();
+            }
+            current[index] = wide ? new int[CHUNK_SIZE] : new byte[CHUNK_SIZE];
+            chunks = current;
+            return current[index];
+        }
+    }
+
+    void forEach(ChoiceConsumer action) {
+        Object[] current = chunks;
+        for (int index = 0; index < current.length; index++) {
+            Object chunk = current[index];
+            if (chunk == null) {
+                continue;
+            }
+            for (int offset = 0; offset < CHUNK_SIZE; offset++) {
+                int choice = read(chunk, offset) - 1;
+                if (choice >= 0) {
+                    action.accept((index << CHUNK_BITS) | offset, choice);
+                }
+            }
+        }
+    }
+
+    int size() {
+        return voters.get();
+    }
+
+    synchronized void clear() {
+        chunks = new Object[0];
+        voters.set(0);
+    }
+}
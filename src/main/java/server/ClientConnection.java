@@ -0,0 +1,16 @@
+package server;
+
+/**
+ * Transport side of a connected client. The connection engine owns the socket,
+ * a {@link ClientHandler} owns the protocol and the outbound queue.
+ */
+public interface ClientConnection {
+    /**
+     * Called after frames were queued, so the engine can start draining the handler's queue.
+     */
+    void outboundReady();
+
+    void close();
+
+    String getRemoteAddress();
+}
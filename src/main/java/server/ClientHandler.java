@@ -1,121 +1,575 @@
 package server;
 
-import java.io.*;
-import java.net.Socket;
-import java.util.Map;
+import common.BinaryProtocol;
 
-public class ClientHandler implements Runnable {
-    private final Socket socket;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ClientHandler implements ConnectionHandler, BinaryDecoder.Requests {
+    static final int HISTORY_PAGE_SIZE = 100;
+    static final long NO_REQUEST = -1;
+
+    private final ClientConnection connection;
     private final VoteService voteService;
     private final VotingServer server;
-    private PrintWriter out;
-    private BufferedReader in;
+    private final OutboundQueue outbound;
+    private final AtomicBoolean connected;
+    private final InetAddress address;
+    private final AdmissionControl.Source source;
+    private TokenBucket requestBudget; // null once the connection turns out to be a relay
+    private final LineDecoder lineDecoder = new LineDecoder();
+    private BinaryDecoder binaryDecoder;
+    private volatile WireCodec codec;
+    private volatile Election election;
+    private volatile boolean handshakeDone;
+    private volatile boolean relay;
+    private volatile boolean kiosk;
+    private volatile SessionRegistry.Session session;
     private String clientId;
+    private int voter = -1; // clientId interned in the VoterRegistry, on the first vote
     private String clientName;
-    private boolean connected;
 
-    public ClientHandler(Socket socket, VoteService voteService, VotingServer server) {
-        this.socket = socket;
+    public ClientHandler(ClientConnection connection, VoteService voteService, VotingServer server,
+                         OutboundQueue outbound, InetAddress address, AdmissionControl.Source source) {
+        this.connection = connection;
+        this.address = address;
+        this.source = source;
+        this.requestBudget = server.getAdmission().clientBucket();
+        this.outbound = outbound;
         this.voteService = voteService;
         this.server = server;
-        this.connected = true;
+        this.connected = new AtomicBoolean(true);
+        this.codec = server.getTextCodec();
+        this.election = voteService.getElections().getDefault();
     }
 
     @Override
-    public void run() {
-        try {
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
-
-            String clientInfo = in.readLine();
-            if (clientInfo != null && clientInfo.contains(":")) {
-                String[] parts = clientInfo.split(":");
-                clientId = parts[0];
-                clientName = parts.length > 1 ? parts[1] : clientId;
+    public void onBytes(ByteBuffer buffer) {
+        while (buffer.hasRemaining() && connected.get()) {
+            if (binaryDecoder != null) {
+                binaryDecoder.decode(buffer, this);
             } else {
-                clientId = clientInfo;
-                clientName = clientId;
+                String line;
+                try {
+                    line = lineDecoder.next(buffer);
+                } catch (IllegalArgumentException e) {
+                    protocolError(e.getMessage());
+                    return;
+                }
+                if (line == null) {
+                    return;
+                }
+                onMessage(line);
             }
+        }
+    }
 
-            System.out.println("Client connected: " + clientName + " (" + clientId + ")");
+    private void onMessage(String message) {
+        if (!connected.get()) {
+            return;
+        }
+        if (clientName == null) {
+            handleHandshake(message);
+            return;
+        }
+        server.getMetrics().messageReceived();
+        Log.debug("Received from {}: {}", clientName, message);
+        processMessage(message);
+    }
 
-            sendCurrentResults();
-            sendVoteHistory();
+    @Override
+    public void onError(IOException e) {
+        Log.debug("Client disconnected: {} - {}", clientName, e.getMessage());
+    }
+
+    @Override
+    public void onClose() {
+        disconnect();
+    }
 
-            String message;
-            while (connected && (message = in.readLine()) != null) {
-                System.out.println("Received from " + clientName + ": " + message);
-                processMessage(message);
+    /**
+     * Either {@code clientId[:name[:BIN1]]} for a new session, or
+     * {@code RESUME:token:lastHistorySeq:clientId:name[:BIN1]} to pick up an earlier one, or
+     * {@code KIOSK:secret:clientId:name[:BIN1]} for a new session that may send vote batches, or
+     * {@code RELAY:secret:name:BIN1} from a {@link RelayServer}.
+     */
+    private void handleHandshake(String clientInfo) {
+        String[] parts = clientInfo.split(":");
+        if (parts[0].equals("RELAY")) {
+            handleRelayHandshake(parts);
+            return;
+        }
+        String resumeToken = null;
+        long lastHistorySeq = 0;
+        int offset = 0;
+        if (parts[0].equals("KIOSK")) {
+            if (parts.length < 3 || !secretMatches(server.getConfig().getKioskSecret(), parts[1])) {
+                Log.warn("Refused kiosk from {}", connection.getRemoteAddress());
+                send(codec.error("Kiosk not accepted"));
+                disconnect();
+                return;
+            }
+            kiosk = true;
+            offset = 2;
+        } else if (parts.length >= 5 && parts[0].equals("RESUME")) {
+            resumeToken = parts[1];
+            try {
+                lastHistorySeq = Long.parseLong(parts[2]);
+            } catch (NumberFormatException e) {
+                resumeToken = null;
             }
+            offset = 3;
+        }
+        clientId = parts[offset];
+        clientName = parts.length > offset + 1 ? parts[offset + 1] : clientId;
+        if (parts.length > offset + 2 && parts[offset + 2].equals(BinaryProtocol.VERSION)) {
+            // Confirm in text so the client knows this server switched, then speak binary
+            sendMessage(BinaryProtocol.ACCEPT_LINE);
+            codec = server.getBinaryCodec();
+            binaryDecoder = new BinaryDecoder();
+        }
 
-        } catch (IOException e) {
-            System.out.println("Client disconnected: " + clientName + " - " + e.getMessage());
-        } finally {
+        SessionRegistry.Session resumed = resumeToken == null ? null
+                : server.getSessions().resume(resumeToken, clientId, this);
+        if (resumed != null) {
+            session = resumed;
+            clientName = resumed.getClientName();
+            Election previous = election;
+            Election target = voteService.getElections().get(resumed.getElectionId());
+            if (target != null && target != previous) {
+                election = target;
+                server.changeElection(this, previous, target);
+            }
+            Log.debug("Client resumed: {} ({})", clientName, clientId);
+
+            // it already has the elections and options; results and history may have moved on
+            send(codec.session(resumed.getToken(), true));
+            sendCurrentResults(NO_REQUEST);
+            sendHistorySince(lastHistorySeq);
+        } else {
+            session = server.getSessions().create(clientId, clientName, this);
+            Log.debug("Client connected: {} ({})", clientName, clientId);
+
+            send(codec.session(session.getToken(), false));
+            sendElections(NO_REQUEST);
+            send(codec.options(election));
+            sendCurrentResults(NO_REQUEST);
+            sendRecentHistory(NO_REQUEST);
+        }
+        handshakeDone = true;
+    }
+
+    /**
+     * A relay receives the results of every election and the history, whichever election it
+     * joined; joining only picks the election its vote batches go to. It speaks binary, has no
+     * session and is not rate limited, as it carries the requests of many clients.
+     */
+    private void handleRelayHandshake(String[] parts) {
+        if (parts.length < 4 || !parts[3].equals(BinaryProtocol.VERSION)
+                || !secretMatches(server.getConfig().getRelaySecret(), parts[1])) {
+            Log.warn("Refused relay from {}", connection.getRemoteAddress());
+            send(codec.error("Relay not accepted"));
             disconnect();
+            return;
+        }
+        clientId = "relay:" + parts[2];
+        clientName = clientId;
+        relay = true;
+        requestBudget = null;
+        sendMessage(BinaryProtocol.ACCEPT_LINE);
+        codec = server.getBinaryCodec();
+        binaryDecoder = new BinaryDecoder();
+        server.addRelay(this);
+        Log.info("Relay connected: {} from {}", parts[2], connection.getRemoteAddress());
+
+        sendElections(NO_REQUEST);
+        for (Election each : voteService.getElections().list()) {
+            send(codec.options(each));
+            send(server.getSnapshots().results(each, codec));
         }
+        sendRecentHistory(NO_REQUEST);
+        handshakeDone = true;
+    }
+
+    /**
+     * Compares in constant time; a secret that is not configured matches nothing.
+     */
+    static boolean secretMatches(String secret, String presented) {
+        return secret != null && MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8),
+                presented.getBytes(StandardCharsets.UTF_8));
     }
 
+    /**
+     * A command may start with {@code @<id> }; every reply to it then starts with the same tag,
+     * so a client can have several requests in flight and match replies that arrive out of
+     * order, e.g. a GET_RESULTS answered while an earlier VOTE still waits to be made durable.
+     */
     private void processMessage(String message) {
+        long requestId = NO_REQUEST;
+        if (message.startsWith("@")) {
+            int space = message.indexOf(' ');
+            try {
+                requestId = Long.parseLong(message.substring(1, space < 0 ? message.length() : space));
+            } catch (NumberFormatException e) {
+                send(codec.error("Invalid request id"));
+                return;
+            }
+            message = space < 0 ? "" : message.substring(space + 1);
+        }
+        if (!admit(costOf(message), requestId)) {
+            return;
+        }
         if (message.startsWith("VOTE:")) {
             String option = message.substring(5);
-            handleVote(option);
+            handleVote(election.optionId(option), requestId);
+        } else if (message.startsWith("VOTE_BATCH:")) {
+            handleTextBatch(message.substring(11), requestId);
+        } else if (message.equals("LIST_ELECTIONS")) {
+            sendElections(requestId);
+        } else if (message.startsWith("JOIN:")) {
+            handleJoin(message.substring(5), requestId);
         } else if (message.equals("GET_HISTORY")) {
-            sendVoteHistory();
+            sendRecentHistory(requestId);
+        } else if (message.startsWith("GET_HISTORY since=")) {
+            handleHistoryRequest(message.substring(18), requestId);
         } else if (message.equals("GET_RESULTS")) {
-            sendCurrentResults();
+            sendCurrentResults(requestId);
+        } else if (message.equals("GET_RATES")) {
+            sendRates(requestId);
         } else if (message.equals("DISCONNECT")) {
-            disconnect();
+            logout();
+        } else if (requestId != NO_REQUEST) {
+            reply(requestId, codec.error("Unknown command"));
         }
     }
 
-    private void handleVote(String option) {
-        boolean success = voteService.castVote(clientId, clientName, option);
+    private int costOf(String message) {
+        if (message.startsWith("GET_HISTORY")) {
+            return server.getAdmission().getHistoryCost();
+        } else if (message.startsWith("VOTE_BATCH:")) {
+            return server.getAdmission().getBatchCost();
+        }
+        return message.equals("DISCONNECT") ? 0 : 1;
+    }
+
+    @Override
+    public int costOf(byte type) {
+        return switch (type) {
+            case BinaryProtocol.GET_HISTORY -> server.getAdmission().getHistoryCost();
+            case BinaryProtocol.VOTE_BATCH -> server.getAdmission().getBatchCost();
+            case BinaryProtocol.DISCONNECT -> 0;
+            default -> 1;
+        };
+    }
+
+    /**
+     * Checked before a request is parsed or handled; over the limit, the client gets a
+     * pre-encoded error instead.
+     */
+    @Override
+    public boolean admit(int cost, long requestId) {
+        AdmissionControl admission = server.getAdmission();
+        if (admission.admit(requestBudget, source, cost)) {
+            return true;
+        }
+        reply(requestId, admission.rejection(codec));
+        return false;
+    }
+
+    /**
+     * Called for every binary frame; text lines are counted in onMessage.
+     */
+    @Override
+    public void frameReceived(byte type) {
+        server.getMetrics().messageReceived();
+        if (Log.isDebugEnabled()) {
+            Log.debug("Received frame type {} from {}", type, clientName);
+        }
+    }
+
+    /**
+     * Interned once per connection, so votes need neither hash nor retain the clientId again.
+     * Not at the handshake: while a restarted server loads its voters, interning waits, and
+     * connections that only watch the results need not.
+     */
+    private int voter() {
+        if (voter < 0) {
+            voter = voteService.getVoters().intern(clientId);
+        }
+        return voter;
+    }
+
+    /**
+     * Casts the vote and returns without waiting for it to be durable; the acknowledgement is
+     * sent from the log's sync callback, so later requests are processed meanwhile.
+     */
+    @Override
+    public void handleVote(int optionId, long requestId) {
+        long received = System.nanoTime();
+        if (!server.isAcceptingVotes()) {
+            server.getMetrics().voteRejected();
+            reply(requestId, codec.error("Not accepting votes yet, try again"));
+            return;
+        }
+        Election target = election;
+        boolean success = voteService.castVote(target.getId(), voter(), clientName, optionId);
         if (success) {
-            System.out.println("Vote received from " + clientName + " for " + option);
-            server.broadcastResults();
-            server.broadcastVoteHistory();
+            if (Log.isDebugEnabled()) {
+                Log.debug("Vote received from {} for {} in {}", clientName, target.optionName(optionId),
+                        target.getName());
+            }
+            // Only confirm and publish the vote once it is durable (immediately when no vote log is configured)
+            voteService.sync().whenComplete((ignored, error) -> {
+                if (error != null) {
+                    reply(requestId, codec.error("Vote could not be saved"));
+                    return;
+                }
+                server.getMetrics().voteCast(System.nanoTime() - received);
+                server.voteRecorded(target);
 
-            // Send confirmation to client
-            sendMessage("VOTE_ACCEPTED:" + option);
+                // Send confirmation to client
+                reply(requestId, codec.voteAccepted(target, optionId));
+            });
         } else {
-            sendMessage("ERROR: Invalid option");
+            server.getMetrics().voteRejected();
+            reply(requestId, codec.error("Invalid option"));
+        }
+    }
+
+    // voterId=option;voterId=option;...
+    private void handleTextBatch(String entries, long requestId) {
+        String[] pairs = entries.isEmpty() ? new String[0] : entries.split(";");
+        Election target = election;
+        String[] voterIds = new String[pairs.length];
+        int[] optionIds = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            int separator = pairs[i].indexOf('=');
+            if (separator > 0) {
+                voterIds[i] = pairs[i].substring(0, separator);
+                optionIds[i] = target.optionId(pairs[i].substring(separator + 1));
+            } else {
+                optionIds[i] = -1;
+            }
         }
+        handleVoteBatch(voterIds, optionIds, requestId);
     }
 
-    private void sendCurrentResults() {
-        Map<String, Integer> results = voteService.getVoteResults();
-        StringBuilder resultMessage = new StringBuilder("RESULTS:");
-        results.forEach((option, count) ->
-                resultMessage.append(option).append(":").append(count).append(";")
-        );
-        sendMessage(resultMessage.toString());
+    /**
+     * Applies a batch in one pass, waits for one WAL sync and schedules one results broadcast,
+     * then answers with the per-entry outcome. A batch votes for voters other than the sender,
+     * so only kiosks and relays may send one.
+     */
+    @Override
+    public void handleVoteBatch(String[] voterIds, int[] optionIds, long requestId) {
+        if (!kiosk && !relay) {
+            reply(requestId, codec.error("Vote batches need a kiosk connection"));
+            return;
+        }
+        if (voterIds.length > server.getConfig().getMaxBatchSize()) {
+            reply(requestId, codec.error("Batch too large"));
+            return;
+        }
+        if (!server.isAcceptingVotes()) {
+            reply(requestId, codec.error("Not accepting votes yet, try again"));
+            return;
+        }
+        Election target = election;
+        BatchResult result = voteService.castVotes(target.getId(), voterIds, optionIds);
+        Log.debug("Vote batch from {}: {} accepted, {} rejected", clientName, result.getAccepted(),
+                result.getRejectedCount());
+        if (result.getAccepted() == 0) {
+            server.getMetrics().batchApplied(0, result.getRejectedCount());
+            reply(requestId, codec.batchResult(target, result));
+            return;
+        }
+        voteService.sync().whenComplete((ignored, error) -> {
+            if (error != null) {
+                reply(requestId, codec.error("Batch could not be saved"));
+                return;
+            }
+            server.getMetrics().batchApplied(result.getAccepted(), result.getRejectedCount());
+            server.voteRecorded(target);
+            reply(requestId, codec.batchResult(target, result));
+        });
     }
 
-    private void sendVoteHistory() {
-        StringBuilder historyMessage = new StringBuilder("HISTORY:");
-        voteService.getVoteHistory().forEach(entry ->
-                historyMessage.append(entry).append("|")
-        );
-        sendMessage(historyMessage.toString());
+    private void handleJoin(String electionId, long requestId) {
+        try {
+            joinElection(Integer.parseInt(electionId.trim()), requestId);
+        } catch (NumberFormatException e) {
+            reply(requestId, codec.error("Invalid election"));
+        }
+    }
+
+    /**
+     * Switches the election this client votes in and receives results for, then sends its
+     * options, which answer the request, and current results.
+     */
+    @Override
+    public void joinElection(int electionId, long requestId) {
+        Election target = voteService.getElections().get(electionId);
+        if (target == null) {
+            reply(requestId, codec.error("Unknown election"));
+            return;
+        }
+        Election previous = election;
+        election = target;
+        server.changeElection(this, previous, target);
+        SessionRegistry.Session current = session;
+        if (current != null) {
+            current.setElectionId(electionId);
+        }
+        reply(requestId, codec.options(target));
+        sendCurrentResults(NO_REQUEST);
+    }
+
+    @Override
+    public void sendElections(long requestId) {
+        reply(requestId, codec.elections(voteService.getElections().list()));
+    }
+
+    private void handleHistoryRequest(String since, long requestId) {
+        try {
+            sendVoteHistory(Long.parseLong(since.trim()), requestId);
+        } catch (NumberFormatException e) {
+            reply(requestId, codec.error("Invalid history sequence"));
+        }
+    }
+
+    @Override
+    public void sendCurrentResults(long requestId) {
+        reply(requestId, server.getSnapshots().results(election, codec));
+    }
+
+    @Override
+    public void sendRates(long requestId) {
+        reply(requestId, server.getSnapshots().rates(election, codec));
+    }
+
+    @Override
+    public void sendRecentHistory(long requestId) {
+        reply(requestId, server.getSnapshots().recentHistory(HISTORY_PAGE_SIZE, codec));
+    }
+
+    /**
+     * What a resuming client missed: the entries after {@code since}, or the latest page when it
+     * missed more than a page, as a new connection would get.
+     */
+    void sendHistorySince(long since) {
+        if (since < voteService.getLatestHistorySeq() - HISTORY_PAGE_SIZE) {
+            sendRecentHistory(NO_REQUEST);
+        } else {
+            sendVoteHistory(since, NO_REQUEST);
+        }
+    }
+
+    @Override
+    public void sendVoteHistory(long since, long requestId) {
+        List<HistoryEntry> entries = voteService.getVoteHistory(since + 1, HISTORY_PAGE_SIZE);
+        long nextSeq = Math.max(since, voteService.getLatestHistorySeq()) + 1;
+        reply(requestId, codec.historyPage(entries, nextSeq));
+    }
+
+    private void reply(long requestId, Frame frame) {
+        send(requestId == NO_REQUEST ? frame : codec.correlate(requestId, frame));
+    }
+
+    @Override
+    public void onFrame(ByteBuffer frame) {
+        BinaryDecoder.dispatch(frame, this);
+    }
+
+    @Override
+    public void protocolError(String message) {
+        Log.warn("Protocol error from {}: {}", clientName, message);
+        disconnect();
     }
 
     public void sendMessage(String message) {
-        if (out != null) {
-            out.println(message);
-            out.flush(); // Ensure message is sent immediately
+        send(Frame.line(message));
+    }
+
+    public void send(Frame frame) {
+        if (!connected.get()) {
+            return;
+        }
+        if (outbound.offer(frame)) {
+            connection.outboundReady();
+        } else {
+            server.getMetrics().slowConsumerDisconnected();
+            Log.warn("Disconnecting slow consumer {} ({} frames queued)", clientName, outbound.depth());
+            disconnect();
+        }
+    }
+
+    @Override
+    public OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    public WireCodec getCodec() {
+        return codec;
+    }
+
+    public Election getElection() {
+        return election;
+    }
+
+    /**
+     * Broadcasts skip clients still in the handshake: they get the full state when it completes,
+     * and must not see a text frame before the protocol is settled.
+     */
+    public boolean isHandshakeDone() {
+        return handshakeDone;
+    }
+
+    public boolean isRelay() {
+        return relay;
+    }
+
+    public int getOutboundDepth() {
+        return outbound.depth();
+    }
+
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    /**
+     * The client said DISCONNECT: its session ends with the connection.
+     */
+    @Override
+    public void logout() {
+        SessionRegistry.Session current = session;
+        if (current != null) {
+            server.getSessions().end(current);
         }
+        disconnect();
     }
 
+    /**
+     * Closes the connection. The session stays resumable unless the client logged out.
+     */
     public void disconnect() {
-        connected = false;
-        try {
-            if (in != null) in.close();
-            if (out != null) out.close();
-            if (socket != null && !socket.isClosed()) socket.close();
-        } catch (IOException e) {
-            System.out.println("Error closing client connection: " + e.getMessage());
+        if (!connected.compareAndSet(true, false)) {
+            return;
+        }
+        outbound.close();
+        connection.close();
+        SessionRegistry.Session current = session;
+        if (current != null) {
+            server.getSessions().detach(current, this);
         }
         server.removeClient(this);
-        System.out.println("Client fully disconnected: " + clientName);
+        Log.debug("Client fully disconnected: {}", clientName);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,732 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Clustered mode: several server nodes accept clients and share every election's tally.
+ *
+ * Each node owns a PN counter per election: per option, how many votes it added (positive)
+ * and retracted (negative). A node only ever changes its own counters, so replicas merge them
+ * by taking the maximum, and the tally every node broadcasts is the sum over all nodes. The
+ * local tally is that sum plus the node's own votes not yet gossiped, so broadcasting needs no
+ * extra work.
+ *
+ * Voters' current choices are last-writer-wins records (timestamp, then node id) replicated
+ * alongside the counters. A node counts the records it created and retracts one as soon as it
+ * learns a newer record for the same voter, wherever that vote was cast. A voter who reconnects
+ * to another node and votes again is therefore counted once the nodes have gossiped, even if
+ * both nodes saw a vote from it at the same time. The node's own counters only move when a
+ * changed record is gossiped, so every message carries counters that match its records.
+ *
+ * Nodes connect in a full mesh over plain TCP: each node dials every other node and only
+ * writes on the connections it dialed. A new connection first receives the full state, then
+ * the records and counters that changed, once per gossip tick. Everything is idempotent, so
+ * reconnecting and relaying are always safe.
+ *
+ * With a WAL directory, every message is appended to {@code cluster.log} there and forced
+ * before it is sent, and a full state replaces the log now and then. A restarted node replays
+ * it, so its own counters are never behind the copies its peers hold, and only the recovered
+ * choices it has no record for count as its own. A node that crashes loses the votes of its
+ * last gossip tick, which no peer saw either. Without a log, a restarted node has to learn its
+ * own counters from a peer first, so it refuses votes until a peer's full state is in.
+ */
+public class ClusterNode implements VoteListener, VoteService.TallyAdjuster {
+    private static final byte HELLO = 1;
+    private static final byte COUNTERS = 2;
+    private static final byte RECORD = 3;
+    private static final byte SYNCED = 4; // ends a full state
+    private static final int LOG_MAGIC = 0x434c5531; // "CLU1"
+    private static final String LOG_FILE = "cluster.log";
+    private static final long MIN_COMPACT_BYTES = 1 << 20;
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    private final int nodeId;
+    private final List<InetSocketAddress> nodes;
+    private final long gossipMillis;
+    private final int electionsHash;
+    private final VotingServer server;
+    private final VoterRegistry voters;
+    private final ElectionState[] states;
+    private final Set<PeerLink> links = ConcurrentHashMap.newKeySet();
+    private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService gossip;
+    // Held while a message is composed, logged and sent, so nothing reaches a peer before the log
+    // and a new link gets its full state before any gossip
+    private final Object stateLock = new Object();
+    private final Path logPath;
+    private FileChannel log;   // guarded by stateLock
+    private long logSize;      // guarded by stateLock
+    private long compactedSize; // guarded by stateLock
+    private volatile boolean synced;
+    private volatile ServerSocket listener;
+    private volatile boolean running;
+
+    private static final class ElectionState {
+        final Election election;
+        final VoterRecords records = new VoterRecords();
+        final AtomicLongArray[] positive; // by node id
+        final AtomicLongArray[] negative;
+        final AtomicBoolean countersDirty = new AtomicBoolean();
+
+        ElectionState(Election election, int nodeCount) {
+            this.election = election;
+            positive = new AtomicLongArray[nodeCount];
+            negative = new AtomicLongArray[nodeCount];
+            for (int node = 0; node < nodeCount; node++) {
+                positive[node] = new AtomicLongArray(election.getOptionCount());
+                negative[node] = new AtomicLongArray(election.getOptionCount());
+            }
+        }
+    }
+
+    /**
+     * An outbound connection to one peer.
+     */
+    private static final class PeerLink {
+        final Socket socket;
+        final DataOutputStream out;
+
+        PeerLink(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+        }
+
+        synchronized void write(byte[] message) throws IOException {
+            out.write(message);
+            out.flush();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public ClusterNode(ServerConfig config, VoteService voteService, VotingServer server) throws IOException {
+        this.nodeId = config.getClusterNodeId();
+        this.nodes = parseNodes(config.getClusterNodes());
+        this.gossipMillis = config.getClusterGossipMillis();
+        this.electionsHash = config.getElections().hashCode();
+        this.server = server;
+        this.voters = voteService.getVoters();
+        this.logPath = config.getWalDirectory() == null ? null : config.getWalDirectory().resolve(LOG_FILE);
+        if (nodeId < 0 || nodeId >= nodes.size()) {
+            throw new IllegalArgumentException("Cluster node id " + nodeId + " is not in 0.." + (nodes.size() - 1));
+        }
+        List<Election> elections = voteService.getElections().list();
+        states = new ElectionState[elections.size()];
+        for (Election election : elections) {
+            states[election.getId()] = new ElectionState(election, nodes.size());
+        }
+        boolean recovered = logPath != null && Files.exists(logPath);
+        if (recovered) {
+            replayLog();
+        }
+        // Nothing votes or gossips yet, so no voter locks are needed
+        for (ElectionState state : states) {
+            Election election = state.election;
+            // recovered choices without a record count as this node's own, older than anything new
+            election.choices.forEach((voter, optionId) -> {
+                if (state.records.optionId(voter) < 0) {
+                    state.records.set(voter, optionId, 0, nodeId);
+                }
+            });
+            for (int voter : state.records.drainDirty()) {
+                state.records.clearDirty(voter);
+                settle(state, voter);
+                int optionId = state.records.optionId(voter);
+                if (election.choices.get(voter) != optionId) {
+                    election.choices.set(voter, optionId);
+                }
+            }
+            state.countersDirty.set(false);
+            // the tally is what the counters say, whatever the vote log counted
+            long[] tally = election.getTallies();
+            election.tally.begin();
+            try {
+                for (int option = 0; option < tally.length; option++) {
+                    long counted = 0;
+                    for (int node = 0; node < nodes.size(); node++) {
+                        counted += state.positive[node].get(option) - state.negative[node].get(option);
+                    }
+                    if (counted != tally[option]) {
+                        election.tally.add(option, counted - tally[option]);
+                    }
+                }
+            } finally {
+                election.tally.end();
+            }
+        }
+        if (logPath != null) {
+            synchronized (stateLock) {
+                persist(stateMessage(), true); // also drops a tail cut short by a crash
+            }
+        }
+        synced = recovered || nodes.size() == 1;
+        gossip = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-gossip");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Parses {@code host:port,host:port,...}; a node's id is its position in the list.
+     */
+    static List<InetSocketAddress> parseNodes(String spec) {
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        for (String node : spec.split(",")) {
+            String trimmed = node.trim();
+            int separator = trimmed.lastIndexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Cluster node must be host:port, got " + trimmed);
+            }
+            nodes.add(InetSocketAddress.createUnresolved(trimmed.substring(0, separator),
+                    Integer.parseInt(trimmed.substring(separator + 1))));
+        }
+        return nodes;
+    }
+
+    public void start() throws IOException {
+        running = true;
+        ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(nodes.get(nodeId).getPort()), 64);
+        listener = socket;
+        Thread.ofVirtual().name("cluster-accept").start(this::acceptLoop);
+        for (int peer = 0; peer < nodes.size(); peer++) {
+            if (peer != nodeId) {
+                int target = peer;
+                Thread.ofVirtual().name("cluster-dial-" + peer).start(() -> dialLoop(target));
+            }
+        }
+        gossip.scheduleAtFixedRate(this::gossipTick, gossipMillis, gossipMillis, TimeUnit.MILLISECONDS);
+        Log.info("Cluster node {} of {} listening for peers on port {}", nodeId, nodes.size(), socket.getLocalPort());
+        if (!synced) {
+            Log.info("Cluster node {} accepts votes once a peer has sent its state", nodeId);
+        }
+    }
+
+    /**
+     * Stops gossiping after a last tick, so every vote accepted so far is logged and sent.
+     */
+    public void shutdown() {
+        running = false;
+        gossip.shutdown();
+        try {
+            gossip.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        gossipTick();
+        try {
+            if (listener != null) listener.close();
+        } catch (IOException e) {
+            Log.warn("Error closing cluster listener: {}", e.getMessage());
+        }
+        for (PeerLink link : links) {
+            link.close();
+        }
+        // so peers notice at once and redial with their full state
+        for (Socket socket : inbound) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        synchronized (stateLock) {
+            try {
+                if (log != null) log.close();
+            } catch (IOException e) {
+                Log.warn("Error closing cluster log: {}", e.getMessage());
+            }
+        }
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public int getConnectedPeers() {
+        return links.size();
+    }
+
+    /**
+     * Whether this node knows its own counters, and so may accept votes.
+     */
+    public boolean isSynced() {
+        return synced;
+    }
+
+    /**
+     * VoteService already took the previous vote off the tally, but if another node cast it,
+     * that node still counts it until it retracts, so it goes back on.
+     */
+    @Override
+    public void adjust(Election election, int voter, int optionId, int previousOptionId) {
+        VoterRecords records = states[election.getId()].records;
+        int previous = records.optionId(voter);
+        if (previous >= 0 && records.origin(voter) != nodeId) {
+            election.tally.add(previous, 1);
+        }
+    }
+
+    /**
+     * Called under the voter's lock in VoteService, right after {@link #adjust}, so it is
+     * serialized with {@link #applyRecord} for the same voter. The counters follow at the next
+     * gossip tick.
+     */
+    @Override
+    public void onVote(long timestamp, int electionId, int voter, String clientId, String clientName, int optionId,
+                       int previousOptionId, long historySeq) {
+        VoterRecords records = states[electionId].records;
+        // a vote always follows the one it replaces, even if that came from a node with a faster clock
+        long recordTime = records.optionId(voter) < 0 ? timestamp : Math.max(timestamp, records.timestamp(voter) + 1);
+        records.set(voter, optionId, recordTime, nodeId);
+    }
+
+    private void applyRecord(int electionId, String clientId, int optionId, long timestamp, int origin) {
+        ElectionState state = electionId >= 0 && electionId < states.length ? states[electionId] : null;
+        if (state == null || !state.election.isValidOption(optionId) || origin < 0 || origin >= nodes.size()) {
+            return;
+        }
+        int voter = voters.intern(clientId);
+        synchronized (voters.lockFor(voter)) {
+            VoterRecords records = state.records;
+            if (!records.isBeatenBy(voter, timestamp, origin)) {
+                return;
+            }
+            int local = records.optionId(voter);
+            if (local >= 0 && records.origin(voter) == nodeId) {
+                // counted here until the next tick retracts it
+                state.election.tally.add(local, -1);
+            }
+            records.set(voter, optionId, timestamp, origin);
+            if (origin == nodeId) {
+                // this node's own record, relayed back to it after a restart: the counters it gets back count it
+                records.setCounted(voter, optionId);
+            }
+            state.election.choices.set(voter, optionId);
+        }
+        server.resultsChanged(electionId);
+    }
+
+    /**
+     * Brings this node's counters in line with the voter's record. Called under the voter's lock,
+     * only when the record is about to be gossiped or logged.
+     */
+    private void settle(ElectionState state, int voter) {
+        VoterRecords records = state.records;
+        int counted = records.countedOptionId(voter);
+        int own = records.origin(voter) == nodeId ? records.optionId(voter) : -1;
+        if (counted == own) {
+            return;
+        }
+        if (counted >= 0) {
+            state.negative[nodeId].incrementAndGet(counted);
+        }
+        if (own >= 0) {
+            state.positive[nodeId].incrementAndGet(own);
+        }
+        records.setCounted(voter, own);
+        state.countersDirty.set(true);
+    }
+
+    private void mergeCounters(int node, int electionId, long[] positive, long[] negative) {
+        ElectionState state = electionId >= 0 && electionId < states.length ? states[electionId] : null;
+        if (state == null || positive.length != state.election.getOptionCount()) {
+            return;
+        }
+        boolean changed = false;
+        // a peer's votes that moved between options arrive together, so publish them together
+        state.election.tally.begin();
+        try {
+            for (int option = 0; option < positive.length; option++) {
+                long before = state.positive[node].getAndAccumulate(option, positive[option], Math::max);
+                if (positive[option] > before) {
+                    state.election.tally.add(option, positive[option] - before);
+                    changed = true;
+                }
+                before = state.negative[node].getAndAccumulate(option, negative[option], Math::max);
+                if (negative[option] > before) {
+                    state.election.tally.add(option, before - negative[option]);
+                    changed = true;
+                }
+            }
+        } finally {
+            state.election.tally.end();
+        }
+        if (changed) {
+            state.countersDirty.set(true);
+            server.resultsChanged(electionId);
+        }
+    }
+
+    private void gossipTick() {
+        synchronized (stateLock) {
+            int[][] sent = new int[states.length][];
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                for (ElectionState state : states) {
+                    // records first: the counters written after them count every record written
+                    sent[state.election.getId()] = state.records.drainDirty();
+                    for (int voter : sent[state.election.getId()]) {
+                        writeRecord(out, state, voter, true);
+                    }
+                    if (state.countersDirty.getAndSet(false)) {
+                        writeCounters(out, state);
+                    }
+                }
+                if (bytes.size() == 0) {
+                    return;
+                }
+                if (logPath != null && logSize > Math.max(MIN_COMPACT_BYTES, 2 * compactedSize)) {
+                    persist(stateMessage(), true);
+                } else {
+                    persist(bytes.toByteArray(), false);
+                }
+                byte[] message = bytes.toByteArray();
+                for (PeerLink link : links) {
+                    try {
+                        link.write(message);
+                    } catch (IOException e) {
+                        // the dial loop notices the closed socket and reconnects with a full state
+                        link.close();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.error("Cluster gossip failed: {}", e.getMessage());
+                // nothing was sent, so send it all next time
+                for (ElectionState state : states) {
+                    int[] unsent = sent[state.election.getId()];
+                    for (int voter = 0; unsent != null && voter < unsent.length; voter++) {
+                        synchronized (voters.lockFor(unsent[voter])) {
+                            state.records.markDirty(unsent[voter]);
+                        }
+                    }
+                    state.countersDirty.set(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Every record and counter of every election. Called holding stateLock.
+     */
+    private byte[] stateMessage() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (ElectionState state : states) {
+            for (int voter = 0; voter < voters.size(); voter++) {
+                writeRecord(out, state, voter, false);
+            }
+            writeCounters(out, state);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void writeCounters(DataOutputStream out, ElectionState state) throws IOException {
+        int options = state.election.getOptionCount();
+        for (int node = 0; node < nodes.size(); node++) {
+            out.writeByte(COUNTERS);
+            out.writeInt(node);
+            out.writeInt(state.election.getId());
+            out.writeInt(options);
+            for (int option = 0; option < options; option++) {
+                out.writeLong(state.positive[node].get(option));
+                out.writeLong(state.negative[node].get(option));
+            }
+        }
+    }
+
+    private void writeRecord(DataOutputStream out, ElectionState state, int voter, boolean gossiped)
+            throws IOException {
+        int optionId;
+        long timestamp;
+        int origin;
+        synchronized (voters.lockFor(voter)) {
+            if (gossiped) {
+                state.records.clearDirty(voter);
+            }
+            settle(state, voter);
+            optionId = state.records.optionId(voter);
+            timestamp = state.records.timestamp(voter);
+            origin = state.records.origin(voter);
+        }
+        if (optionId < 0) {
+            return;
+        }
+        out.writeByte(RECORD);
+        out.writeInt(state.election.getId());
+        out.writeUTF(voters.clientId(voter));
+        out.writeInt(optionId);
+        out.writeLong(timestamp);
+        out.writeInt(origin);
+    }
+
+    /**
+     * Appends a message to the cluster log and forces it, or with {@code full} replaces the log
+     * with a full state. Called holding stateLock.
+     */
+    private void persist(byte[] message, boolean full) throws IOException {
+        if (logPath == null) {
+            return;
+        }
+        if (full) {
+            Path temp = logPath.resolveSibling(LOG_FILE + ".tmp");
+            try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(16).putInt(LOG_MAGIC).putInt(nodeId).putInt(nodes.size())
+                        .putInt(electionsHash).flip();
+                writeFully(file, header);
+                writeFully(file, ByteBuffer.wrap(message));
+                file.force(true);
+            }
+            if (log != null) {
+                log.close();
+            }
+            Files.move(temp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log = FileChannel.open(logPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            logSize = compactedSize = message.length;
+        } else {
+            writeFully(log, ByteBuffer.wrap(message));
+            log.force(false);
+            logSize += message.length;
+        }
+    }
+
+    private static void writeFully(FileChannel file, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            file.write(bytes);
+        }
+    }
+
+    /**
+     * Loads the counters and records the log holds, without touching the tally or choices.
+     */
+    private void replayLog() throws IOException {
+        long messages = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath), 64 * 1024))) {
+            if (in.readInt() != LOG_MAGIC || in.readInt() != nodeId || in.readInt() != nodes.size()
+                    || in.readInt() != electionsHash) {
+                throw new IOException("Cluster log " + logPath + " belongs to another node or election configuration");
+            }
+            while (true) {
+                if (!readMessage(in.readByte(), in, true)) {
+                    Log.warn("Corrupt cluster log, ignoring the rest after {} messages", messages);
+                    break;
+                }
+                messages++;
+            }
+        } catch (EOFException e) {
+            // end of the log, or a tick cut short by a crash
+        }
+        Log.info("Recovered cluster state from {} ({} messages)", logPath, messages);
+    }
+
+    /**
+     * Reads one COUNTERS or RECORD message and applies it, from a peer or, when
+     * {@code recovering}, from the log. Returns false for any other message type.
+     */
+    private boolean readMessage(byte type, DataInputStream in, boolean recovering) throws IOException {
+        if (type == COUNTERS) {
+            int node = in.readInt();
+            int electionId = in.readInt();
+            int options = in.readInt();
+            long[] positive = new long[options];
+            long[] negative = new long[options];
+            for (int option = 0; option < options; option++) {
+                positive[option] = in.readLong();
+                negative[option] = in.readLong();
+            }
+            if (node < 0 || node >= nodes.size()) {
+                return true;
+            }
+            if (recovering) {
+                restoreCounters(node, electionId, positive, negative);
+            } else {
+                mergeCounters(node, electionId, positive, negative);
+            }
+            return true;
+        }
+        if (type == RECORD) {
+            int electionId = in.readInt();
+            String clientId = in.readUTF();
+            int optionId = in.readInt();
+            long timestamp = in.readLong();
+            int origin = in.readInt();
+            if (recovering) {
+                restoreRecord(electionId, clientId, optionId, timestamp, origin);
+            } else {
+                applyRecord(electionId, clientId, optionId, timestamp, origin);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void restoreCounters(int node, int electionId, long[] positive, long[] negative) {
+        ElectionState state = electionId >= 0 && electionId < states.length ? states[electionId] : null;
+        if (state == null || positive.length != state.election.getOptionCount()) {
+            return;
+        }
+        for (int option = 0; option < positive.length; option++) {
+            state.positive[node].accumulateAndGet(option, positive[option], Math::max);
+            state.negative[node].accumulateAndGet(option, negative[option], Math::max);
+        }
+    }
+
+    private void restoreRecord(int electionId, String clientId, int optionId, long timestamp, int origin) {
+        ElectionState state = electionId >= 0 && electionId < states.length ? states[electionId] : null;
+        if (state == null || !state.election.isValidOption(optionId) || origin < 0 || origin >= nodes.size()) {
+            return;
+        }
+        int voter = voters.intern(clientId);
+        if (state.records.isBeatenBy(voter, timestamp, origin)) {
+            state.records.set(voter, optionId, timestamp, origin);
+            // everything logged was counted by the counters logged with it
+            state.records.setCounted(voter, origin == nodeId ? optionId : -1);
+        }
+    }
+
+    private void dialLoop(int peer) {
+        InetSocketAddress target = nodes.get(peer);
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (running) {
+            PeerLink link = null;
+            try {
+                Socket socket = new Socket();
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(target.getHostString(), target.getPort()), 1000);
+                PeerLink connected = new PeerLink(socket);
+                link = connected;
+                synchronized (stateLock) {
+                    byte[] state = stateMessage();
+                    persist(state, true);
+                    connected.write(handshake(state));
+                    links.add(connected);
+                }
+                Log.info("Connected to cluster node {} at {}:{}", peer, target.getHostString(), target.getPort());
+                backoff = MIN_BACKOFF_MILLIS;
+                awaitClose(socket.getInputStream());
+                Log.warn("Lost connection to cluster node {}", peer);
+            } catch (IOException e) {
+                Log.debug("Cannot reach cluster node {}: {}", peer, e.getMessage());
+            } finally {
+                if (link != null) {
+                    links.remove(link);
+                    link.close();
+                }
+            }
+            if (!running) {
+                return;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private byte[] handshake(byte[] state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(state.length + 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(HELLO);
+        out.writeInt(nodeId);
+        out.writeInt(nodes.size());
+        out.writeInt(electionsHash);
+        out.write(state);
+        out.writeByte(SYNCED);
+        return bytes.toByteArray();
+    }
+
+    // Peers never write on a connection they accepted, so a read only returns at close
+    private static void awaitClose(InputStream in) throws IOException {
+        while (in.read() >= 0) {
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = listener.accept();
+                socket.setTcpNoDelay(true);
+                Thread.ofVirtual().start(() -> readLoop(socket));
+            } catch (IOException e) {
+                if (running) {
+                    Log.warn("Error accepting cluster connection: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void readLoop(Socket socket) {
+        inbound.add(socket);
+        try (socket; DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024))) {
+            if (in.readByte() != HELLO) {
+                Log.warn("Cluster connection from {} did not start with HELLO", socket.getRemoteSocketAddress());
+                return;
+            }
+            int peer = in.readInt();
+            int clusterSize = in.readInt();
+            int peerElectionsHash = in.readInt();
+            if (peer < 0 || peer >= nodes.size() || peer == nodeId || clusterSize != nodes.size()
+                    || peerElectionsHash != electionsHash) {
+                Log.warn("Rejecting cluster node {} from {}: different cluster or election configuration",
+                        peer, socket.getRemoteSocketAddress());
+                return;
+            }
+            while (running) {
+                byte type = in.readByte();
+                if (type == SYNCED) {
+                    if (!synced) {
+                        synced = true;
+                        Log.info("Cluster node {} has its state from node {}, accepting votes", nodeId, peer);
+                    }
+                } else if (!readMessage(type, in, false)) {
+                    Log.warn("Unknown cluster message {} from node {}", type, peer);
+                    return;
+                }
+            }
+        } catch (EOFException e) {
+            // peer closed the connection
+        } catch (IOException e) {
+            if (running) {
+                Log.debug("Cluster connection closed: {}", e.getMessage());
+            }
+        } finally {
+            inbound.remove(socket);
+        }
+    }
+}
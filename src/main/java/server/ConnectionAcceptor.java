@@ -0,0 +1,19 @@
+package server;
+
+import java.net.InetAddress;
+
+/**
+ * What a {@link ConnectionEngine} serves: the voting server itself, or a relay in front of it.
+ */
+public interface ConnectionAcceptor {
+    /**
+     * Creates the handler for a new connection, or returns null when its address is over the
+     * connection cap; the engine then sends {@link AdmissionControl#connectionRejection()} and
+     * closes the socket.
+     */
+    ConnectionHandler accept(ClientConnection connection, InetAddress address);
+
+    AdmissionControl getAdmission();
+
+    ServerMetrics getMetrics();
+}
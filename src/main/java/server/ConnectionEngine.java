@@ -0,0 +1,25 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Accepts sockets and feeds the bytes they read to {@link ConnectionHandler}s created by the
+ * acceptor, the voting server or a relay.
+ */
+public interface ConnectionEngine {
+    void serve(InetSocketAddress address, ConnectionAcceptor acceptor) throws IOException;
+
+    void shutdown();
+
+    static ConnectionEngine create(ServerConfig config) {
+        switch (config.getEngine()) {
+            case ServerConfig.ENGINE_NIO:
+                return new NioEngine(config.getWorkerThreads());
+            case ServerConfig.ENGINE_VIRTUAL:
+                return new VirtualThreadEngine();
+            default:
+                throw new IllegalArgumentException("Unknown connection engine: " + config.getEngine());
+        }
+    }
+}
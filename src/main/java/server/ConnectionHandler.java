@@ -0,0 +1,21 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Protocol side of one connection, created by a {@link ConnectionAcceptor} when the engine
+ * accepts a socket. The engine feeds it what the socket reads and drains its outbound queue.
+ */
+public interface ConnectionHandler {
+    /**
+     * Called by the connection engine with the bytes of each socket read, in order.
+     */
+    void onBytes(ByteBuffer buffer);
+
+    void onError(IOException e);
+
+    void onClose();
+
+    OutboundQueue getOutbound();
+}
@@ -0,0 +1,104 @@
+package server;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One poll: a fixed list of options, the tally per option and each voter's current choice.
+ * Options are addressed by their position in the list; names are only resolved at the edges.
+ */
+public class Election {
+    private final int id;
+    private final String name;
+    private final List<String> options;
+    private final Map<String, Integer> optionIds = new HashMap<>();
+    final TallyCounters tally;
+    final ChoiceTable choices; // by VoterRegistry id
+
+    Election(int id, String name, List<String> options) {
+        this.id = id;
+        this.name = name;
+        this.options = List.copyOf(options);
+        for (int i = 0; i < this.options.size(); i++) {
+            optionIds.put(this.options.get(i), i);
+        }
+        this.tally = new TallyCounters(this.options.size());
+        this.choices = new ChoiceTable(this.options.size());
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getOptions() {
+        return options;
+    }
+
+    public int getOptionCount() {
+        return options.size();
+    }
+
+    /**
+     * The option's id, or -1 if this election has no option of that name.
+     */
+    public int optionId(String option) {
+        return option == null ? -1 : optionIds.getOrDefault(option, -1);
+    }
+
+    public String optionName(int optionId) {
+        return isValidOption(optionId) ? options.get(optionId) : null;
+    }
+
+    public boolean isValidOption(int optionId) {
+        return optionId >= 0 && optionId < options.size();
+    }
+
+    /**
+     * Votes per option id.
+     */
+    public long[] getTallies() {
+        return tally.snapshot().toArray();
+    }
+
+    /**
+     * A consistent view of the tally and its version. Does not block voters, and returns the
+     * same instance until the tally changes.
+     */
+    public TallySnapshot getSnapshot() {
+        return tally.snapshot();
+    }
+
+    /**
+     * Grows with every change to the tally; equal versions mean equal tallies.
+     */
+    public long getVersion() {
+        return tally.version();
+    }
+
+    /**
+     * Votes per option name, in option order.
+     */
+    public Map<String, Integer> getResults() {
+        TallySnapshot tallies = tally.snapshot();
+        Map<String, Integer> results = new LinkedHashMap<>();
+        for (int i = 0; i < tallies.getOptionCount(); i++) {
+            results.put(options.get(i), (int) tallies.get(i));
+        }
+        return results;
+    }
+
+    public int getVoterCount() {
+        return choices.size();
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + id + ")";
+    }
+}
@@ -0,0 +1,78 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * All elections on this server, addressed by a dense id. Election 0 is where clients start and
+ * where votes from clients that never pick an election go.
+ *
+ * Elections are only ever added, so readers index a copy-on-write array without locking.
+ * Ids are assigned in creation order and are what the vote log and journal record, so the
+ * configured elections must keep their order across restarts.
+ */
+public class ElectionRegistry {
+    public static final int DEFAULT_ELECTION = 0;
+    public static final String DEFAULT_SPEC = "General=Option A,Option B,Option C";
+
+    private volatile Election[] elections = new Election[0];
+
+    /**
+     * Parses {@code name=option,option;name=option,...}, e.g. {@value #DEFAULT_SPEC}.
+     */
+    public static ElectionRegistry parse(String spec) {
+        ElectionRegistry registry = new ElectionRegistry();
+        for (String definition : spec.split(";")) {
+            if (definition.isBlank()) {
+                continue;
+            }
+            int separator = definition.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Election must be name=option,option,...: " + definition);
+            }
+            List<String> options = new ArrayList<>();
+            for (String option : definition.substring(separator + 1).split(",")) {
+                if (!option.isBlank()) {
+                    options.add(option.trim());
+                }
+            }
+            registry.create(definition.substring(0, separator).trim(), options);
+        }
+        if (registry.elections.length == 0) {
+            throw new IllegalArgumentException("No elections configured");
+        }
+        return registry;
+    }
+
+    public synchronized Election create(String name, List<String> options) {
+        if (options.isEmpty() || options.size() != options.stream().distinct().count()) {
+            throw new IllegalArgumentException("Election " + name + " needs distinct options");
+        }
+        Election election = new Election(elections.length, name, options);
+        Election[] grown = Arrays.copyOf(elections, elections.length + 1);
+        grown[election.getId()] = election;
+        elections = grown;
+        return election;
+    }
+
+    /**
+     * The election with this id, or null.
+     */
+    public Election get(int id) {
+        Election[] current = elections;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    public Election getDefault() {
+        return elections[DEFAULT_ELECTION];
+    }
+
+    public List<Election> list() {
+        return List.of(elections);
+    }
+
+    public int size() {
+        return elections.length;
+    }
+}
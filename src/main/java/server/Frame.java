@@ -0,0 +1,57 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An encoded outbound message. Frames that share a coalesce key are snapshots of the same
+ * state, so a newer one may replace an older one that has not been written yet.
+ */
+public final class Frame {
+    private final String coalesceKey;
+    private final ByteBuffer bytes;
+
+    private Frame(String coalesceKey, ByteBuffer bytes) {
+        this.coalesceKey = coalesceKey;
+        this.bytes = bytes.asReadOnlyBuffer();
+    }
+
+    public static Frame line(String message) {
+        return new Frame(null, encode(message));
+    }
+
+    public static Frame snapshot(String coalesceKey, String message) {
+        return new Frame(coalesceKey, encode(message));
+    }
+
+    public static Frame binary(String coalesceKey, ByteBuffer bytes) {
+        return new Frame(coalesceKey, bytes);
+    }
+
+    private static ByteBuffer encode(String message) {
+        return StandardCharsets.UTF_8.encode(message + "\n");
+    }
+
+    /**
+     * The same frame in off-heap memory. Sockets write direct buffers without first copying them
+     * into a temporary one, so this pays off for frames that are written to many clients.
+     */
+    public Frame shared() {
+        if (bytes.isDirect()) {
+            return this;
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.remaining()).put(bytes.duplicate()).flip();
+        return new Frame(coalesceKey, direct);
+    }
+
+    public String getCoalesceKey() {
+        return coalesceKey;
+    }
+
+    /**
+     * Returns an independent view of the bytes, so one frame can be written to many sockets.
+     */
+    public ByteBuffer buffer() {
+        return bytes.duplicate();
+    }
+}
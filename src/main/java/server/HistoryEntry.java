@@ -0,0 +1,18 @@
+package server;
+
+public class HistoryEntry {
+    private final long seq;
+    private final long timestamp;
+    private final String clientName;
+
+    public HistoryEntry(long seq, long timestamp, String clientName) {
+        this.seq = seq;
+        this.timestamp = timestamp;
+        this.clientName = clientName;
+    }
+
+    public long getSeq() { return seq; }
+    public long getTimestamp() { return timestamp; }
+    public String getClientName() { return clientName; }
+    public String getText() { return clientName + " voted"; }
+}
@@ -0,0 +1,140 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sequential scans over a {@link VoteJournal} file. Records are read straight out of read-only
+ * mappings and handed to the visitor as primitives, so a scan allocates nothing per record.
+ */
+public final class JournalScanner {
+    private static final int RECORD_SIZE = VoteJournal.RECORD_SIZE;
+    private static final long CHUNK_SIZE = VoteJournal.CHUNK_SIZE;
+
+    public interface RecordVisitor {
+        void visit(long timestamp, int voter, int election, int option, int previousOption);
+    }
+
+    private JournalScanner() {
+    }
+
+    /**
+     * Visits every complete record in journal order and returns how many were visited.
+     */
+    public static long scan(Path journal, RecordVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long count = 0;
+            for (long chunkStart = 0; chunkStart < size; chunkStart += CHUNK_SIZE) {
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart,
+                        Math.min(CHUNK_SIZE, size - chunkStart));
+                int limit = chunk.limit() - RECORD_SIZE;
+                for (int offset = 0; offset <= limit; offset += RECORD_SIZE) {
+                    long timestamp = chunk.getLong(offset);
+                    if (timestamp == 0) {
+                        return count;
+                    }
+                    visitor.visit(timestamp, chunk.getInt(offset + 8), chunk.getInt(offset + 12),
+                            chunk.getInt(offset + 16), chunk.getInt(offset + 20));
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Replays one election's vote changes to rebuild its final tally per option id.
+     */
+    public static long[] rebuildTallies(Path journal, int electionId, int optionCount) throws IOException {
+        long[] tallies = new long[optionCount];
+        scan(journal, (timestamp, voter, election, option, previousOption) -> {
+            if (election != electionId) {
+                return;
+            }
+            if (previousOption >= 0 && previousOption < optionCount) {
+                tallies[previousOption]--;
+            }
+            if (option >= 0 && option < optionCount) {
+                tallies[option]++;
+            }
+        });
+        return tallies;
+    }
+
+    /**
+     * Number of votes cast in each of {@code intervals} consecutive windows of {@code intervalMillis}
+     * starting at {@code startMillis}. Votes outside the range are ignored.
+     */
+    public static long[] countPerInterval(Path journal, long startMillis, long intervalMillis, int intervals)
+            throws IOException {
+        long[] counts = new long[intervals];
+        scan(journal, (timestamp, voter, election, option, previousOption) -> {
+            long bucket = (timestamp - startMillis) / intervalMillis;
+            if (timestamp >= startMillis && bucket < intervals) {
+                counts[(int) bucket]++;
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Voter ids by voter index.
+     */
+    public static List<String> readVoters(Path journal) throws IOException {
+        Path dictionary = VoteJournal.dictionaryPath(journal);
+        if (!Files.exists(dictionary)) {
+            Path legacy = VoteJournal.legacyDictionaryPath(journal);
+            return Files.exists(legacy) ? Files.readAllLines(legacy, StandardCharsets.UTF_8) : List.of();
+        }
+        List<String> voters = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(dictionary)))) {
+            byte[] bytes = new byte[256];
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return voters;
+                }
+                if (length > bytes.length) {
+                    bytes = new byte[length];
+                }
+                try {
+                    in.readFully(bytes, 0, length);
+                } catch (EOFException e) {
+                    // an entry cut short by a crash; no record refers to it yet
+                    return voters;
+                }
+                voters.add(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    static long countRecords(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long count = 0;
+        for (long chunkStart = 0; chunkStart < size; chunkStart += CHUNK_SIZE) {
+            MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart,
+                    Math.min(CHUNK_SIZE, size - chunkStart));
+            int limit = chunk.limit() - RECORD_SIZE;
+            for (int offset = 0; offset <= limit; offset += RECORD_SIZE) {
+                if (chunk.getLong(offset) == 0) {
+                    return count;
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+}
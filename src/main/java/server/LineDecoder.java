@@ -0,0 +1,49 @@
+package server;
+
+import common.BinaryProtocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits a byte stream into protocol lines, the same way BufferedReader.readLine() did. A line
+ * is held to the size of the largest binary frame, so a client that never sends a newline
+ * cannot make it buffer without bound.
+ */
+public class LineDecoder {
+    public static final int MAX_LINE_LENGTH = BinaryProtocol.MAX_FRAME_LENGTH;
+
+    private byte[] pending = new byte[256];
+    private int length;
+
+    /**
+     * Returns the next complete line, or null once {@code buffer} is used up without finding one.
+     * Bytes after the returned line stay in the buffer.
+     *
+     * @throws IllegalArgumentException when a line runs past {@link #MAX_LINE_LENGTH}
+     */
+    public String next(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                int end = length;
+                if (end > 0 && pending[end - 1] == '\r') {
+                    end--;
+                }
+                length = 0;
+                return new String(pending, 0, end, StandardCharsets.UTF_8);
+            }
+            if (length == pending.length) {
+                if (length >= MAX_LINE_LENGTH) {
+                    pending = new byte[256];
+                    length = 0;
+                    throw new IllegalArgumentException("Line longer than " + MAX_LINE_LENGTH + " bytes");
+                }
+                pending = Arrays.copyOf(pending, Math.min(length * 2, MAX_LINE_LENGTH));
+            }
+            pending[length++] = b;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,146 @@
+package server;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asynchronous, level-gated server log.
+ *
+ * A disabled level costs one volatile read: messages are templates with {} placeholders and
+ * fixed-arity arguments, so nothing is formatted or allocated unless the level is on. Enabled
+ * messages are queued and written by a single daemon thread; when the queue is full they are
+ * dropped and counted rather than blocking the caller.
+ *
+ * The level comes from {@code voting.log.level} (ERROR, WARN, INFO, DEBUG; INFO by default).
+ * Per-message and per-connection logging is DEBUG.
+ */
+public final class Log {
+    public enum Level { ERROR, WARN, INFO, DEBUG }
+
+    private static final int QUEUE_CAPACITY = 65_536;
+
+    private static volatile Level level = Level.valueOf(System.getProperty("voting.log.level", "INFO").toUpperCase());
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final LongAdder dropped = new LongAdder();
+
+    static {
+        Thread writer = new Thread(Log::writeLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private static final class Entry {
+        final Level level;
+        final String template;
+        final Object a, b, c;
+
+        Entry(Level level, String template, Object a, Object b, Object c) {
+            this.level = level;
+            this.template = template;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+    }
+
+    private Log() {
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static boolean isEnabled(Level candidate) {
+        return candidate.ordinal() <= level.ordinal();
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public static void error(String template, Object a) { log(Level.ERROR, template, a, null, null); }
+    public static void error(String template, Object a, Object b) { log(Level.ERROR, template, a, b, null); }
+
+    public static void warn(String template, Object a) { log(Level.WARN, template, a, null, null); }
+    public static void warn(String template, Object a, Object b) { log(Level.WARN, template, a, b, null); }
+
+    public static void info(String template) { log(Level.INFO, template, null, null, null); }
+    public static void info(String template, Object a) { log(Level.INFO, template, a, null, null); }
+    public static void info(String template, Object a, Object b) { log(Level.INFO, template, a, b, null); }
+    public static void info(String template, Object a, Object b, Object c) { log(Level.INFO, template, a, b, c); }
+
+    public static void debug(String template, Object a) { log(Level.DEBUG, template, a, null, null); }
+    public static void debug(String template, Object a, Object b) { log(Level.DEBUG, template, a, b, null); }
+    public static void debug(String template, Object a, Object b, Object c) { log(Level.DEBUG, template, a, b, c); }
+
+    private static void log(Level messageLevel, String template, Object a, Object b, Object c) {
+        if (messageLevel.ordinal() > level.ordinal()) {
+            return;
+        }
+        if (!queue.offer(new Entry(messageLevel, template, a, b, c))) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Waits up to {@code timeoutMillis} for queued messages to be handed to the writer.
+     */
+    public static void flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!queue.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Messages discarded because the writer could not keep up.
+     */
+    public static long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private static void writeLoop() {
+        List<Entry> batch = new ArrayList<>();
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            try {
+                Entry first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, 1024);
+                for (Entry entry : batch) {
+                    line.setLength(0);
+                    format(line, entry);
+                    PrintStream out = entry.level.ordinal() <= Level.WARN.ordinal() ? System.err : System.out;
+                    out.println(line);
+                }
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // a failing toString() must not stop the writer
+                batch.clear();
+            }
+        }
+    }
+
+    private static void format(StringBuilder line, Entry entry) {
+        Object[] args = {entry.a, entry.b, entry.c};
+        String template = entry.template;
+        int arg = 0;
+        int start = 0;
+        int placeholder;
+        while ((placeholder = template.indexOf("{}", start)) >= 0 && arg < args.length) {
+            line.append(template, start, placeholder).append(args[arg++]);
+            start = placeholder + 2;
+        }
+        line.append(template, start, template.length());
+    }
+}
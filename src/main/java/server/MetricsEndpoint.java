@@ -0,0 +1,178 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import common.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Read-only JSON metrics over HTTP, bound to the loopback interface only.
+ *
+ * GET /metrics returns counters, latency percentiles (microseconds), client and history sizes
+ * and how often clients were served pre-encoded snapshots, and per election the votes per option
+ * in the last second, 10 seconds, minute and hour.
+ * GET /metrics/backlog returns the outbound queue depth of every connected client.
+ * Everything is computed when scraped; the hot path only updates {@link ServerMetrics}.
+ */
+public class MetricsEndpoint {
+    private final VotingServer server;
+    private final HttpServer http;
+
+    public MetricsEndpoint(VotingServer server, int port) throws IOException {
+        this.server = server;
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", this::handle);
+    }
+
+    public void start() {
+        http.start();
+    }
+
+    public void stop() {
+        http.stop(0);
+    }
+
+    public int getPort() {
+        return http.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String body;
+            if (path.equals("/metrics") || path.equals("/metrics/")) {
+                body = summary();
+            } else if (path.equals("/metrics/backlog")) {
+                body = backlog();
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    String summary() {
+        ServerMetrics metrics = server.getMetrics();
+        VoteHistory history = server.getVoteService().getVoteHistory();
+        Map<String, Integer> backlog = server.getOutboundBacklog();
+        long backlogTotal = 0;
+        int backlogMax = 0;
+        for (int depth : backlog.values()) {
+            backlogTotal += depth;
+            backlogMax = Math.max(backlogMax, depth);
+        }
+
+        StringBuilder json = new StringBuilder(1024).append('{');
+        json.append("\"connectedClients\":").append(server.getClientCount());
+        json.append(",\"connectionsAccepted\":").append(metrics.getConnectionsAccepted());
+        json.append(",\"messagesReceived\":").append(metrics.getMessagesReceived());
+        json.append(",\"votesCast\":").append(metrics.getVotesCast());
+        json.append(",\"votesPerSecond\":").append(metrics.getVotesPerSecond());
+        json.append(",\"votesRejected\":").append(metrics.getVotesRejected());
+        json.append(",\"batches\":").append(metrics.getBatches());
+        json.append(",\"castLatencyMicros\":");
+        appendHistogram(json, metrics.getCastLatency());
+        json.append(",\"resultsFanOutMicros\":");
+        appendHistogram(json, metrics.getResultsFanOut());
+        json.append(",\"historyFanOutMicros\":");
+        appendHistogram(json, metrics.getHistoryFanOut());
+        json.append(",\"outboundBacklog\":{\"total\":").append(backlogTotal)
+                .append(",\"max\":").append(backlogMax).append('}');
+        json.append(",\"slowConsumerDisconnects\":").append(metrics.getSlowConsumerDisconnects());
+        json.append(",\"admission\":{\"addresses\":").append(server.getAdmission().getAddressCount())
+                .append(",\"connectionsRejected\":").append(metrics.getConnectionsRejected())
+                .append(",\"acceptPauses\":").append(metrics.getAcceptPauses())
+                .append(",\"requestsThrottled\":").append(metrics.getRequestsThrottled()).append('}');
+        json.append(",\"sessions\":{\"open\":").append(server.getSessions().size())
+                .append(",\"resumed\":").append(server.getSessions().getResumedCount()).append('}');
+        json.append(",\"history\":{\"latestSeq\":").append(history.getLatestSeq())
+                .append(",\"retained\":").append(history.getRetainedCount())
+                .append(",\"inMemory\":").append(history.getInMemoryCount()).append('}');
+        json.append(",\"snapshotCache\":{\"hits\":").append(server.getSnapshots().getHitCount())
+                .append(",\"misses\":").append(server.getSnapshots().getMissCount()).append('}');
+        json.append(",\"voteRates\":");
+        appendVoteRates(json);
+        json.append(",\"logDropped\":").append(Log.getDroppedCount());
+        ClusterNode cluster = server.getClusterNode();
+        if (cluster != null) {
+            json.append(",\"cluster\":{\"nodeId\":").append(cluster.getNodeId())
+                    .append(",\"connectedPeers\":").append(cluster.getConnectedPeers()).append('}');
+        }
+        return json.append('}').toString();
+    }
+
+    String backlog() {
+        StringBuilder json = new StringBuilder().append('{');
+        for (Map.Entry<String, Integer> entry : server.getOutboundBacklog().entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            appendString(json, entry.getKey());
+            json.append(':').append(entry.getValue());
+        }
+        return json.append('}').toString();
+    }
+
+    // {"<election>":{"<window seconds>":[votes per option id],...},...}
+    private void appendVoteRates(StringBuilder json) {
+        long second = System.currentTimeMillis() / 1000 - 1;
+        json.append('{');
+        for (Election election : server.getVoteService().getElections().list()) {
+            if (json.charAt(json.length() - 1) != '{') {
+                json.append(',');
+            }
+            appendString(json, election.getName());
+            json.append(":{");
+            long[][] windows = server.getVoteRates().snapshot(election, second).getWindows();
+            for (int w = 0; w < windows.length; w++) {
+                json.append(w == 0 ? "\"" : ",\"").append(VoteRates.WINDOW_SECONDS[w]).append("\":[");
+                for (int option = 0; option < windows[w].length; option++) {
+                    json.append(option == 0 ? "" : ",").append(windows[w][option]);
+                }
+                json.append(']');
+            }
+            json.append('}');
+        }
+        json.append('}');
+    }
+
+    private static void appendHistogram(StringBuilder json, LatencyHistogram histogram) {
+        json.append("{\"count\":").append(histogram.getCount())
+                .append(",\"p50\":").append(histogram.valueAtPercentile(50) / 1000)
+                .append(",\"p99\":").append(histogram.valueAtPercentile(99) / 1000)
+                .append(",\"p999\":").append(histogram.valueAtPercentile(99.9) / 1000)
+                .append(",\"max\":").append(histogram.getMax() / 1000)
+                .append('}');
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
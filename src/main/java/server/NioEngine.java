@@ -0,0 +1,261 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Single selector thread for all socket I/O. Bytes read are handed to a small worker pool,
+ * one connection at a time, so messages from a client are still processed in order.
+ *
+ * While the server is at its connection cap, accept interest is dropped, leaving new
+ * connections in the listen backlog, and the selector polls for a free slot.
+ */
+public class NioEngine implements ConnectionEngine {
+    private static final long ACCEPT_RETRY_MILLIS = 100;
+
+    private final int workerThreads;
+    private final Queue<NioConnection> interestChanges = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private volatile Selector selector;
+    private volatile boolean running;
+    private ExecutorService workers;
+    private SelectionKey acceptKey;
+    private boolean acceptPaused; // only touched by the selector thread
+
+    public NioEngine(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    @Override
+    public void serve(InetSocketAddress address, ConnectionAcceptor acceptor) throws IOException {
+        running = true;
+        workers = Executors.newFixedThreadPool(workerThreads);
+        try (Selector sel = Selector.open(); ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            selector = sel;
+            serverChannel.configureBlocking(false);
+            serverChannel.bind(address, 1024);
+            acceptKey = serverChannel.register(sel, SelectionKey.OP_ACCEPT);
+
+            while (running) {
+                sel.select(acceptPaused ? ACCEPT_RETRY_MILLIS : 0);
+                applyInterestChanges();
+                if (acceptPaused && acceptor.getAdmission().hasCapacity()) {
+                    acceptPaused = false;
+                    acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                }
+
+                Iterator<SelectionKey> keys = sel.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(serverChannel, acceptor);
+                        continue;
+                    }
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (key.isReadable()) {
+                        read(connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        flush(connection);
+                    }
+                }
+            }
+            // closing the selector leaves its channels open
+            applyInterestChanges();
+            for (SelectionKey key : sel.keys()) {
+                if (key.attachment() instanceof NioConnection connection && connection.closed.compareAndSet(false, true)) {
+                    closeQuietly(connection.socket);
+                    if (connection.handler != null) {
+                        connection.dispatch(() -> connection.handler.onClose());
+                    }
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel, ConnectionAcceptor acceptor) {
+        try {
+            AdmissionControl admission = acceptor.getAdmission();
+            SocketChannel socket;
+            while (true) {
+                if (!admission.hasCapacity()) {
+                    acceptor.getMetrics().acceptPaused();
+                    Log.debug("Connection limit reached ({} clients), pausing accept", admission.getConnectionCount());
+                    acceptPaused = true;
+                    acceptKey.interestOps(0);
+                    return;
+                }
+                if ((socket = serverChannel.accept()) == null) {
+                    return;
+                }
+                socket.configureBlocking(false);
+                socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                NioConnection connection = new NioConnection(socket);
+                connection.key = socket.register(selector, SelectionKey.OP_READ, connection);
+                connection.handler = acceptor.accept(connection,
+                        ((InetSocketAddress) socket.getRemoteAddress()).getAddress());
+                if (connection.handler == null) {
+                    // best effort: the line fits any empty socket buffer
+                    connection.key.cancel();
+                    socket.write(admission.connectionRejection());
+                    closeQuietly(socket);
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Error accepting client connection: {}", e.getMessage());
+        }
+    }
+
+    private void read(NioConnection connection) {
+        try {
+            readBuffer.clear();
+            int read = connection.socket.read(readBuffer);
+            if (read < 0) {
+                connection.close();
+                return;
+            }
+            readBuffer.flip();
+            // the read buffer is reused for every connection, so hand the worker its own copy
+            ByteBuffer bytes = ByteBuffer.allocate(read).put(readBuffer).flip();
+            connection.dispatch(() -> connection.handler.onBytes(bytes));
+        } catch (IOException e) {
+            connection.dispatch(() -> connection.handler.onError(e));
+            connection.close();
+        }
+    }
+
+    private void flush(NioConnection connection) {
+        OutboundQueue outbound = connection.handler.getOutbound();
+        try {
+            while (true) {
+                if (connection.pendingWrite == null) {
+                    Frame frame = outbound.poll();
+                    if (frame == null) {
+                        break;
+                    }
+                    connection.pendingWrite = frame.buffer();
+                }
+                connection.socket.write(connection.pendingWrite);
+                if (connection.pendingWrite.hasRemaining()) {
+                    return; // socket buffer is full, wait for the next OP_WRITE
+                }
+                connection.pendingWrite = null;
+            }
+            connection.key.interestOps(SelectionKey.OP_READ);
+            connection.writeScheduled.set(false);
+            // a frame may have been queued after the last poll
+            if (outbound.depth() > 0 && connection.writeScheduled.compareAndSet(false, true)) {
+                connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            connection.close();
+        }
+    }
+
+    private void applyInterestChanges() {
+        NioConnection changed;
+        while ((changed = interestChanges.poll()) != null) {
+            NioConnection connection = changed;
+            SelectionKey key = connection.key;
+            if (connection.closed.get()) {
+                if (key != null) key.cancel();
+                closeQuietly(connection.socket);
+                connection.dispatch(() -> connection.handler.onClose());
+            } else if (key != null && key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    private void closeQuietly(SocketChannel socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.debug("Error closing client connection: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        if (selector != null) selector.wakeup();
+    }
+
+    private class NioConnection implements ClientConnection {
+        private final SocketChannel socket;
+        private final Queue<Runnable> inbox = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private volatile SelectionKey key;
+        private volatile ConnectionHandler handler;
+        private ByteBuffer pendingWrite; // only touched by the selector thread
+
+        NioConnection(SocketChannel socket) {
+            this.socket = socket;
+        }
+
+        void dispatch(Runnable task) {
+            inbox.add(task);
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this::drainInbox);
+            }
+        }
+
+        private void drainInbox() {
+            do {
+                Runnable task;
+                while ((task = inbox.poll()) != null) {
+                    task.run();
+                }
+                scheduled.set(false);
+            } while (!inbox.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+
+        @Override
+        public void outboundReady() {
+            if (closed.get()) {
+                return;
+            }
+            if (writeScheduled.compareAndSet(false, true)) {
+                interestChanges.add(this);
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                interestChanges.add(this);
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            try {
+                return String.valueOf(socket.getRemoteAddress());
+            } catch (IOException e) {
+                return "unknown";
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package server;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer of frames waiting to be written to one client.
+ */
+public class OutboundQueue {
+    public enum OverflowPolicy {
+        /** Replace queued snapshot frames with the newest one; disconnect only if still full. */
+        CONFLATE,
+        /** Disconnect as soon as the queue is full. */
+        DISCONNECT
+    }
+
+    private final Frame[] ring;
+    private final OverflowPolicy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int head;
+    private int size;
+    private long conflated;
+    private boolean closed;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.ring = new Frame[capacity];
+        this.policy = policy;
+    }
+
+    /**
+     * Returns false when the frame does not fit and the consumer should be disconnected.
+     */
+    public boolean offer(Frame frame) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (policy == OverflowPolicy.CONFLATE && frame.getCoalesceKey() != null) {
+                for (int i = 0; i < size; i++) {
+                    int index = (head + i) % ring.length;
+                    if (frame.getCoalesceKey().equals(ring[index].getCoalesceKey())) {
+                        ring[index] = frame;
+                        conflated++;
+                        return true;
+                    }
+                }
+            }
+            if (size == ring.length) {
+                return false;
+            }
+            ring[(head + size) % ring.length] = frame;
+            size++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Frame poll() {
+        lock.lock();
+        try {
+            return size == 0 ? null : removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until a frame is available. Returns null once the queue is closed.
+     */
+    public Frame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (size == 0 && !closed) {
+                notEmpty.await();
+            }
+            return closed ? null : removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Frame removeFirst() {
+        Frame frame = ring[head];
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        size--;
+        return frame;
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for (int i = 0; i < ring.length; i++) {
+                ring[i] = null;
+            }
+            size = 0;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int depth() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getConflatedCount() {
+        lock.lock();
+        try {
+            return conflated;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
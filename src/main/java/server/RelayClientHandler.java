@@ -0,0 +1,434 @@
+package server;
+
+import common.BinaryProtocol;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A client of a {@link RelayServer}. Speaks the protocol of {@link ClientHandler}, so clients
+ * need not know they are on a relay: elections, results and history are answered from the
+ * relay's copy, and votes are forwarded upstream and acknowledged with upstream's outcome.
+ * A relay has no sessions, so a RESUME is a fresh connect, and no vote rates.
+ *
+ * Relays further down connect with the same {@code RELAY:} handshake the server accepts.
+ */
+public class RelayClientHandler implements ConnectionHandler, BinaryDecoder.Requests {
+    private final ClientConnection connection;
+    private final RelayServer relay;
+    private final OutboundQueue outbound;
+    private final AtomicBoolean connected = new AtomicBoolean(true);
+    private final InetAddress address;
+    private final AdmissionControl.Source source;
+    private TokenBucket requestBudget; // null for a relay
+    private final LineDecoder lineDecoder = new LineDecoder();
+    private BinaryDecoder binaryDecoder;
+    private volatile WireCodec codec;
+    private volatile int electionId = ElectionRegistry.DEFAULT_ELECTION;
+    private volatile boolean handshakeDone;
+    private volatile boolean downstreamRelay;
+    private volatile boolean kiosk;
+    private String clientId;
+    private String clientName;
+
+    public RelayClientHandler(ClientConnection connection, RelayServer relay, OutboundQueue outbound,
+                              InetAddress address, AdmissionControl.Source source) {
+        this.connection = connection;
+        this.relay = relay;
+        this.outbound = outbound;
+        this.address = address;
+        this.source = source;
+        this.requestBudget = relay.getAdmission().clientBucket();
+        this.codec = relay.getTextCodec();
+    }
+
+    @Override
+    public void onBytes(ByteBuffer buffer) {
+        while (buffer.hasRemaining() && connected.get()) {
+            if (binaryDecoder != null) {
+                binaryDecoder.decode(buffer, this);
+            } else {
+                String line;
+                try {
+                    line = lineDecoder.next(buffer);
+                } catch (IllegalArgumentException e) {
+                    protocolError(e.getMessage());
+                    return;
+                }
+                if (line == null) {
+                    return;
+                }
+                onMessage(line);
+            }
+        }
+    }
+
+    private void onMessage(String message) {
+        if (!connected.get()) {
+            return;
+        }
+        if (clientName == null) {
+            handleHandshake(message);
+            return;
+        }
+        relay.getMetrics().messageReceived();
+        Log.debug("Received from {}: {}", clientName, message);
+        processMessage(message);
+    }
+
+    @Override
+    public void onError(IOException e) {
+        Log.debug("Client disconnected: {} - {}", clientName, e.getMessage());
+    }
+
+    @Override
+    public void onClose() {
+        disconnect();
+    }
+
+    /**
+     * {@code clientId[:name[:BIN1]]}, {@code RESUME:token:lastHistorySeq:clientId:name[:BIN1]},
+     * which the relay treats as a new connect, {@code KIOSK:secret:clientId:name[:BIN1]} or
+     * {@code RELAY:secret:name:BIN1}.
+     */
+    private void handleHandshake(String clientInfo) {
+        String[] parts = clientInfo.split(":");
+        if (parts[0].equals("RELAY")) {
+            handleRelayHandshake(parts);
+            return;
+        }
+        int offset = parts.length >= 5 && parts[0].equals("RESUME") ? 3 : 0;
+        if (parts[0].equals("KIOSK")) {
+            if (parts.length < 3 || !ClientHandler.secretMatches(relay.getConfig().getKioskSecret(), parts[1])) {
+                Log.warn("Refused kiosk from {}", connection.getRemoteAddress());
+                send(codec.error("Kiosk not accepted"));
+                disconnect();
+                return;
+            }
+            kiosk = true;
+            offset = 2;
+        }
+        clientId = parts[offset];
+        clientName = parts.length > offset + 1 ? parts[offset + 1] : clientId;
+        if (parts.length > offset + 2 && parts[offset + 2].equals(BinaryProtocol.VERSION)) {
+            sendMessage(BinaryProtocol.ACCEPT_LINE);
+            codec = relay.getBinaryCodec();
+            binaryDecoder = new BinaryDecoder();
+        }
+        Log.debug("Client connected to relay: {} ({})", clientName, clientId);
+
+        sendElections(ClientHandler.NO_REQUEST);
+        send(codec.options(relay.election(electionId).election));
+        sendCurrentResults(ClientHandler.NO_REQUEST);
+        sendRecentHistory(ClientHandler.NO_REQUEST);
+        handshakeDone = true;
+    }
+
+    private void handleRelayHandshake(String[] parts) {
+        if (parts.length < 4 || !parts[3].equals(BinaryProtocol.VERSION)
+                || !ClientHandler.secretMatches(relay.getConfig().getRelaySecret(), parts[1])) {
+            Log.warn("Refused relay from {}", connection.getRemoteAddress());
+            send(codec.error("Relay not accepted"));
+            disconnect();
+            return;
+        }
+        clientId = "relay:" + parts[2];
+        clientName = clientId;
+        downstreamRelay = true;
+        requestBudget = null;
+        sendMessage(BinaryProtocol.ACCEPT_LINE);
+        codec = relay.getBinaryCodec();
+        binaryDecoder = new BinaryDecoder();
+        relay.addRelay(this);
+        Log.info("Relay connected: {} from {}", parts[2], connection.getRemoteAddress());
+
+        sendElections(ClientHandler.NO_REQUEST);
+        for (Election each : relay.getElections()) {
+            send(codec.options(each));
+            Frame results = results(relay.election(each.getId()));
+            if (results != null) {
+                send(results);
+            }
+        }
+        sendRecentHistory(ClientHandler.NO_REQUEST);
+        handshakeDone = true;
+    }
+
+    private void processMessage(String message) {
+        long requestId = ClientHandler.NO_REQUEST;
+        if (message.startsWith("@")) {
+            int space = message.indexOf(' ');
+            try {
+                requestId = Long.parseLong(message.substring(1, space < 0 ? message.length() : space));
+            } catch (NumberFormatException e) {
+                send(codec.error("Invalid request id"));
+                return;
+            }
+            message = space < 0 ? "" : message.substring(space + 1);
+        }
+        if (!admit(costOf(message), requestId)) {
+            return;
+        }
+        if (message.startsWith("VOTE:")) {
+            handleVote(relay.election(electionId).election.optionId(message.substring(5)), requestId);
+        } else if (message.startsWith("VOTE_BATCH:")) {
+            handleTextBatch(message.substring(11), requestId);
+        } else if (message.equals("LIST_ELECTIONS")) {
+            sendElections(requestId);
+        } else if (message.startsWith("JOIN:")) {
+            try {
+                joinElection(Integer.parseInt(message.substring(5).trim()), requestId);
+            } catch (NumberFormatException e) {
+                reply(requestId, codec.error("Invalid election"));
+            }
+        } else if (message.equals("GET_HISTORY")) {
+            sendRecentHistory(requestId);
+        } else if (message.startsWith("GET_HISTORY since=")) {
+            try {
+                sendVoteHistory(Long.parseLong(message.substring(18).trim()), requestId);
+            } catch (NumberFormatException e) {
+                reply(requestId, codec.error("Invalid history sequence"));
+            }
+        } else if (message.equals("GET_RESULTS")) {
+            sendCurrentResults(requestId);
+        } else if (message.equals("GET_RATES")) {
+            sendRates(requestId);
+        } else if (message.equals("DISCONNECT")) {
+            logout();
+        } else if (requestId != ClientHandler.NO_REQUEST) {
+            reply(requestId, codec.error("Unknown command"));
+        }
+    }
+
+    private int costOf(String message) {
+        if (message.startsWith("GET_HISTORY")) {
+            return relay.getAdmission().getHistoryCost();
+        } else if (message.startsWith("VOTE_BATCH:")) {
+            return relay.getAdmission().getBatchCost();
+        }
+        return message.equals("DISCONNECT") ? 0 : 1;
+    }
+
+    @Override
+    public int costOf(byte type) {
+        return switch (type) {
+            case BinaryProtocol.GET_HISTORY -> relay.getAdmission().getHistoryCost();
+            case BinaryProtocol.VOTE_BATCH -> relay.getAdmission().getBatchCost();
+            case BinaryProtocol.DISCONNECT -> 0;
+            default -> 1;
+        };
+    }
+
+    @Override
+    public boolean admit(int cost, long requestId) {
+        AdmissionControl admission = relay.getAdmission();
+        if (admission.admit(requestBudget, source, cost)) {
+            return true;
+        }
+        reply(requestId, admission.rejection(codec));
+        return false;
+    }
+
+    @Override
+    public void frameReceived(byte type) {
+        relay.getMetrics().messageReceived();
+        if (Log.isDebugEnabled()) {
+            Log.debug("Received frame type {} from {}", type, clientName);
+        }
+    }
+
+    /**
+     * Forwards the vote under this client's id; the reply waits for upstream's.
+     */
+    @Override
+    public void handleVote(int optionId, long requestId) {
+        Election target = relay.election(electionId).election;
+        if (optionId < 0 || optionId >= target.getOptionCount()) {
+            relay.getMetrics().voteRejected();
+            reply(requestId, codec.error(BatchResult.INVALID_OPTION));
+            return;
+        }
+        relay.getUpstream().forward(new RelayUpstream.VoteRequest(this, requestId, target,
+                new String[] {clientId}, new int[] {optionId}, true));
+    }
+
+    // voterId=option;voterId=option;...
+    private void handleTextBatch(String entries, long requestId) {
+        String[] pairs = entries.isEmpty() ? new String[0] : entries.split(";");
+        Election target = relay.election(electionId).election;
+        String[] voterIds = new String[pairs.length];
+        int[] optionIds = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            int separator = pairs[i].indexOf('=');
+            if (separator > 0) {
+                voterIds[i] = pairs[i].substring(0, separator);
+                optionIds[i] = target.optionId(pairs[i].substring(separator + 1));
+            } else {
+                optionIds[i] = -1;
+            }
+        }
+        handleVoteBatch(voterIds, optionIds, requestId);
+    }
+
+    /**
+     * Forwarded as it came; upstream validates the entries, and its outcome is the reply. Upstream
+     * trusts this relay's batches, so the relay only takes them from kiosks and relays.
+     */
+    @Override
+    public void handleVoteBatch(String[] voterIds, int[] optionIds, long requestId) {
+        if (!kiosk && !downstreamRelay) {
+            reply(requestId, codec.error("Vote batches need a kiosk connection"));
+            return;
+        }
+        if (voterIds.length > relay.getConfig().getMaxBatchSize()) {
+            reply(requestId, codec.error("Batch too large"));
+            return;
+        }
+        Election target = relay.election(electionId).election;
+        relay.getUpstream().forward(new RelayUpstream.VoteRequest(this, requestId, target, voterIds, optionIds, false));
+    }
+
+    /**
+     * Upstream's outcome of a forwarded request, called on the upstream link's reader thread.
+     */
+    void votesApplied(RelayUpstream.VoteRequest request, BatchResult result) {
+        if (!request.single) {
+            relay.getMetrics().batchApplied(result.getAccepted(), result.getRejectedCount());
+            reply(request.requestId, codec.batchResult(request.election, result));
+        } else if (result.getRejectedCount() > 0) {
+            relay.getMetrics().voteRejected();
+            reply(request.requestId, codec.error(result.getRejectReason(0)));
+        } else {
+            reply(request.requestId, codec.voteAccepted(request.election, request.optionIds[0]));
+        }
+    }
+
+    void votesFailed(RelayUpstream.VoteRequest request, String reason) {
+        reply(request.requestId, codec.error(request.single ? "Vote could not be saved: " + reason
+                : "Batch could not be saved: " + reason));
+    }
+
+    @Override
+    public void joinElection(int electionId, long requestId) {
+        RelayServer.ElectionState target = relay.election(electionId);
+        if (target == null) {
+            reply(requestId, codec.error("Unknown election"));
+            return;
+        }
+        int previous = this.electionId;
+        this.electionId = electionId;
+        relay.changeElection(this, previous, electionId);
+        reply(requestId, codec.options(target.election));
+        sendCurrentResults(ClientHandler.NO_REQUEST);
+    }
+
+    @Override
+    public void sendElections(long requestId) {
+        reply(requestId, codec.elections(relay.getElections()));
+    }
+
+    @Override
+    public void sendCurrentResults(long requestId) {
+        Frame results = results(relay.election(electionId));
+        if (results != null) {
+            reply(requestId, results);
+        } else if (requestId != ClientHandler.NO_REQUEST) {
+            reply(requestId, codec.error("No results yet"));
+        }
+    }
+
+    private Frame results(RelayServer.ElectionState state) {
+        return codec == relay.getBinaryCodec() ? state.binaryResults : state.textResults;
+    }
+
+    @Override
+    public void sendRates(long requestId) {
+        reply(requestId, codec.error("Not available through a relay"));
+    }
+
+    @Override
+    public void sendRecentHistory(long requestId) {
+        reply(requestId, codec.historyPage(relay.historyAfter(0), relay.getNextHistorySeq()));
+    }
+
+    @Override
+    public void sendVoteHistory(long since, long requestId) {
+        List<HistoryEntry> entries = relay.historyAfter(since);
+        reply(requestId, codec.historyPage(entries, Math.max(since + 1, relay.getNextHistorySeq())));
+    }
+
+    private void reply(long requestId, Frame frame) {
+        send(requestId == ClientHandler.NO_REQUEST ? frame : codec.correlate(requestId, frame));
+    }
+
+    @Override
+    public void onFrame(ByteBuffer frame) {
+        BinaryDecoder.dispatch(frame, this);
+    }
+
+    @Override
+    public void protocolError(String message) {
+        Log.warn("Protocol error from {}: {}", clientName, message);
+        disconnect();
+    }
+
+    public void sendMessage(String message) {
+        send(Frame.line(message));
+    }
+
+    public void send(Frame frame) {
+        if (!connected.get()) {
+            return;
+        }
+        if (outbound.offer(frame)) {
+            connection.outboundReady();
+        } else {
+            relay.getMetrics().slowConsumerDisconnected();
+            Log.warn("Disconnecting slow consumer {} ({} frames queued)", clientName, outbound.depth());
+            disconnect();
+        }
+    }
+
+    @Override
+    public OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    public WireCodec getCodec() {
+        return codec;
+    }
+
+    public int getElectionId() {
+        return electionId;
+    }
+
+    public boolean isHandshakeDone() {
+        return handshakeDone;
+    }
+
+    public boolean isRelay() {
+        return downstreamRelay;
+    }
+
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    @Override
+    public void logout() {
+        disconnect();
+    }
+
+    public void disconnect() {
+        if (!connected.compareAndSet(true, false)) {
+            return;
+        }
+        outbound.close();
+        connection.close();
+        relay.removeClient(this);
+        Log.debug("Client fully disconnected: {}", clientName);
+    }
+}
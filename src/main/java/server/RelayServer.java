@@ -0,0 +1,319 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Read-only fan-out tier: holds one connection to the voting server, or to another relay, and
+ * serves its results to any number of clients of its own, so spectators cost the server
+ * nothing. Clients speak the same protocol as with the server. Votes are forwarded upstream,
+ * batched per tick, and acknowledged once upstream has made them durable.
+ *
+ * The relay keeps a copy of the elections, each election's latest results, encoded once per
+ * update for both protocols, and the latest history page. Results keep the server's versions,
+ * so clients order them the same way whichever relay they came through.
+ *
+ * Started with {@code voting.relay.upstream=host:port}; upstream must be configured with the
+ * same {@code voting.relay.secret}.
+ */
+public class RelayServer implements ConnectionAcceptor {
+    private final ServerConfig config;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final TextCodec textCodec = new TextCodec();
+    private final BinaryCodec binaryCodec = new BinaryCodec();
+    private final AdmissionControl admission;
+    private final RelayUpstream upstream;
+    private final Set<RelayClientHandler> clients = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, Set<RelayClientHandler>> audiences = new ConcurrentHashMap<>(); // by election id
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final ArrayDeque<HistoryEntry> recentHistory = new ArrayDeque<>(); // guarded by itself
+    private long nextHistorySeq = 1; // guarded by recentHistory
+    private volatile String[] electionNames = new String[0];
+    private volatile ElectionState[] elections = new ElectionState[0]; // by election id; replaced, never mutated
+    private ConnectionEngine engine;
+    private volatile boolean running;
+
+    /**
+     * One election as last heard from upstream.
+     */
+    static final class ElectionState {
+        final Election election;
+        volatile long version = -1;
+        volatile Frame textResults;
+        volatile Frame binaryResults;
+
+        ElectionState(Election election) {
+            this.election = election;
+        }
+    }
+
+    public RelayServer(ServerConfig config) {
+        this.config = config;
+        String target = config.getRelayUpstream();
+        int colon = target == null ? -1 : target.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("voting.relay.upstream must be host:port, was " + target);
+        }
+        admission = new AdmissionControl(config, metrics, textCodec, binaryCodec);
+        upstream = new RelayUpstream(this, target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)),
+                config.getRelaySecret(), "relay-" + config.getPort(), config.getMaxBatchSize(),
+                config.getBroadcastTickMillis());
+    }
+
+    public void start() {
+        running = true;
+        metrics.start();
+        upstream.start();
+        try {
+            Log.info("Relay waiting for upstream {}", config.getRelayUpstream());
+            ready.await();
+            engine = ConnectionEngine.create(config);
+            Log.info("Relay started on port {} ({} engine), {} elections", config.getPort(), config.getEngine(),
+                    elections.length);
+            engine.serve(new InetSocketAddress(config.getPort()), this);
+        } catch (IOException e) {
+            if (running) {
+                Log.error("Relay error: {}", e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        if (engine != null) {
+            engine.shutdown();
+        }
+        upstream.shutdown();
+        for (RelayClientHandler client : clients) {
+            client.disconnect();
+        }
+        metrics.shutdown();
+        Log.flush(1000);
+    }
+
+    @Override
+    public RelayClientHandler accept(ClientConnection connection, InetAddress address) {
+        AdmissionControl.Source source = admission.open(address);
+        if (address != null && source == null) {
+            Log.debug("Rejected connection from {}: too many connections", address);
+            return null;
+        }
+        OutboundQueue outbound = new OutboundQueue(config.getOutboundCapacity(), config.getOverflowPolicy());
+        RelayClientHandler client = new RelayClientHandler(connection, this, outbound, address, source);
+        clients.add(client);
+        audience(client.getElectionId()).add(client);
+        metrics.connectionAccepted();
+        return client;
+    }
+
+    private Set<RelayClientHandler> audience(int electionId) {
+        return audiences.computeIfAbsent(electionId, id -> ConcurrentHashMap.newKeySet());
+    }
+
+    void changeElection(RelayClientHandler client, int previous, int next) {
+        if (client.isRelay()) {
+            return; // in every audience already
+        }
+        audience(previous).remove(client);
+        audience(next).add(client);
+    }
+
+    /**
+     * Subscribes a relay further down to the results of every election.
+     */
+    void addRelay(RelayClientHandler relay) {
+        for (int id = 0; id < elections.length; id++) {
+            audience(id).add(relay);
+        }
+    }
+
+    void removeClient(RelayClientHandler client) {
+        if (clients.remove(client)) {
+            admission.close(client.getAddress());
+        }
+        if (client.isRelay()) {
+            audiences.values().forEach(audience -> audience.remove(client));
+        }
+        audience(client.getElectionId()).remove(client);
+    }
+
+    // Called on the upstream link's reader thread, in the order upstream sent them
+
+    void electionsReceived(Map<Integer, String> names) {
+        String[] byId = new String[names.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1) + 1];
+        names.forEach((id, name) -> byId[id] = name);
+        electionNames = byId;
+    }
+
+    /**
+     * Options are resent on every upstream connect and JOIN; clients only hear about a change.
+     */
+    void optionsReceived(int electionId, List<String> options) {
+        ElectionState[] current = elections;
+        if (electionId < current.length && current[electionId].election.getOptions().equals(options)) {
+            return;
+        }
+        String[] names = electionNames;
+        String name = electionId < names.length && names[electionId] != null ? names[electionId] : "Election " + electionId;
+        ElectionState[] updated = Arrays.copyOf(current, Math.max(current.length, electionId + 1));
+        updated[electionId] = new ElectionState(new Election(electionId, name, options));
+        for (int id = 0; id < updated.length; id++) {
+            if (updated[id] == null) {
+                updated[id] = new ElectionState(new Election(id, "Election " + id, List.of()));
+            }
+        }
+        elections = updated;
+        if (electionId < current.length) {
+            Log.info("Election {} changed upstream: {}", electionId, options);
+            announceOptions(updated[electionId]);
+        }
+    }
+
+    void resultsReceived(int electionId, TallySnapshot tallies) {
+        ElectionState[] current = elections;
+        if (electionId >= current.length) {
+            return;
+        }
+        ElectionState state = current[electionId];
+        if (tallies.getVersion() < state.version) {
+            // upstream restarted or failed over and counts versions afresh; so must the clients
+            Log.info("Results versions of election {} restarted upstream", electionId);
+            announceOptions(state);
+        }
+        state.textResults = textCodec.results(state.election, tallies).shared();
+        state.binaryResults = binaryCodec.results(state.election, tallies).shared();
+        state.version = tallies.getVersion();
+        for (RelayClientHandler client : audience(electionId)) {
+            if (client.isHandshakeDone()) {
+                client.send(client.getCodec() == binaryCodec ? state.binaryResults : state.textResults);
+            }
+        }
+    }
+
+    /**
+     * A page arrives on every upstream connect and replaces the relay's copy; appends extend it
+     * and are passed on to every client.
+     */
+    void historyReceived(long firstSeq, List<HistoryEntry> entries, boolean page) {
+        synchronized (recentHistory) {
+            if (page) {
+                recentHistory.clear();
+            }
+            for (HistoryEntry entry : entries) {
+                if (entry.getSeq() >= nextHistorySeq || page) {
+                    recentHistory.addLast(entry);
+                }
+            }
+            while (recentHistory.size() > ClientHandler.HISTORY_PAGE_SIZE) {
+                recentHistory.removeFirst();
+            }
+            nextHistorySeq = page ? firstSeq + entries.size() : Math.max(nextHistorySeq, firstSeq + entries.size());
+        }
+        if (page) {
+            ready.countDown();
+            return;
+        }
+        Frame textFrame = textCodec.historyAppend(entries, firstSeq + entries.size());
+        Frame binaryFrame = binaryCodec.historyAppend(entries, firstSeq + entries.size());
+        for (RelayClientHandler client : clients) {
+            if (client.isHandshakeDone()) {
+                client.send(client.getCodec() == binaryCodec ? binaryFrame : textFrame);
+            }
+        }
+    }
+
+    private void announceOptions(ElectionState state) {
+        for (RelayClientHandler client : audience(state.election.getId())) {
+            if (client.isHandshakeDone()) {
+                client.send(client.getCodec().options(state.election));
+            }
+        }
+    }
+
+    // Called by clients
+
+    /**
+     * The election, or null for an id upstream does not have.
+     */
+    ElectionState election(int electionId) {
+        ElectionState[] current = elections;
+        return electionId >= 0 && electionId < current.length ? current[electionId] : null;
+    }
+
+    List<Election> getElections() {
+        ElectionState[] current = elections;
+        List<Election> list = new ArrayList<>(current.length);
+        for (ElectionState state : current) {
+            list.add(state.election);
+        }
+        return list;
+    }
+
+    /**
+     * Up to a page of the entries after {@code since}, oldest first; the page starts later when
+     * the relay no longer has the entries asked for.
+     */
+    List<HistoryEntry> historyAfter(long since) {
+        synchronized (recentHistory) {
+            List<HistoryEntry> entries = new ArrayList<>(recentHistory.size());
+            for (HistoryEntry entry : recentHistory) {
+                if (entry.getSeq() > since) {
+                    entries.add(entry);
+                }
+            }
+            return entries;
+        }
+    }
+
+    long getNextHistorySeq() {
+        synchronized (recentHistory) {
+            return nextHistorySeq;
+        }
+    }
+
+    RelayUpstream getUpstream() {
+        return upstream;
+    }
+
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    public TextCodec getTextCodec() {
+        return textCodec;
+    }
+
+    public BinaryCodec getBinaryCodec() {
+        return binaryCodec;
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public static void main(String[] args) {
+        RelayServer relay = new RelayServer(ServerConfig.fromSystemProperties());
+        relay.start();
+    }
+}
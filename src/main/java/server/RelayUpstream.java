@@ -0,0 +1,378 @@
+package server;
+
+import common.BinaryProtocol;
+import common.BinaryWriter;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A relay's connection to the server, or to the relay above it. Receives the elections, the
+ * results of every election and the history, and carries the votes of the relay's clients
+ * upstream: votes queue per election and go out once per tick as correlated vote batches, so
+ * thousands of voting clients cost upstream a few requests per tick.
+ *
+ * Reconnects with backoff when the link drops. Votes in flight then fail, since whether
+ * upstream applied them is unknown; clients may retry, and a repeated vote is harmless.
+ */
+class RelayUpstream {
+    static final String UNAVAILABLE = "Upstream unavailable";
+
+    private static final long INITIAL_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 5_000;
+
+    private final RelayServer relay;
+    private final String host;
+    private final int port;
+    private final String secret;
+    private final String name;
+    private final int maxBatchSize;
+    private final long tickMillis;
+    private final Object writeLock = new Object(); // guards out and joined
+    private final Map<Integer, List<VoteRequest>> queued = new HashMap<>(); // by election id, guarded by itself
+    private final Map<Long, List<VoteRequest>> inFlight = new ConcurrentHashMap<>(); // by upstream request id
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "relay-votes");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private OutputStream out;
+    private int joined; // the election upstream applies our batches to
+    private volatile Socket socket;
+    private volatile boolean running;
+
+    /**
+     * Votes from one downstream request, answered together once upstream has replied.
+     */
+    static final class VoteRequest {
+        final RelayClientHandler client;
+        final long requestId;
+        final Election election;
+        final String[] voterIds;
+        final int[] optionIds;
+        final boolean single;
+
+        VoteRequest(RelayClientHandler client, long requestId, Election election, String[] voterIds,
+                    int[] optionIds, boolean single) {
+            this.client = client;
+            this.requestId = requestId;
+            this.election = election;
+            this.voterIds = voterIds;
+            this.optionIds = optionIds;
+            this.single = single;
+        }
+
+        int size() {
+            return voterIds.length;
+        }
+    }
+
+    RelayUpstream(RelayServer relay, String host, int port, String secret, String name, int maxBatchSize,
+                  long tickMillis) {
+        this.relay = relay;
+        this.host = host;
+        this.port = port;
+        this.secret = secret;
+        this.name = name;
+        this.maxBatchSize = maxBatchSize;
+        this.tickMillis = tickMillis;
+    }
+
+    void start() {
+        running = true;
+        Thread reader = new Thread(this::run, "relay-upstream");
+        reader.setDaemon(true);
+        reader.start();
+        ticker.scheduleAtFixedRate(this::flush, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void shutdown() {
+        running = false;
+        ticker.shutdownNow();
+        closeSocket();
+    }
+
+    /**
+     * Queues the votes for the next batch to upstream.
+     */
+    void forward(VoteRequest request) {
+        synchronized (queued) {
+            queued.computeIfAbsent(request.election.getId(), id -> new ArrayList<>()).add(request);
+        }
+    }
+
+    private void run() {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        while (running) {
+            try (Socket connection = new Socket(host, port)) {
+                connection.setTcpNoDelay(true);
+                InputStream in = new BufferedInputStream(connection.getInputStream());
+                synchronized (writeLock) {
+                    socket = connection;
+                    out = connection.getOutputStream();
+                    joined = ElectionRegistry.DEFAULT_ELECTION;
+                    out.write(("RELAY:" + secret + ":" + name + ":" + BinaryProtocol.VERSION + "\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                }
+                String reply = readLine(in);
+                if (!BinaryProtocol.ACCEPT_LINE.equals(reply)) {
+                    throw new IOException("relay refused: " + reply);
+                }
+                Log.info("Relay connected to upstream {}:{}", host, port);
+                backoff = INITIAL_BACKOFF_MILLIS;
+                readFrames(in);
+            } catch (IOException e) {
+                if (running) {
+                    Log.warn("Upstream {} unavailable: {}", host + ":" + port,
+                            e instanceof EOFException ? "connection closed" : e.getMessage());
+                }
+            } finally {
+                synchronized (writeLock) {
+                    out = null;
+                    socket = null;
+                }
+                failInFlight();
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8).trim();
+    }
+
+    private void readFrames(InputStream in) throws IOException {
+        while (running) {
+            long length = BinaryProtocol.readVarLong(in);
+            if (length <= 0 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            byte[] frame = in.readNBytes((int) length);
+            if (frame.length < length) {
+                throw new EOFException();
+            }
+            try {
+                handleFrame(ByteBuffer.wrap(frame));
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed frame from upstream", e);
+            }
+        }
+    }
+
+    private void handleFrame(ByteBuffer frame) {
+        byte type = frame.get();
+        long requestId = ClientHandler.NO_REQUEST;
+        if ((type & BinaryProtocol.CORRELATED) != 0) {
+            requestId = BinaryProtocol.readVarLong(frame);
+            type &= ~BinaryProtocol.CORRELATED;
+        }
+        switch (type) {
+            case BinaryProtocol.ELECTIONS -> {
+                int count = BinaryProtocol.readVarInt(frame);
+                Map<Integer, String> names = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    names.put(BinaryProtocol.readVarInt(frame), BinaryProtocol.readString(frame));
+                }
+                relay.electionsReceived(names);
+            }
+            case BinaryProtocol.OPTIONS -> {
+                int electionId = BinaryProtocol.readVarInt(frame);
+                int count = BinaryProtocol.readVarInt(frame);
+                String[] options = new String[count];
+                for (int i = 0; i < count; i++) {
+                    options[BinaryProtocol.readVarInt(frame)] = BinaryProtocol.readString(frame);
+                }
+                relay.optionsReceived(electionId, List.of(options));
+            }
+            case BinaryProtocol.RESULTS -> {
+                int electionId = BinaryProtocol.readVarInt(frame);
+                int count = BinaryProtocol.readVarInt(frame);
+                long[] tallies = new long[count];
+                for (int i = 0; i < count; i++) {
+                    tallies[BinaryProtocol.readVarInt(frame)] = BinaryProtocol.readVarLong(frame);
+                }
+                long version = frame.hasRemaining() ? BinaryProtocol.readVarLong(frame) : -1;
+                relay.resultsReceived(electionId, new TallySnapshot(version, tallies));
+            }
+            case BinaryProtocol.HISTORY_APPEND, BinaryProtocol.HISTORY_PAGE -> {
+                long firstSeq = BinaryProtocol.readVarLong(frame);
+                int count = BinaryProtocol.readVarInt(frame);
+                List<HistoryEntry> entries = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    entries.add(historyEntry(firstSeq + i, BinaryProtocol.readString(frame)));
+                }
+                relay.historyReceived(firstSeq, entries, type == BinaryProtocol.HISTORY_PAGE);
+            }
+            case BinaryProtocol.BATCH_RESULT -> batchResult(requestId, frame);
+            case BinaryProtocol.ERROR -> {
+                String message = BinaryProtocol.readString(frame);
+                List<VoteRequest> requests = requestId == ClientHandler.NO_REQUEST ? null : inFlight.remove(requestId);
+                if (requests != null) {
+                    fail(requests, message);
+                } else {
+                    Log.warn("Error from upstream: {}", message);
+                }
+            }
+            default -> Log.debug("Ignoring frame type {} from upstream", type);
+        }
+    }
+
+    /**
+     * Entries are sent as text; only votes are logged, so the text is the voter's name.
+     */
+    private static HistoryEntry historyEntry(long seq, String text) {
+        String name = text.endsWith(" voted") ? text.substring(0, text.length() - 6) : text;
+        return new HistoryEntry(seq, 0, name);
+    }
+
+    /**
+     * Splits upstream's outcome of one batch back into the requests it was made of.
+     */
+    private void batchResult(long requestId, ByteBuffer frame) {
+        List<VoteRequest> requests = inFlight.remove(requestId);
+        if (requests == null) {
+            return;
+        }
+        BinaryProtocol.readVarInt(frame); // election id
+        BinaryProtocol.readVarInt(frame); // accepted
+        int rejected = BinaryProtocol.readVarInt(frame);
+        int[] indexes = new int[rejected];
+        String[] reasons = new String[rejected];
+        for (int i = 0; i < rejected; i++) {
+            indexes[i] = BinaryProtocol.readVarInt(frame);
+            reasons[i] = BinaryProtocol.readString(frame);
+        }
+        int next = 0;
+        int offset = 0;
+        for (VoteRequest request : requests) {
+            BatchResult result = new BatchResult(request.size());
+            for (int i = 0; i < request.size(); i++) {
+                if (next < rejected && indexes[next] == offset + i) {
+                    result.reject(i, reasons[next++]);
+                } else {
+                    result.accept();
+                }
+            }
+            offset += request.size();
+            request.client.votesApplied(request, result);
+        }
+    }
+
+    /**
+     * Sends everything queued since the last tick, at most {@code maxBatchSize} votes per batch.
+     */
+    private void flush() {
+        Map<Integer, List<VoteRequest>> pending;
+        synchronized (queued) {
+            if (queued.isEmpty()) {
+                return;
+            }
+            pending = new HashMap<>(queued);
+            queued.clear();
+        }
+        try {
+            pending.forEach((electionId, requests) -> {
+                List<VoteRequest> batch = new ArrayList<>();
+                int votes = 0;
+                for (VoteRequest request : requests) {
+                    if (votes > 0 && votes + request.size() > maxBatchSize) {
+                        send(electionId, batch, votes);
+                        batch = new ArrayList<>();
+                        votes = 0;
+                    }
+                    batch.add(request);
+                    votes += request.size();
+                }
+                send(electionId, batch, votes);
+            });
+        } catch (RuntimeException e) {
+            Log.error("Forwarding votes failed: {}", e.getMessage());
+        }
+    }
+
+    private void send(int electionId, List<VoteRequest> requests, int votes) {
+        long requestId = nextRequestId.incrementAndGet();
+        BinaryWriter batch = new BinaryWriter((byte) (BinaryProtocol.VOTE_BATCH | BinaryProtocol.CORRELATED), 16 + votes * 24)
+                .writeVarLong(requestId)
+                .writeVarLong(votes);
+        for (VoteRequest request : requests) {
+            for (int i = 0; i < request.size(); i++) {
+                batch.writeString(request.voterIds[i]).writeVarLong(request.optionIds[i]);
+            }
+        }
+        inFlight.put(requestId, requests);
+        try {
+            synchronized (writeLock) {
+                if (out == null) {
+                    throw new IOException("not connected");
+                }
+                if (joined != electionId) {
+                    out.write(new BinaryWriter(BinaryProtocol.JOIN).writeVarLong(electionId).toFrame());
+                    joined = electionId;
+                }
+                out.write(batch.toFrame());
+            }
+        } catch (IOException e) {
+            if (inFlight.remove(requestId) != null) {
+                fail(requests, UNAVAILABLE);
+            }
+            closeSocket();
+        }
+    }
+
+    private void failInFlight() {
+        for (Long requestId : List.copyOf(inFlight.keySet())) {
+            List<VoteRequest> requests = inFlight.remove(requestId);
+            if (requests != null) {
+                fail(requests, UNAVAILABLE);
+            }
+        }
+    }
+
+    private static void fail(List<VoteRequest> requests, String reason) {
+        for (VoteRequest request : requests) {
+            request.client.votesFailed(request, reason);
+        }
+    }
+
+    private void closeSocket() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package server;
+
+import java.nio.file.Path;
+
+public class ServerConfig {
+    public static final String ENGINE_VIRTUAL = "virtual";
+    public static final String ENGINE_NIO = "nio";
+
+    private int port = 12345;
+    private String engine = ENGINE_VIRTUAL;
+    private int workerThreads = Runtime.getRuntime().availableProcessors();
+    private long broadcastTickMillis = 50;
+    private int outboundCapacity = 256;
+    private OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.CONFLATE;
+    private Path walDirectory;
+    private long walGroupCommitMillis = 2;
+    private int walMaxBatchRecords = 4096;
+    private long walSnapshotEvery = 100_000;
+    private Path journalFile;
+    private int historyWindow = VoteService.DEFAULT_HISTORY_WINDOW;
+    private Path historySpillFile;
+    private String elections = ElectionRegistry.DEFAULT_SPEC;
+    private int metricsPort;
+    private String clusterNodes;
+    private int clusterNodeId;
+    private long clusterGossipMillis = 50;
+    private long sessionTtlSeconds = 300;
+    private int maxBatchSize = 100_000;
+    private int maxConnections = 100_000;
+    private int maxConnectionsPerAddress; // 0 = unlimited
+    private double clientRequestRate = 500; // requests per second, 0 = unlimited
+    private double clientRequestBurst = 1000;
+    private double addressRequestRate; // 0 = unlimited
+    private double addressRequestBurst;
+    private long addressIdleTtlSeconds = 60; // how long an address's budget outlives its last connection
+    private int historyRequestCost = 5;
+    private int batchRequestCost = 10;
+    private String relayUpstream; // host:port of the server or relay a relay feeds from
+    private String relaySecret; // relays must present it; null = relays are refused
+    private String kioskSecret; // clients sending vote batches must present it; null = only relays may
+
+    public static ServerConfig fromSystemProperties() {
+        ServerConfig config = new ServerConfig();
+        config.setPort(Integer.getInteger("voting.port", config.getPort()));
+        config.setEngine(System.getProperty("voting.engine", config.getEngine()));
+        config.setWorkerThreads(Integer.getInteger("voting.workers", config.getWorkerThreads()));
+        config.setBroadcastTickMillis(Long.getLong("voting.broadcast.tickMs", config.getBroadcastTickMillis()));
+        config.setOutboundCapacity(Integer.getInteger("voting.outbound.capacity", config.getOutboundCapacity()));
+        config.setOverflowPolicy(OutboundQueue.OverflowPolicy.valueOf(
+                System.getProperty("voting.outbound.policy", config.getOverflowPolicy().name()).toUpperCase()));
+        String walDirectory = System.getProperty("voting.wal.dir");
+        if (walDirectory != null) {
+            config.setWalDirectory(Path.of(walDirectory));
+        }
+        config.setWalGroupCommitMillis(Long.getLong("voting.wal.groupCommitMs", config.getWalGroupCommitMillis()));
+        config.setWalMaxBatchRecords(Integer.getInteger("voting.wal.maxBatch", config.getWalMaxBatchRecords()));
+        config.setWalSnapshotEvery(Long.getLong("voting.wal.snapshotEvery", config.getWalSnapshotEvery()));
+        String journalFile = System.getProperty("voting.journal.file");
+        if (journalFile != null) {
+            config.setJournalFile(Path.of(journalFile));
+        }
+        config.setHistoryWindow(Integer.getInteger("voting.history.window", config.getHistoryWindow()));
+        String historySpillFile = System.getProperty("voting.history.spillFile");
+        if (historySpillFile != null) {
+            config.setHistorySpillFile(Path.of(historySpillFile));
+        }
+        config.setElections(System.getProperty("voting.elections", config.getElections()));
+        config.setMetricsPort(Integer.getInteger("voting.metrics.port", config.getMetricsPort()));
+        config.setClusterNodes(System.getProperty("voting.cluster.nodes"));
+        config.setClusterNodeId(Integer.getInteger("voting.cluster.nodeId", config.getClusterNodeId()));
+        config.setClusterGossipMillis(Long.getLong("voting.cluster.gossipMs", config.getClusterGossipMillis()));
+        config.setSessionTtlSeconds(Long.getLong("voting.session.ttlSec", config.getSessionTtlSeconds()));
+        config.setMaxBatchSize(Integer.getInteger("voting.batch.maxSize", config.getMaxBatchSize()));
+        config.setMaxConnections(Integer.getInteger("voting.limit.maxConnections", config.getMaxConnections()));
+        config.setMaxConnectionsPerAddress(Integer.getInteger("voting.limit.maxConnectionsPerIp",
+                config.getMaxConnectionsPerAddress()));
+        config.setClientRequestRate(doubleProperty("voting.limit.clientRate", config.getClientRequestRate()));
+        config.setClientRequestBurst(doubleProperty("voting.limit.clientBurst", config.getClientRequestBurst()));
+        config.setAddressRequestRate(doubleProperty("voting.limit.ipRate", config.getAddressRequestRate()));
+        config.setAddressRequestBurst(doubleProperty("voting.limit.ipBurst", config.getAddressRequestBurst()));
+        config.setAddressIdleTtlSeconds(Long.getLong("voting.limit.ipIdleTtlSec", config.getAddressIdleTtlSeconds()));
+        config.setHistoryRequestCost(Integer.getInteger("voting.limit.historyCost", config.getHistoryRequestCost()));
+        config.setBatchRequestCost(Integer.getInteger("voting.limit.batchCost", config.getBatchRequestCost()));
+        config.setRelayUpstream(System.getProperty("voting.relay.upstream"));
+        config.setRelaySecret(System.getProperty("voting.relay.secret"));
+        config.setKioskSecret(System.getProperty("voting.kiosk.secret"));
+        return config;
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    public int getPort() { return port; }
+    public void setPort(int port) { this.port = port; }
+    public String getEngine() { return engine; }
+    public void setEngine(String engine) { this.engine = engine; }
+    public int getWorkerThreads() { return workerThreads; }
+    public void setWorkerThreads(int workerThreads) { this.workerThreads = workerThreads; }
+    public long getBroadcastTickMillis() { return broadcastTickMillis; }
+    public void setBroadcastTickMillis(long broadcastTickMillis) { this.broadcastTickMillis = broadcastTickMillis; }
+    public int getOutboundCapacity() { return outboundCapacity; }
+    public void setOutboundCapacity(int outboundCapacity) { this.outboundCapacity = outboundCapacity; }
+    public OutboundQueue.OverflowPolicy getOverflowPolicy() { return overflowPolicy; }
+    public void setOverflowPolicy(OutboundQueue.OverflowPolicy overflowPolicy) { this.overflowPolicy = overflowPolicy; }
+    public Path getWalDirectory() { return walDirectory; }
+    public void setWalDirectory(Path walDirectory) { this.walDirectory = walDirectory; }
+    public long getWalGroupCommitMillis() { return walGroupCommitMillis; }
+    public void setWalGroupCommitMillis(long walGroupCommitMillis) { this.walGroupCommitMillis = walGroupCommitMillis; }
+    public int getWalMaxBatchRecords() { return walMaxBatchRecords; }
+    public void setWalMaxBatchRecords(int walMaxBatchRecords) { this.walMaxBatchRecords = walMaxBatchRecords; }
+    public long getWalSnapshotEvery() { return walSnapshotEvery; }
+    public void setWalSnapshotEvery(long walSnapshotEvery) { this.walSnapshotEvery = walSnapshotEvery; }
+    public Path getJournalFile() { return journalFile; }
+    public void setJournalFile(Path journalFile) { this.journalFile = journalFile; }
+    public int getHistoryWindow() { return historyWindow; }
+    public void setHistoryWindow(int historyWindow) { this.historyWindow = historyWindow; }
+    public Path getHistorySpillFile() { return historySpillFile; }
+    public void setHistorySpillFile(Path historySpillFile) { this.historySpillFile = historySpillFile; }
+    public String getElections() { return elections; }
+    public void setElections(String elections) { this.elections = elections; }
+    public int getMetricsPort() { return metricsPort; }
+    public void setMetricsPort(int metricsPort) { this.metricsPort = metricsPort; }
+    public String getClusterNodes() { return clusterNodes; }
+    public void setClusterNodes(String clusterNodes) { this.clusterNodes = clusterNodes; }
+    public int getClusterNodeId() { return clusterNodeId; }
+    public void setClusterNodeId(int clusterNodeId) { this.clusterNodeId = clusterNodeId; }
+    public long getClusterGossipMillis() { return clusterGossipMillis; }
+    public void setClusterGossipMillis(long clusterGossipMillis) { this.clusterGossipMillis = clusterGossipMillis; }
+    public long getSessionTtlSeconds() { return sessionTtlSeconds; }
+    public void setSessionTtlSeconds(long sessionTtlSeconds) { this.sessionTtlSeconds = sessionTtlSeconds; }
+    public int getMaxBatchSize() { return maxBatchSize; }
+    public void setMaxBatchSize(int maxBatchSize) { this.maxBatchSize = maxBatchSize; }
+    public int getMaxConnections() { return maxConnections; }
+    public void setMaxConnections(int maxConnections) { this.maxConnections = maxConnections; }
+    public int getMaxConnectionsPerAddress() { return maxConnectionsPerAddress; }
+    public void setMaxConnectionsPerAddress(int maxConnectionsPerAddress) { this.maxConnectionsPerAddress = maxConnectionsPerAddress; }
+    public double getClientRequestRate() { return clientRequestRate; }
+    public void setClientRequestRate(double clientRequestRate) { this.clientRequestRate = clientRequestRate; }
+    public double getClientRequestBurst() { return clientRequestBurst; }
+    public void setClientRequestBurst(double clientRequestBurst) { this.clientRequestBurst = clientRequestBurst; }
+    public double getAddressRequestRate() { return addressRequestRate; }
+    public void setAddressRequestRate(double addressRequestRate) { this.addressRequestRate = addressRequestRate; }
+    public double getAddressRequestBurst() { return addressRequestBurst; }
+    public void setAddressRequestBurst(double addressRequestBurst) { this.addressRequestBurst = addressRequestBurst; }
+    public long getAddressIdleTtlSeconds() { return addressIdleTtlSeconds; }
+    public void setAddressIdleTtlSeconds(long addressIdleTtlSeconds) { this.addressIdleTtlSeconds = addressIdleTtlSeconds; }
+    public int getHistoryRequestCost() { return historyRequestCost; }
+    public void setHistoryRequestCost(int historyRequestCost) { this.historyRequestCost = historyRequestCost; }
+    public int getBatchRequestCost() { return batchRequestCost; }
+    public void setBatchRequestCost(int batchRequestCost) { this.batchRequestCost = batchRequestCost; }
+    public String getRelayUpstream() { return relayUpstream; }
+    public void setRelayUpstream(String relayUpstream) { this.relayUpstream = relayUpstream; }
+    public String getRelaySecret() { return relaySecret; }
+    public void setRelaySecret(String relaySecret) { this.relaySecret = relaySecret; }
+    public String getKioskSecret() { return kioskSecret; }
+    public void setKioskSecret(String kioskSecret) { this.kioskSecret = kioskSecret; }
+}
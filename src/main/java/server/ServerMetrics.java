@@ -0,0 +1,125 @@
+package server;
+
+import common.LatencyHistogram;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms updated on the hot path. Every update is a LongAdder
+ * increment or a lock-free histogram record; nothing here allocates or blocks.
+ */
+public class ServerMetrics {
+    private final LongAdder votesCast = new LongAdder();
+    private final LongAdder votesRejected = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder slowConsumerDisconnects = new LongAdder();
+    private final LongAdder connectionsRejected = new LongAdder();
+    private final LongAdder acceptPauses = new LongAdder();
+    private final LongAdder requestsThrottled = new LongAdder();
+    private final LatencyHistogram castLatency = new LatencyHistogram();
+    private final LatencyHistogram resultsFanOut = new LatencyHistogram();
+    private final LatencyHistogram historyFanOut = new LatencyHistogram();
+    private final ScheduledExecutorService sampler;
+    private volatile long lastVotes;
+    private volatile double votesPerSecond;
+
+    public ServerMetrics() {
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        sampler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public void shutdown() {
+        sampler.shutdownNow();
+    }
+
+    private void sample() {
+        long votes = votesCast.sum();
+        votesPerSecond = votes - lastVotes;
+        lastVotes = votes;
+    }
+
+    /**
+     * A vote was accepted and made durable, {@code nanos} after it was received.
+     */
+    public void voteCast(long nanos) {
+        votesCast.increment();
+        castLatency.record(nanos);
+    }
+
+    public void voteRejected() {
+        votesRejected.increment();
+    }
+
+    /**
+     * A vote batch was applied and made durable; its entries count as votes cast or rejected.
+     */
+    public void batchApplied(int accepted, int rejected) {
+        batches.increment();
+        votesCast.add(accepted);
+        votesRejected.add(rejected);
+    }
+
+    public void messageReceived() {
+        messagesReceived.increment();
+    }
+
+    public void connectionAccepted() {
+        connectionsAccepted.increment();
+    }
+
+    public void slowConsumerDisconnected() {
+        slowConsumerDisconnects.increment();
+    }
+
+    /**
+     * An address was over its connection cap.
+     */
+    public void connectionRejected() {
+        connectionsRejected.increment();
+    }
+
+    /**
+     * The server was full and stopped accepting until a client left.
+     */
+    public void acceptPaused() {
+        acceptPauses.increment();
+    }
+
+    public void requestThrottled() {
+        requestsThrottled.increment();
+    }
+
+    public void resultsBroadcast(long nanos) {
+        resultsFanOut.record(nanos);
+    }
+
+    public void historyBroadcast(long nanos) {
+        historyFanOut.record(nanos);
+    }
+
+    public long getVotesCast() { return votesCast.sum(); }
+    public long getVotesRejected() { return votesRejected.sum(); }
+    public long getBatches() { return batches.sum(); }
+    public long getMessagesReceived() { return messagesReceived.sum(); }
+    public long getConnectionsAccepted() { return connectionsAccepted.sum(); }
+    public long getSlowConsumerDisconnects() { return slowConsumerDisconnects.sum(); }
+    public long getConnectionsRejected() { return connectionsRejected.sum(); }
+    public long getAcceptPauses() { return acceptPauses.sum(); }
+    public long getRequestsThrottled() { return requestsThrottled.sum(); }
+    public double getVotesPerSecond() { return votesPerSecond; }
+    public LatencyHistogram getCastLatency() { return castLatency; }
+    public LatencyHistogram getResultsFanOut() { return resultsFanOut; }
+    public LatencyHistogram getHistoryFanOut() { return historyFanOut; }
+}
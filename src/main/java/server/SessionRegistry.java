@@ -0,0 +1,128 @@
+package server;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resumable client sessions. Every handshake is issued a random token; a client that reconnects
+ * with it within the time-to-live gets its identity and election back and is only sent what
+ * changed, instead of the full state a new connection receives.
+ *
+ * A session outlives its connection until the client says DISCONNECT or the TTL runs out.
+ */
+public class SessionRegistry {
+    private static final int TOKEN_BYTES = 16;
+
+    private final long ttlMillis;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final LongAdder resumed = new LongAdder();
+    private final ScheduledExecutorService sweeper;
+
+    public static final class Session {
+        private final String token;
+        private final String clientId;
+        private final String clientName;
+        private volatile int electionId;
+        private volatile ClientHandler owner;
+        private volatile long detachedAt; // 0 while a connection owns the session
+
+        Session(String token, String clientId, String clientName, ClientHandler owner) {
+            this.token = token;
+            this.clientId = clientId;
+            this.clientName = clientName;
+            this.owner = owner;
+        }
+
+        public String getToken() { return token; }
+        public String getClientId() { return clientId; }
+        public String getClientName() { return clientName; }
+        public int getElectionId() { return electionId; }
+        void setElectionId(int electionId) { this.electionId = electionId; }
+    }
+
+    public SessionRegistry(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        long period = Math.max(1000, ttlMillis / 4);
+        sweeper.scheduleAtFixedRate(this::expire, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    Session create(String clientId, String clientName, ClientHandler owner) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        Session session = new Session(token, clientId, clientName, owner);
+        sessions.put(token, session);
+        return session;
+    }
+
+    /**
+     * Hands the session to a new connection, or returns null when the token is unknown, expired
+     * or belongs to another client. A connection still holding the session, typically one the
+     * client gave up on before the server noticed, is closed.
+     */
+    Session resume(String token, String clientId, ClientHandler owner) {
+        Session session = sessions.get(token);
+        if (session == null || !session.clientId.equals(clientId) || isExpired(session, System.currentTimeMillis())) {
+            return null;
+        }
+        ClientHandler previous = session.owner;
+        session.owner = owner;
+        session.detachedAt = 0;
+        if (previous != null && previous != owner) {
+            previous.disconnect();
+        }
+        resumed.increment();
+        return session;
+    }
+
+    /**
+     * The connection went away without logging out; the session stays resumable for the TTL.
+     */
+    void detach(Session session, ClientHandler owner) {
+        if (session.owner == owner) {
+            session.owner = null;
+            session.detachedAt = System.currentTimeMillis();
+        }
+    }
+
+    void end(Session session) {
+        sessions.remove(session.token, session);
+    }
+
+    private boolean isExpired(Session session, long now) {
+        long detachedAt = session.detachedAt;
+        return detachedAt != 0 && now - detachedAt > ttlMillis;
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> isExpired(session, now));
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public long getResumedCount() {
+        return resumed.sum();
+    }
+}
@@ -0,0 +1,128 @@
+package server;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The results of each election and the latest history page, encoded once per version for both
+ * protocols and shared by every client that asks. A connect storm or a burst of GET_RESULTS
+ * re-encodes nothing until a vote changes the tally or appends to the history. Vote rates only
+ * change as seconds pass, so they are encoded at most once a second however many clients poll.
+ *
+ * Racing rebuilds of the same version are harmless; the newer version is kept. The history page
+ * is the exception: a reset numbers the history from 1 again, so any other sequence or page size
+ * replaces it, and a racing rebuild that leaves an older page there is redone on the next request.
+ *
+ * Only results are broadcast, so only they are copied off-heap. Rates and history pages mostly
+ * go out as correlated replies, which copy the frame to tag it anyway, and the history page
+ * changes with every vote; a direct buffer per version would cost more than it saves.
+ */
+public class SnapshotCache {
+    private final VoteService voteService;
+    private final VoteRates voteRates;
+    private final TextCodec textCodec;
+    private final BinaryCodec binaryCodec;
+    private final AtomicReferenceArray<Snapshot> results; // by election id
+    private final AtomicReferenceArray<Snapshot> rates;   // by election id, versioned by second
+    private final AtomicReference<HistorySnapshot> recentHistory = new AtomicReference<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static class Snapshot {
+        final long version;
+        final Frame text;
+        final Frame binary;
+
+        Snapshot(long version, Frame text, Frame binary) {
+            this.version = version;
+            this.text = text;
+            this.binary = binary;
+        }
+    }
+
+    private static final class HistorySnapshot extends Snapshot {
+        final int limit;
+
+        HistorySnapshot(long latestSeq, int limit, Frame text, Frame binary) {
+            super(latestSeq, text, binary);
+            this.limit = limit;
+        }
+    }
+
+    public SnapshotCache(VoteService voteService, VoteRates voteRates, TextCodec textCodec, BinaryCodec binaryCodec) {
+        this.voteService = voteService;
+        this.voteRates = voteRates;
+        this.textCodec = textCodec;
+        this.binaryCodec = binaryCodec;
+        this.results = new AtomicReferenceArray<>(voteService.getElections().list().size());
+        this.rates = new AtomicReferenceArray<>(results.length());
+    }
+
+    /**
+     * The election's current results in the codec's encoding.
+     */
+    public Frame results(Election election, WireCodec codec) {
+        TallySnapshot tallies = election.getSnapshot();
+        Snapshot snapshot = results.get(election.getId());
+        if (snapshot == null || snapshot.version != tallies.getVersion()) {
+            misses.increment();
+            Snapshot fresh = new Snapshot(tallies.getVersion(), textCodec.results(election, tallies).shared(),
+                    binaryCodec.results(election, tallies).shared());
+            snapshot = results.accumulateAndGet(election.getId(), fresh, SnapshotCache::newer);
+        } else {
+            hits.increment();
+        }
+        return codec == binaryCodec ? snapshot.binary : snapshot.text;
+    }
+
+    /**
+     * The election's vote rates up to the last completed second.
+     */
+    public Frame rates(Election election, WireCodec codec) {
+        long second = System.currentTimeMillis() / 1000 - 1;
+        Snapshot snapshot = rates.get(election.getId());
+        if (snapshot == null || snapshot.version != second) {
+            misses.increment();
+            VoteRates.Snapshot counts = voteRates.snapshot(election, second);
+            Snapshot fresh = new Snapshot(second, textCodec.rates(election, counts),
+                    binaryCodec.rates(election, counts));
+            snapshot = rates.accumulateAndGet(election.getId(), fresh, SnapshotCache::newer);
+        } else {
+            hits.increment();
+        }
+        return codec == binaryCodec ? snapshot.binary : snapshot.text;
+    }
+
+    /**
+     * The last {@code limit} history entries, as sent to a client that just joined.
+     */
+    public Frame recentHistory(int limit, WireCodec codec) {
+        long latestSeq = voteService.getLatestHistorySeq();
+        HistorySnapshot snapshot = recentHistory.get();
+        if (snapshot == null || snapshot.version != latestSeq || snapshot.limit != limit) {
+            misses.increment();
+            // bounded by latestSeq, so entries appended meanwhile are not in the page and nextSeq matches
+            List<HistoryEntry> entries = voteService.getVoteHistory(latestSeq - limit + 1, limit);
+            snapshot = new HistorySnapshot(latestSeq, limit, textCodec.historyPage(entries, latestSeq + 1),
+                    binaryCodec.historyPage(entries, latestSeq + 1));
+            recentHistory.set(snapshot);
+        } else {
+            hits.increment();
+        }
+        return codec == binaryCodec ? snapshot.binary : snapshot.text;
+    }
+
+    private static Snapshot newer(Snapshot current, Snapshot fresh) {
+        return current != null && current.version > fresh.version ? current : fresh;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,131 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Vote counters for one election, addressed by option id.
+ *
+ * Each option has one counter per stripe and each counter sits on its own cache line, so voters
+ * on different threads rarely contend on the same option. Reads sum the stripes.
+ *
+ * Each stripe also counts the writes begun and finished on it in two more slots, a seqlock that
+ * tolerates concurrent writers. The finished writes are the tally's version, which only grows.
+ * A reader sums the finished counts, then the tallies, then the begun counts: if the two sums
+ * match, no write was under way while the tallies were read, so they are a state that existed.
+ * Writers never wait for readers; a reader that raced a write retries. A change made of several
+ * adds, such as a vote moving between options, is bracketed by {@link #begin()} and
+ * {@link #end()} so readers see all of it or none of it.
+ */
+final class TallyCounters {
+    private static final int PAD = 8; // longs per 64-byte cache line
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    private final int options;
+    private final int begun;    // slot of the writes begun on a stripe
+    private final int finished; // slot of the writes finished on a stripe
+    private final int width;    // slots per stripe
+    private final int stripeMask;
+    private final AtomicLongArray cells;
+    private volatile TallySnapshot published;
+
+    TallyCounters(int options) {
+        this.options = options;
+        this.begun = options;
+        this.finished = options + 1;
+        this.width = options + 2;
+        // smallest power of two >= processors
+        int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+        this.stripeMask = stripes - 1;
+        this.cells = new AtomicLongArray(stripes * width * PAD);
+        this.published = new TallySnapshot(0, new long[options]);
+    }
+
+    /**
+     * Starts a change that readers must see whole. Must be paired with {@link #end()} on the
+     * same thread; the adds in between are only visible to snapshots together.
+     */
+    void begin() {
+        cells.getAndIncrement((stripe() * width + begun) * PAD);
+    }
+
+    void end() {
+        cells.getAndIncrement((stripe() * width + finished) * PAD);
+    }
+
+    void add(int option, long delta) {
+        int base = stripe() * width;
+        cells.getAndIncrement((base + begun) * PAD);
+        cells.getAndAdd((base + option) * PAD, delta);
+        cells.getAndIncrement((base + finished) * PAD);
+    }
+
+    private int stripe() {
+        return (int) Thread.currentThread().threadId() & stripeMask;
+    }
+
+    long get(int option) {
+        return sum(option);
+    }
+
+    long version() {
+        return sum(finished);
+    }
+
+    /**
+     * The tallies as of the latest finished write. Allocates only when the tally changed since
+     * the last snapshot was taken.
+     */
+    TallySnapshot snapshot() {
+        long[] tallies = null;
+        for (int attempt = 1; ; attempt++) {
+            long version = sum(finished);
+            TallySnapshot last = published;
+            if (last.getVersion() == version) {
+                // writes under way now have not finished, so the last snapshot is still current
+                return last;
+            }
+            if (tallies == null) {
+                tallies = new long[options];
+            } else {
+                Arrays.fill(tallies, 0);
+            }
+            for (int stripe = 0; stripe <= stripeMask; stripe++) {
+                int base = stripe * width;
+                for (int option = 0; option < options; option++) {
+                    tallies[option] += cells.get((base + option) * PAD);
+                }
+            }
+            if (sum(begun) == version) {
+                TallySnapshot fresh = new TallySnapshot(version, tallies);
+                if (published.getVersion() < version) {
+                    published = fresh; // a racing reader may overwrite it with an older one, which only costs a rebuild
+                }
+                return fresh;
+            }
+            if (attempt % SPINS_BEFORE_YIELD == 0) {
+                Thread.yield();
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private long sum(int slot) {
+        long sum = 0;
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            sum += cells.get((stripe * width + slot) * PAD);
+        }
+        return sum;
+    }
+
+    void reset() {
+        begin();
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            for (int option = 0; option < options; option++) {
+                cells.set((stripe * width + option) * PAD, 0);
+            }
+        }
+        end();
+    }
+}
@@ -0,0 +1,38 @@
+package server;
+
+/**
+ * The votes per option of one election at one version, as they stood together at some instant:
+ * a vote moving between options is either wholly in it or not at all. Immutable, so it is
+ * shared by every reader until the tally changes.
+ */
+public final class TallySnapshot {
+    private final long version;
+    private final long[] tallies;
+
+    TallySnapshot(long version, long[] tallies) {
+        this.version = version;
+        this.tallies = tallies;
+    }
+
+    /**
+     * Grows with every change to the tally; a higher version is a later tally.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getOptionCount() {
+        return tallies.length;
+    }
+
+    public long get(int option) {
+        return tallies[option];
+    }
+
+    /**
+     * Votes per option id, as a copy.
+     */
+    public long[] toArray() {
+        return tallies.clone();
+    }
+}
@@ -0,0 +1,65 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class TextCodec implements WireCodec {
+    @Override
+    public Frame elections(List<Election> elections) {
+        return Frame.line(TextProtocol.elections(elections));
+    }
+
+    @Override
+    public Frame options(Election election) {
+        return Frame.line(TextProtocol.options(election));
+    }
+
+    @Override
+    public Frame results(Election election, TallySnapshot tallies) {
+        return Frame.snapshot("RESULTS:" + election.getId(), TextProtocol.results(election, tallies));
+    }
+
+    @Override
+    public Frame rates(Election election, VoteRates.Snapshot rates) {
+        return Frame.line(TextProtocol.rates(election, rates));
+    }
+
+    @Override
+    public Frame historyAppend(List<HistoryEntry> entries, long nextSeq) {
+        return Frame.line(TextProtocol.historyAppend(entries, nextSeq));
+    }
+
+    @Override
+    public Frame historyPage(List<HistoryEntry> entries, long nextSeq) {
+        return Frame.line(TextProtocol.historyPage(entries, nextSeq));
+    }
+
+    @Override
+    public Frame voteAccepted(Election election, int optionId) {
+        return Frame.line("VOTE_ACCEPTED:" + election.optionName(optionId));
+    }
+
+    @Override
+    public Frame batchResult(Election election, BatchResult result) {
+        return Frame.line(TextProtocol.batchResult(result));
+    }
+
+    @Override
+    public Frame error(String message) {
+        return Frame.line("ERROR: " + message);
+    }
+
+    @Override
+    public Frame correlate(long requestId, Frame reply) {
+        byte[] tag = ("@" + requestId + " ").getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer line = reply.buffer();
+        ByteBuffer tagged = ByteBuffer.allocate(tag.length + line.remaining()).put(tag).put(line);
+        return Frame.binary(null, tagged.flip());
+    }
+
+    @Override
+    public Frame session(String token, boolean resumed) {
+        return Frame.line((resumed ? "RESUMED:" : "SESSION:") + token);
+    }
+}
@@ -0,0 +1,108 @@
+package server;
+
+import java.util.List;
+
+/**
+ * Builds the text lines sent to clients.
+ */
+public final class TextProtocol {
+    private TextProtocol() {
+    }
+
+    /**
+     * ELECTIONS:&lt;id&gt;=&lt;name&gt;;&lt;id&gt;=&lt;name&gt;;...
+     */
+    public static String elections(List<Election> elections) {
+        StringBuilder electionsMessage = new StringBuilder("ELECTIONS:");
+        elections.forEach(election ->
+                electionsMessage.append(election.getId()).append("=").append(election.getName()).append(";")
+        );
+        return electionsMessage.toString();
+    }
+
+    /**
+     * BATCH_RESULT:&lt;accepted&gt;|&lt;index&gt;=&lt;reason&gt;;... listing only the rejected entries.
+     */
+    public static String batchResult(BatchResult result) {
+        StringBuilder message = new StringBuilder("BATCH_RESULT:").append(result.getAccepted()).append("|");
+        for (int i = 0; i < result.getRejectedCount(); i++) {
+            message.append(result.getRejectedIndex(i)).append("=").append(result.getRejectReason(i)).append(";");
+        }
+        return message.toString();
+    }
+
+    /**
+     * OPTIONS:&lt;election id&gt;|option|option|... in option id order. Sent on connect and in reply
+     * to JOIN; the RESULTS that follow are for this election.
+     */
+    public static String options(Election election) {
+        StringBuilder optionsMessage = new StringBuilder("OPTIONS:").append(election.getId()).append("|");
+        election.getOptions().forEach(option -> optionsMessage.append(option).append("|"));
+        return optionsMessage.toString();
+    }
+
+    /**
+     * RESULTS:#&lt;version&gt;;option:count;option:count;... The version orders snapshots of one
+     * election; clients that predate it skip the entry, as it has no count.
+     */
+    public static String results(Election election, TallySnapshot tallies) {
+        StringBuilder resultMessage = new StringBuilder("RESULTS:#").append(tallies.getVersion()).append(";");
+        for (int i = 0; i < tallies.getOptionCount(); i++) {
+            resultMessage.append(election.optionName(i)).append(":").append(tallies.get(i)).append(";");
+        }
+        return resultMessage.toString();
+    }
+
+    /**
+     * RATES:&lt;election id&gt;|&lt;newest second&gt;|seconds=count,count,...;...|count,count,...;...
+     * with the votes per option, in option id order, in each window, then in each second of the
+     * trend series, oldest first.
+     */
+    public static String rates(Election election, VoteRates.Snapshot rates) {
+        StringBuilder ratesMessage = new StringBuilder("RATES:").append(election.getId())
+                .append("|").append(rates.getSecond()).append("|");
+        long[][] windows = rates.getWindows();
+        for (int i = 0; i < windows.length; i++) {
+            ratesMessage.append(VoteRates.WINDOW_SECONDS[i]).append("=");
+            appendCounts(ratesMessage, windows[i]);
+        }
+        ratesMessage.append("|");
+        for (long[] second : rates.getSeries()) {
+            appendCounts(ratesMessage, second);
+        }
+        return ratesMessage.toString();
+    }
+
+    private static void appendCounts(StringBuilder message, long[] counts) {
+        for (int i = 0; i < counts.length; i++) {
+            message.append(i == 0 ? "" : ",").append(counts[i]);
+        }
+        message.append(";");
+    }
+
+    /**
+     * HISTORY_APPEND:&lt;seq of first entry&gt;|entry|entry|... where entries carry consecutive
+     * sequence numbers. Appends are broadcast deltas; a client that sees a gap asks for a page.
+     */
+    public static String historyAppend(List<HistoryEntry> entries, long nextSeq) {
+        return history("HISTORY_APPEND:", entries, nextSeq);
+    }
+
+    /**
+     * Same layout as an append, sent in reply to a history request. The first sequence number may
+     * be past what the client asked for when older entries are no longer retained.
+     * An empty page carries the next sequence number to be assigned.
+     */
+    public static String historyPage(List<HistoryEntry> entries, long nextSeq) {
+        return history("HISTORY_PAGE:", entries, nextSeq);
+    }
+
+    private static String history(String prefix, List<HistoryEntry> entries, long nextSeq) {
+        long firstSeq = entries.isEmpty() ? nextSeq : entries.get(0).getSeq();
+        StringBuilder historyMessage = new StringBuilder(prefix).append(firstSeq).append("|");
+        entries.forEach(entry ->
+                historyMessage.append(entry.getText()).append("|")
+        );
+        return historyMessage.toString();
+    }
+}
@@ -0,0 +1,35 @@
+package server;
+
+/**
+ * Classic token bucket: holds up to {@code burst} tokens and refills at {@code ratePerSecond}.
+ * Refills lazily on each request, so an idle bucket costs nothing.
+ */
+final class TokenBucket {
+    private final double tokensPerNano;
+    private final double burst;
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(double ratePerSecond, double burst) {
+        this.tokensPerNano = ratePerSecond / 1e9;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Takes {@code cost} tokens if there are enough. A cost above the burst only needs a full
+     * bucket, so expensive requests stay possible, just rarely.
+     */
+    synchronized boolean tryTake(int cost) {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+        double needed = Math.min(cost, burst);
+        if (tokens < needed) {
+            return false;
+        }
+        tokens -= needed;
+        return true;
+    }
+}
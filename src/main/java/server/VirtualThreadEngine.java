@@ -0,0 +1,138 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Blocking I/O with one virtual thread per connection. Idle clients cost a parked
+ * continuation instead of a platform thread stack.
+ *
+ * While the server is at its connection cap the accept loop waits for a client to leave,
+ * leaving new connections in the listen backlog.
+ */
+public class VirtualThreadEngine implements ConnectionEngine {
+    private volatile ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    @Override
+    public void serve(InetSocketAddress address, ConnectionAcceptor acceptor) throws IOException {
+        running = true;
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            serverChannel = channel;
+            channel.bind(address, 1024);
+            AdmissionControl admission = acceptor.getAdmission();
+            while (running) {
+                try {
+                    if (!admission.hasCapacity()) {
+                        acceptor.getMetrics().acceptPaused();
+                        Log.debug("Connection limit reached ({} clients), pausing accept", admission.getConnectionCount());
+                        while (running && !admission.awaitCapacity(100)) {
+                            // recheck running so shutdown is not held up by a full server
+                        }
+                        continue;
+                    }
+                    SocketChannel socket = channel.accept();
+                    socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    SocketConnection connection = new SocketConnection(socket);
+                    connection.handler = acceptor.accept(connection,
+                            ((InetSocketAddress) socket.getRemoteAddress()).getAddress());
+                    if (connection.handler == null) {
+                        socket.write(admission.connectionRejection());
+                        connection.close();
+                        continue;
+                    }
+                    Thread.ofVirtual().start(connection::readLoop);
+                    Thread.ofVirtual().start(connection::writeLoop);
+                } catch (IOException e) {
+                    if (running) {
+                        Log.warn("Error accepting client connection: {}", e.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException e) {
+            Log.warn("Error closing server channel: {}", e.getMessage());
+        }
+    }
+
+    private static class SocketConnection implements ClientConnection {
+        private final SocketChannel socket;
+        private ConnectionHandler handler;
+
+        SocketConnection(SocketChannel socket) {
+            this.socket = socket;
+        }
+
+        void readLoop() {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            try {
+                while (socket.read(buffer) >= 0) {
+                    buffer.flip();
+                    handler.onBytes(buffer);
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                handler.onError(e);
+            } finally {
+                handler.onClose();
+            }
+        }
+
+        /**
+         * Each connection has its own writer, so a stalled client only blocks itself.
+         */
+        void writeLoop() {
+            OutboundQueue outbound = handler.getOutbound();
+            try {
+                Frame frame;
+                while ((frame = outbound.take()) != null) {
+                    ByteBuffer bytes = frame.buffer();
+                    while (bytes.hasRemaining()) {
+                        socket.write(bytes);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void outboundReady() {
+            // the writer thread is already waiting on the queue
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.debug("Error closing client connection: {}", e.getMessage());
+            }
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            try {
+                return String.valueOf(socket.getRemoteAddress());
+            } catch (IOException e) {
+                return "unknown";
+            }
+        }
+    }
+}
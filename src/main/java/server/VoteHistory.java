@@ -0,0 +1,331 @@
+package server;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded vote history. The most recent {@code window} entries live in a ring of columns
+ * (timestamp, voter name); entries are materialised only when read. Names are the strings the
+ * votes came with, so a name is no longer held once its last entry leaves the window.
+ *
+ * Appends take no lock: a vote takes the next sequence number from a counter, claims its slot
+ * and publishes it through the slot's stamp (the sequence number, negated while being written),
+ * which readers check before and after reading the slot. Entries become readable in sequence
+ * order, up to the first one still being written. A writer only waits when the ring has wrapped
+ * round to an entry that is still being written, or not yet spilled.
+ *
+ * With a spill file, a background thread copies published entries to it as fixed 20-byte
+ * records (timestamp, offset and length of the name) and their names to
+ * {@code <spill file>.names}, so entries that fall out of the window stay readable by sequence
+ * number. Should the thread fall a whole window behind, a vote about to overwrite an unspilled
+ * entry spills first. Both files are scratch space for the running process and are truncated
+ * on start.
+ */
+public class VoteHistory {
+    private static final int SPILL_RECORD_SIZE = 20;
+    private static final int SPILL_BATCH = 1024; // a power of two
+    private static final long SPILL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long[] timestamps;
+    private final String[] names;
+    private final AtomicLongArray stamps; // seq of the entry in a slot, -seq while it is written, 0 for none
+    private final AtomicLong nextSeq = new AtomicLong(1);
+    private final AtomicLong published = new AtomicLong(0); // every entry up to this one is written
+    private volatile long firstSeq = 1; // oldest entry since the last clear or restore
+
+    private final FileChannel spill;
+    private final FileChannel spillNames;
+    private final Object spillLock = new Object();
+    private final Thread spiller;
+    private ByteBuffer spillBuffer;     // guarded by spillLock
+    private ByteBuffer spillNameBuffer; // guarded by spillLock
+    private long spillNamesSize;        // bytes written to spillNames, guarded by spillLock
+    private volatile long spilledUpTo;  // entries up to this seq are on disk
+    private volatile long oldestSpilled = 1; // oldest entry readable from disk
+    private volatile boolean spilling;
+
+    public VoteHistory(int window) {
+        this.timestamps = new long[window];
+        this.names = new String[window];
+        this.stamps = new AtomicLongArray(window);
+        this.spill = null;
+        this.spillNames = null;
+        this.spiller = null;
+    }
+
+    public VoteHistory(int window, Path spillFile) throws IOException {
+        this.timestamps = new long[window];
+        this.names = new String[window];
+        this.stamps = new AtomicLongArray(window);
+        this.spill = FileChannel.open(spillFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.spillNames = FileChannel.open(spillFile.resolveSibling(spillFile.getFileName() + ".names"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.spillBuffer = ByteBuffer.allocate(SPILL_BATCH * SPILL_RECORD_SIZE);
+        this.spillNameBuffer = ByteBuffer.allocate(SPILL_BATCH * 16);
+        this.spilling = true;
+        this.spiller = new Thread(this::spillLoop, "history-spill");
+        spiller.setDaemon(true);
+        spiller.start();
+    }
+
+    public long append(long timestamp, String clientName) {
+        long seq = nextSeq.getAndIncrement();
+        int slot = slot(seq);
+        long previous = seq - timestamps.length < firstSeq ? 0 : seq - timestamps.length;
+        while (true) {
+            if (stamps.get(slot) != previous) {
+                Thread.yield(); // the entry a ring behind is not written yet
+            } else if (spill != null && previous > spilledUpTo) {
+                // the spill thread is a whole window behind; spill before overwriting
+                synchronized (spillLock) {
+                    spillPublished();
+                }
+                if (previous > spilledUpTo) {
+                    Thread.yield(); // an entry before it is not written yet
+                }
+            } else if (stamps.compareAndSet(slot, previous, -seq)) {
+                break;
+            }
+        }
+        timestamps[slot] = timestamp;
+        names[slot] = clientName;
+        stamps.set(slot, seq);
+        advancePublished();
+        if (spill != null && (seq & (SPILL_BATCH - 1)) == 0) {
+            LockSupport.unpark(spiller);
+        }
+        return seq;
+    }
+
+    /**
+     * Moves the published mark over every written entry. A writer publishes its own slot before
+     * calling this, so of two writers finishing together at least one sees the other's entry.
+     */
+    private void advancePublished() {
+        long upTo = published.get();
+        while (stamps.get(slot(upTo + 1)) == upTo + 1) {
+            if (published.compareAndSet(upTo, upTo + 1)) {
+                upTo++;
+            } else {
+                upTo = published.get();
+            }
+        }
+    }
+
+    /**
+     * The entry if it is still in the ring, read without locking: the stamp is checked again
+     * after the read, in case a writer reused the slot meanwhile.
+     */
+    private HistoryEntry readRing(long seq) {
+        int slot = slot(seq);
+        if (stamps.get(slot) != seq) {
+            return null;
+        }
+        long timestamp = timestamps[slot];
+        String name = names[slot];
+        VarHandle.acquireFence();
+        return stamps.get(slot) == seq ? new HistoryEntry(seq, timestamp, name) : null;
+    }
+
+    private void spillLoop() {
+        while (spilling) {
+            LockSupport.parkNanos(this, SPILL_INTERVAL_NANOS);
+            synchronized (spillLock) {
+                if (spilling) {
+                    spillPublished();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the published entries not yet on disk. Called holding spillLock.
+     */
+    private void spillPublished() {
+        long upTo = published.get();
+        while (spilledUpTo < upTo) {
+            long from = spilledUpTo + 1;
+            long to = Math.min(upTo, from + SPILL_BATCH - 1);
+            spillBuffer.clear();
+            spillNameBuffer.clear();
+            for (long seq = from; seq <= to; seq++) {
+                HistoryEntry entry = readRing(seq); // published and not yet overwritten
+                byte[] name = entry.getClientName().getBytes(StandardCharsets.UTF_8);
+                if (spillNameBuffer.remaining() < name.length) {
+                    spillNameBuffer = ByteBuffer.allocate(Math.max(spillNameBuffer.capacity() * 2,
+                            spillNameBuffer.position() + name.length)).put(spillNameBuffer.flip());
+                }
+                spillBuffer.putLong(entry.getTimestamp()).putLong(spillNamesSize + spillNameBuffer.position())
+                        .putInt(name.length);
+                spillNameBuffer.put(name);
+            }
+            spillBuffer.flip();
+            spillNameBuffer.flip();
+            long nameBytes = spillNameBuffer.remaining();
+            try {
+                // names first, so a record on disk never points past them
+                long namePosition = spillNamesSize;
+                while (spillNameBuffer.hasRemaining()) {
+                    namePosition += spillNames.write(spillNameBuffer, namePosition);
+                }
+                long position = (from - firstSeq) * SPILL_RECORD_SIZE;
+                while (spillBuffer.hasRemaining()) {
+                    position += spill.write(spillBuffer, position);
+                }
+            } catch (IOException e) {
+                // keep the history bounded even if the disk fails: the unwritten entries are simply lost
+                Log.error("History spill failed: {}", e.getMessage());
+                oldestSpilled = to + 1;
+            }
+            spillNamesSize += nameBytes;
+            spilledUpTo = to;
+        }
+    }
+
+    /**
+     * Up to {@code limit} entries starting at {@code fromSeq} (inclusive), oldest first. Sequence
+     * numbers that are no longer retained are skipped.
+     */
+    public List<HistoryEntry> read(long fromSeq, int limit) {
+        long from = Math.max(fromSeq, getOldestSeq());
+        long to = Math.min(published.get() + 1, from + Math.max(0, limit));
+        List<HistoryEntry> entries = new ArrayList<>((int) Math.max(0, to - from));
+        for (long seq = from; seq < to; seq++) {
+            HistoryEntry entry = readRing(seq);
+            if (entry == null && seq <= spilledUpTo && seq >= oldestSpilled) {
+                entry = readSpilled(seq);
+            }
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private HistoryEntry readSpilled(long seq) {
+        try {
+            ByteBuffer record = readFully(spill, (seq - firstSeq) * SPILL_RECORD_SIZE, SPILL_RECORD_SIZE);
+            if (record.limit() < SPILL_RECORD_SIZE) {
+                return null;
+            }
+            ByteBuffer name = readFully(spillNames, record.getLong(8), record.getInt(16));
+            return new HistoryEntry(seq, record.getLong(0),
+                    new String(name.array(), 0, name.limit(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.error("History spill read failed: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining() && channel.read(bytes, position + bytes.position()) > 0) {
+            // keep reading until complete
+        }
+        return bytes.flip();
+    }
+
+    private long getOldestSeq() {
+        if (spill != null) {
+            return Math.max(firstSeq, oldestSpilled);
+        }
+        return Math.max(firstSeq, published.get() - timestamps.length + 1);
+    }
+
+    /**
+     * The latest readable entry; every retained entry before it is readable too.
+     */
+    public long getLatestSeq() {
+        return published.get();
+    }
+
+    /**
+     * Entries still readable, in memory or spilled.
+     */
+    public long getRetainedCount() {
+        return published.get() + 1 - getOldestSeq();
+    }
+
+    /**
+     * Entries held in the in-memory ring.
+     */
+    public int getInMemoryCount() {
+        return (int) Math.min(timestamps.length, published.get() + 1 - firstSeq);
+    }
+
+    /**
+     * Replaces the history with recovered entries, renumbered consecutively from the first one.
+     * Like {@link #clear()}, only while no votes are appended.
+     */
+    public void restore(List<HistoryEntry> entries) {
+        synchronized (spillLock) {
+            reset(entries.isEmpty() ? 1 : entries.get(0).getSeq());
+        }
+        for (HistoryEntry entry : entries) {
+            append(entry.getTimestamp(), entry.getClientName());
+        }
+    }
+
+    /**
+     * Forgets every entry and numbers from 1 again. Only while no votes are appended.
+     */
+    public void clear() {
+        synchronized (spillLock) {
+            reset(1);
+        }
+    }
+
+    private void reset(long seq) {
+        for (int slot = 0; slot < stamps.length(); slot++) {
+            stamps.set(slot, 0);
+        }
+        Arrays.fill(names, null);
+        firstSeq = seq;
+        nextSeq.set(seq);
+        published.set(seq - 1);
+        spilledUpTo = seq - 1;
+        oldestSpilled = seq;
+        if (spill != null) {
+            spillNamesSize = 0;
+            try {
+                spill.truncate(0);
+                spillNames.truncate(0);
+            } catch (IOException e) {
+                Log.error("Cannot truncate history spill file: {}", e.getMessage());
+            }
+        }
+    }
+
+    public void close() {
+        if (spill != null) {
+            synchronized (spillLock) {
+                spilling = false;
+            }
+            LockSupport.unpark(spiller);
+            try {
+                spill.close();
+                spillNames.close();
+            } catch (IOException e) {
+                Log.error("Error closing history spill file: {}", e.getMessage());
+            }
+        }
+    }
+
+    private int slot(long seq) {
+        return (int) ((seq - 1) % timestamps.length);
+    }
+}
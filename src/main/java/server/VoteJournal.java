@@ -0,0 +1,186 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binary audit journal of votes with fixed-width records, written through memory-mapped chunks.
+ *
+ * Record layout ({@link #RECORD_SIZE} bytes, big-endian):
+ * timestamp millis (long), voter index (int), election id (int), option id (int),
+ * previous option id in that election (int, -1 if none).
+ *
+ * Voter ids are interned to dense indexes; the dictionary is kept next to the journal in
+ * {@code <journal>.dict}, each id as an int length and UTF-8 bytes, in index order, so an id
+ * may contain any character. Read it back with {@link JournalScanner}. The journal finds a
+ * voter's index through its {@link VoterRegistry} id rather than a map of its own.
+ */
+public class VoteJournal implements VoteListener {
+    public static final int RECORD_SIZE = 24;
+    static final long CHUNK_SIZE = RECORD_SIZE * (64L * 1024 * 1024 / RECORD_SIZE);
+
+    private final FileChannel channel;
+    private final Object mapLock = new Object();
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    private final AtomicLong nextRecord;
+    private final DataOutputStream voterDictionary;
+    private volatile int[] voterIndexes = new int[1024]; // index + 1 by VoterRegistry id, 0 for none yet
+    private int dictionarySize; // guarded by voterDictionary
+
+    private VoteJournal(FileChannel channel, long recordCount, Path dictionary, List<String> knownVoters,
+                        VoterRegistry voters) throws IOException {
+        this.channel = channel;
+        this.nextRecord = new AtomicLong(recordCount);
+        boolean migrate = !Files.exists(dictionary) && !knownVoters.isEmpty();
+        long complete = 0;
+        for (String clientId : knownVoters) {
+            complete += 4 + clientId.getBytes(StandardCharsets.UTF_8).length;
+        }
+        if (!migrate && Files.exists(dictionary) && Files.size(dictionary) > complete) {
+            // drop an entry cut short by a crash, or the next one would be appended to it
+            try (FileChannel truncated = FileChannel.open(dictionary, StandardOpenOption.WRITE)) {
+                truncated.truncate(complete);
+            }
+        }
+        this.voterDictionary = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dictionary,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        for (String clientId : knownVoters) {
+            // recovered voters do not wait for a warm restart's background load, which takes them as they are
+            int voter = voters.internRecovered(clientId);
+            int[] indexes = ensureCapacity(voter);
+            if (indexes[voter] == 0) {
+                indexes[voter] = dictionarySize + 1;
+            }
+            dictionarySize++;
+            if (migrate) {
+                writeVoter(clientId);
+            }
+        }
+        voterDictionary.flush();
+    }
+
+    /**
+     * Opens or creates a journal and positions it after the last complete record. Voters
+     * already in its dictionary are interned in {@code voters}.
+     */
+    public static VoteJournal open(Path path, VoterRegistry voters) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long recordCount = JournalScanner.countRecords(channel);
+        return new VoteJournal(channel, recordCount, dictionaryPath(path), JournalScanner.readVoters(path), voters);
+    }
+
+    static Path dictionaryPath(Path journal) {
+        return journal.resolveSibling(journal.getFileName() + ".dict");
+    }
+
+    /**
+     * The newline-separated dictionary of earlier journals, migrated on open.
+     */
+    static Path legacyDictionaryPath(Path journal) {
+        return journal.resolveSibling(journal.getFileName() + ".voters");
+    }
+
+    @Override
+    public void onVote(long timestamp, int electionId, int voter, String clientId, String clientName, int optionId,
+                       int previousOptionId, long historySeq) {
+        int index = voterIndex(voter, clientId);
+
+        long record = nextRecord.getAndIncrement();
+        MappedByteBuffer chunk = chunkFor(record);
+        int offset = (int) (record * RECORD_SIZE % CHUNK_SIZE);
+        chunk.putInt(offset + 8, index);
+        chunk.putInt(offset + 12, electionId);
+        chunk.putInt(offset + 16, optionId);
+        chunk.putInt(offset + 20, previousOptionId);
+        // written last: a zero timestamp marks the end of the journal
+        chunk.putLong(offset, timestamp);
+    }
+
+    private int voterIndex(int voter, String clientId) {
+        int[] indexes = voterIndexes;
+        if (voter < indexes.length && indexes[voter] != 0) {
+            return indexes[voter] - 1;
+        }
+        synchronized (voterDictionary) {
+            indexes = ensureCapacity(voter);
+            if (indexes[voter] == 0) {
+                try {
+                    writeVoter(clientId);
+                    voterDictionary.flush();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Cannot write voter dictionary", e);
+                }
+                indexes[voter] = ++dictionarySize;
+            }
+            return indexes[voter] - 1;
+        }
+    }
+
+    private void writeVoter(String clientId) throws IOException {
+        byte[] bytes = clientId.getBytes(StandardCharsets.UTF_8);
+        voterDictionary.writeInt(bytes.length);
+        voterDictionary.write(bytes);
+    }
+
+    /**
+     * Called holding the dictionary lock (or from the constructor).
+     */
+    private int[] ensureCapacity(int voter) {
+        int[] indexes = voterIndexes;
+        if (voter >= indexes.length) {
+            indexes = Arrays.copyOf(indexes, Math.max(voter + 1, indexes.length * 2));
+            voterIndexes = indexes;
+        }
+        return indexes;
+    }
+
+    private MappedByteBuffer chunkFor(long record) {
+        int chunkIndex = (int) (record * RECORD_SIZE / CHUNK_SIZE);
+        MappedByteBuffer[] mapped = chunks;
+        if (chunkIndex < mapped.length) {
+            return mapped[chunkIndex];
+        }
+        synchronized (mapLock) {
+            mapped = chunks;
+            if (chunkIndex >= mapped.length) {
+                mapped = Arrays.copyOf(mapped, chunkIndex + 1);
+                for (int i = chunks.length; i <= chunkIndex; i++) {
+                    try {
+                        mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * CHUNK_SIZE, CHUNK_SIZE);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Cannot map vote journal", e);
+                    }
+                }
+                chunks = mapped;
+            }
+            return mapped[chunkIndex];
+        }
+    }
+
+    public long getRecordCount() {
+        return nextRecord.get();
+    }
+
+    public void close() {
+        try {
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+            voterDictionary.close();
+            channel.close();
+        } catch (IOException e) {
+            Log.error("Error closing vote journal: {}", e.getMessage());
+        }
+    }
+}
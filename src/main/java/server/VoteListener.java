@@ -0,0 +1,12 @@
+package server;
+
+/**
+ * Observes accepted votes. Called on the voter's thread while that voter's entry is locked,
+ * so calls for one voter in one election arrive in the order the votes were applied.
+ * Implementations must not block. Option ids index the election's option list; -1 means none.
+ * {@code voter} is the clientId's id in the service's {@link VoterRegistry}.
+ */
+public interface VoteListener {
+    void onVote(long timestamp, int electionId, int voter, String clientId, String clientName, int optionId,
+                int previousOptionId, long historySeq);
+}
@@ -0,0 +1,567 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of accepted votes with group commit.
+ *
+ * Voter threads only enqueue encoded records. A single writer thread waits for the batch
+ * window, writes everything queued with one FileChannel write and one force(), then completes
+ * the sync() futures that were queued behind those records.
+ *
+ * Every {@code snapshotEvery} records the writer rolls to a new segment and writes a compact
+ * snapshot of the tallies, the in-memory history window, the voters and each election's choices.
+ * Recovery loads the snapshot and replays the segments after it. Records are "voter now votes X"
+ * assignments, so replaying one already contained in the snapshot is harmless. A clean
+ * {@link #close()} folds the whole log into the snapshot, so a planned restart replays nothing.
+ *
+ * The snapshot is read through a memory mapping, tallies and history first. With no log to
+ * replay, open() returns right after them and the voters load in the background: results are
+ * right from the first connection, and only interning a voter waits for the load to finish.
+ * <pre>
+ * magic, replayFromSegment
+ * elections, (electionId, options, width, tally*)*     tallies as counted from the choices below
+ * entries, (seq, timestamp, clientName)*              history, oldest first
+ * voters, (clientId)*                                 clientIds by VoterRegistry id
+ * (choice*)* per election                             option id + 1 per voter, 0 for none, in width bytes
+ * </pre>
+ * Strings are an int length and UTF-8 bytes, numbers big-endian.
+ */
+public class VoteLog implements VoteListener {
+    private static final int SNAPSHOT_MAGIC = 0x564f5434; // "VOT4"
+    private static final int LEGACY_SNAPSHOT_MAGIC = 0x564f5433; // "VOT3", voter maps by clientId
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final int MAX_BYTE_OPTIONS = 254;
+
+    private final Path directory;
+    private final long groupCommitMillis;
+    private final int maxBatchRecords;
+    private final long snapshotEvery;
+    private final int historyWindow;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final CRC32 crc = new CRC32(); // writer thread only
+    private FileChannel channel;
+    private long segment;
+    private long recordsSinceSnapshot;
+    private VoteService voteService;
+    private Thread writer;
+    private VoterLoader pendingVoters; // left by readSnapshot for open()
+    private Thread recovery;
+    private volatile boolean running;
+
+    public VoteLog(Path directory, long groupCommitMillis, int maxBatchRecords, long snapshotEvery,
+                   int historyWindow) {
+        this.directory = directory;
+        this.historyWindow = historyWindow;
+        this.groupCommitMillis = groupCommitMillis;
+        this.maxBatchRecords = maxBatchRecords;
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    /**
+     * Restores the service from the snapshot and log tail, then starts logging into a fresh segment.
+     */
+    public void open(VoteService voteService) throws IOException {
+        this.voteService = voteService;
+        Files.createDirectories(directory);
+
+        long started = System.nanoTime();
+        List<HistoryEntry> history = new ArrayList<>();
+        long firstSegment = readSnapshot(history);
+        long lastHistorySeq = history.isEmpty() ? 0 : history.get(history.size() - 1).getSeq();
+
+        List<Long> segments = listSegments();
+        boolean hasTail = false;
+        for (long existing : segments) {
+            hasTail |= existing >= firstSegment && Files.size(segmentPath(existing)) > 0;
+        }
+        VoterLoader voters = pendingVoters;
+        pendingVoters = null;
+        if (voters != null && !hasTail) {
+            // nothing to replay on top of the voters, so they can load while the server runs
+            VoterRegistry registry = voteService.getVoters();
+            registry.startLoading();
+            recovery = new Thread(() -> {
+                try {
+                    voters.run();
+                } finally {
+                    registry.finishLoading();
+                }
+            }, "vote-log-recovery");
+            recovery.setDaemon(true);
+            recovery.start();
+            Log.info("Recovered tallies in {} ms, loading {} voters", TimeUnit.NANOSECONDS.toMillis(
+                    System.nanoTime() - started), voters.count);
+        } else if (voters != null) {
+            voters.run();
+        }
+
+        long replayed = 0;
+        List<HistoryEntry> tail = new ArrayList<>();
+        for (long existing : segments) {
+            if (existing >= firstSegment) {
+                replayed += replay(segmentPath(existing), tail, lastHistorySeq);
+            }
+        }
+        // records of different voters can reach the log slightly out of sequence order
+        tail.sort(Comparator.comparingLong(HistoryEntry::getSeq));
+        history.addAll(tail);
+        if (history.size() > historyWindow) {
+            history = new ArrayList<>(history.subList(history.size() - historyWindow, history.size()));
+        }
+        voteService.restoreHistory(history);
+        if (recovery == null && (voteService.getVoters().size() > 0 || replayed > 0)) {
+            Log.info("Recovered {} voters in {} ms ({} log records replayed)", voteService.getVoters().size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), replayed);
+        }
+
+        segment = segments.isEmpty() ? Math.max(firstSegment, 1) : Math.max(firstSegment, segments.get(segments.size() - 1) + 1);
+        channel = openSegment(segment);
+        if (replayed > 0) {
+            // restoreHistory() renumbers history, so fold the replayed tail into a snapshot before logging again
+            writeSnapshot(segment);
+            for (long existing : segments) {
+                Files.deleteIfExists(segmentPath(existing));
+            }
+        }
+
+        running = true;
+        writer = new Thread(this::writeLoop, "vote-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        voteService.setVoteLog(this);
+    }
+
+    /**
+     * Waits until the voters recovered by {@link #open} are all loaded.
+     */
+    public void awaitRecovery() {
+        Thread loader = recovery;
+        if (loader == null) {
+            return;
+        }
+        try {
+            loader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onVote(long timestamp, int electionId, int voter, String clientId, String clientName, int optionId,
+                       int previousOptionId, long historySeq) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(timestamp);
+            out.writeLong(historySeq);
+            out.writeInt(electionId);
+            out.writeInt(optionId);
+            out.writeUTF(clientId);
+            out.writeUTF(clientName);
+            queue.add(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode vote record", e);
+        }
+    }
+
+    /**
+     * Completes after everything this thread appended before the call has been forced to disk.
+     */
+    public CompletableFuture<Void> sync() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new IOException("Vote log is closed"));
+            return future;
+        }
+        queue.add(future);
+        return future;
+    }
+
+    private void writeLoop() {
+        List<Object> batch = new ArrayList<>();
+        List<CompletableFuture<Void>> waiters = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Object first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                if (groupCommitMillis > 0) {
+                    Thread.sleep(groupCommitMillis);
+                }
+                queue.drainTo(batch, maxBatchRecords - 1);
+            } catch (InterruptedException e) {
+                running = false;
+            }
+
+            int records = 0;
+            try {
+                ByteBuffer buffer = encodeBatch(batch, waiters);
+                records = batch.size() - waiters.size();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                waiters.forEach(waiter -> waiter.complete(null));
+            } catch (IOException e) {
+                Log.error("Vote log write failed: {}", e.getMessage());
+                waiters.forEach(waiter -> waiter.completeExceptionally(e));
+            }
+            batch.clear();
+            waiters.clear();
+
+            recordsSinceSnapshot += records;
+            if (snapshotEvery > 0 && recordsSinceSnapshot >= snapshotEvery) {
+                snapshot();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ByteBuffer encodeBatch(List<Object> batch, List<CompletableFuture<Void>> waiters) {
+        int size = 0;
+        for (Object item : batch) {
+            if (item instanceof byte[] record) {
+                size += 8 + record.length;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Object item : batch) {
+            if (item instanceof byte[] record) {
+                crc.reset();
+                crc.update(record);
+                buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+            } else {
+                waiters.add((CompletableFuture<Void>) item);
+            }
+        }
+        return buffer.flip();
+    }
+
+    private void snapshot() {
+        try {
+            long closedSegment = segment;
+            channel.close();
+            segment++;
+            channel = openSegment(segment);
+
+            // A vote can be logged in the closed segment just before its voter map update becomes
+            // visible, so replay restarts at the closed segment rather than the new one.
+            writeSnapshot(closedSegment);
+            for (long existing : listSegments()) {
+                if (existing < closedSegment) {
+                    Files.deleteIfExists(segmentPath(existing));
+                }
+            }
+            recordsSinceSnapshot = 0;
+        } catch (IOException e) {
+            Log.error("Vote snapshot failed: {}", e.getMessage());
+        }
+    }
+
+    private void writeSnapshot(long replayFromSegment) throws IOException {
+        awaitRecovery();
+        VoterRegistry registry = voteService.getVoters();
+        // voters interned after this are left to the log, which is replayed from before them
+        int voters = registry.size();
+        List<Election> elections = voteService.getElections().list();
+        // the tallies are counted from the choices written, so the two always agree
+        int[][] choices = new int[elections.size()][voters];
+        long[][] tallies = new long[elections.size()][];
+        for (int e = 0; e < elections.size(); e++) {
+            Election election = elections.get(e);
+            tallies[e] = new long[election.getOptionCount()];
+            for (int voter = 0; voter < voters; voter++) {
+                int choice = election.choices.get(voter);
+                if (choice >= 0) {
+                    tallies[e][choice]++;
+                }
+                choices[e][voter] = choice + 1;
+            }
+        }
+        List<HistoryEntry> history = voteService.getRecentHistory(historyWindow);
+
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     Channels.newOutputStream(file), 64 * 1024))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(replayFromSegment);
+            out.writeInt(elections.size());
+            for (int e = 0; e < elections.size(); e++) {
+                out.writeInt(elections.get(e).getId());
+                out.writeInt(tallies[e].length);
+                out.writeByte(tallies[e].length > MAX_BYTE_OPTIONS ? 4 : 1);
+                for (long tally : tallies[e]) {
+                    out.writeLong(tally);
+                }
+            }
+            out.writeInt(history.size());
+            for (HistoryEntry entry : history) {
+                out.writeLong(entry.getSeq());
+                out.writeLong(entry.getTimestamp());
+                writeString(out, entry.getClientName());
+            }
+            out.writeInt(voters);
+            for (int voter = 0; voter < voters; voter++) {
+                writeString(out, registry.clientId(voter));
+            }
+            for (int e = 0; e < elections.size(); e++) {
+                boolean wide = tallies[e].length > MAX_BYTE_OPTIONS;
+                for (int choice : choices[e]) {
+                    if (wide) {
+                        out.writeInt(choice);
+                    } else {
+                        out.writeByte(choice);
+                    }
+                }
+            }
+            out.flush();
+            file.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Restores the tallies and history and returns the first segment to replay. The voters are
+     * left in {@link #pendingVoters}.
+     */
+    private long readSnapshot(List<HistoryEntry> history) throws IOException {
+        Path path = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        ByteBuffer in;
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            // paged in as it is read, and the voters are read after open() has returned
+            in = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+        }
+        try {
+            int magic = in.getInt();
+            if (magic == LEGACY_SNAPSHOT_MAGIC) {
+                return readLegacySnapshot(path, history);
+            }
+            if (magic != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a vote snapshot: " + path);
+            }
+            long replayFromSegment = in.getLong();
+            int elections = in.getInt();
+            int[] electionIds = new int[elections];
+            boolean[] wide = new boolean[elections];
+            for (int e = 0; e < elections; e++) {
+                electionIds[e] = in.getInt();
+                long[] tallies = new long[in.getInt()];
+                wide[e] = in.get() == 4;
+                for (int option = 0; option < tallies.length; option++) {
+                    tallies[option] = in.getLong();
+                }
+                voteService.recoverTally(electionIds[e], tallies);
+            }
+            int entries = in.getInt();
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < entries; i++) {
+                history.add(new HistoryEntry(in.getLong(), in.getLong(), readString(in, scratch)));
+            }
+            pendingVoters = new VoterLoader(in, electionIds, wide);
+            return replayFromSegment;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated vote snapshot: " + path);
+        }
+    }
+
+    private static String readString(ByteBuffer in, byte[] scratch) {
+        int length = in.getInt();
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        in.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Loads a snapshot's voters and their choices, the bulk of it, once tallies and history are in.
+     */
+    private final class VoterLoader implements Runnable {
+        private final ByteBuffer in; // at the voters
+        private final int[] electionIds;
+        private final boolean[] wide;
+        private final int count;
+
+        VoterLoader(ByteBuffer in, int[] electionIds, boolean[] wide) {
+            this.in = in;
+            this.electionIds = electionIds;
+            this.wide = wide;
+            this.count = in.getInt();
+        }
+
+        @Override
+        public void run() {
+            long started = System.nanoTime();
+            try {
+                VoterRegistry registry = voteService.getVoters();
+                registry.reserve(count);
+                int[] ids = new int[count]; // snapshot id -> registry id, the same unless voters were interned before
+                byte[] scratch = new byte[256];
+                for (int voter = 0; voter < count; voter++) {
+                    ids[voter] = registry.internRecovered(readString(in, scratch));
+                }
+                int[] voters = new int[count];
+                int[] optionIds = new int[count];
+                for (int e = 0; e < electionIds.length; e++) {
+                    int chosen = 0;
+                    for (int voter = 0; voter < count; voter++) {
+                        int choice = wide[e] ? in.getInt() : in.get() & 0xFF;
+                        if (choice > 0) {
+                            voters[chosen] = ids[voter];
+                            optionIds[chosen++] = choice - 1;
+                        }
+                    }
+                    voteService.recoverChoices(electionIds[e], voters, optionIds, chosen);
+                }
+                Log.info("Loaded {} voters in {} ms", count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            } catch (BufferUnderflowException e) {
+                Log.error("Truncated vote snapshot, loaded {} voters", voteService.getVoters().size());
+            }
+        }
+    }
+
+    /**
+     * Snapshots written before voters were interned: clientId -> optionId maps per election.
+     */
+    private long readLegacySnapshot(Path path, List<HistoryEntry> history) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024))) {
+            in.readInt(); // magic
+            long replayFromSegment = in.readLong();
+            int elections = in.readInt();
+            for (int e = 0; e < elections; e++) {
+                int electionId = in.readInt();
+                int voters = in.readInt();
+                for (int i = 0; i < voters; i++) {
+                    voteService.recoverVote(electionId, voteService.getVoters().intern(in.readUTF()), in.readInt());
+                }
+            }
+            int entries = in.readInt();
+            for (int i = 0; i < entries; i++) {
+                history.add(new HistoryEntry(in.readLong(), in.readLong(), in.readUTF()));
+            }
+            return replayFromSegment;
+        }
+    }
+
+    private long replay(Path path, List<HistoryEntry> history, long skipHistoryUpTo) throws IOException {
+        long count = 0;
+        CRC32 check = new CRC32();
+        VoterRegistry registry = voteService.getVoters();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024))) {
+            while (true) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    int expectedCrc = in.readInt();
+                    record = new byte[length];
+                    in.readFully(record);
+                    check.reset();
+                    check.update(record);
+                    if ((int) check.getValue() != expectedCrc) {
+                        Log.warn("Corrupt vote record in {}, ignoring the rest", path.getFileName());
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break; // end of segment, or a torn write at the tail
+                }
+
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record));
+                long timestamp = fields.readLong();
+                long seq = fields.readLong();
+                int electionId = fields.readInt();
+                int optionId = fields.readInt();
+                String clientId = fields.readUTF();
+                String clientName = fields.readUTF();
+                voteService.recoverVote(electionId, registry.intern(clientId), optionId);
+                if (seq > skipHistoryUpTo) {
+                    history.add(new HistoryEntry(seq, timestamp, clientName));
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith("votes-") && name.endsWith(".log"))
+                    .map(name -> Long.parseLong(name.substring(6, name.length() - 4)))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("votes-%010d.log", number));
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Stops logging once everything queued is written, then writes a final snapshot.
+     */
+    public void close() {
+        running = false;
+        try {
+            if (writer != null) {
+                writer.join(5000);
+            }
+            if (channel != null) {
+                channel.close();
+                if (writer != null && !writer.isAlive()) {
+                    // everything logged is on disk: fold it into the snapshot, so a restart replays nothing
+                    writeSnapshot(segment + 1);
+                    for (long existing : listSegments()) {
+                        Files.deleteIfExists(segmentPath(existing));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.error("Error closing vote log: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Vote velocity per option: the votes cast in the last second, 10 seconds, minute and hour, and
+ * the votes of each of the last {@value #SERIES_LENGTH} seconds as a trend series.
+ *
+ * Votes are counted into two rings of buckets, one per second and one per minute, each bucket
+ * an array of per-option counts tagged with the second or minute it holds. A vote increments
+ * one counter in each ring, reusing a bucket once its ring has wrapped around, so it costs the
+ * same however long the server runs and history is never rescanned. Only completed buckets are
+ * read, so the figures of one second are final once it has passed.
+ *
+ * Counts the votes cast on this node; a cluster peer's votes are in its own rates.
+ */
+public class VoteRates implements VoteListener {
+    public static final int[] WINDOW_SECONDS = {1, 10, 60, 3600};
+    public static final int SERIES_LENGTH = 60;
+
+    private static final int SLOTS = 64; // power of two, more than any window reads
+    private static final long RESETTING = -1;
+
+    private final Ring[] seconds; // by election id
+    private final Ring[] minutes;
+
+    /**
+     * The counts of one election as of a completed second.
+     */
+    public static final class Snapshot {
+        private final long second;
+        private final long[][] windows;
+        private final long[][] series;
+
+        Snapshot(long second, long[][] windows, long[][] series) {
+            this.second = second;
+            this.windows = windows;
+            this.series = series;
+        }
+
+        /**
+         * The newest second counted, in seconds since the epoch.
+         */
+        public long getSecond() {
+            return second;
+        }
+
+        /**
+         * Votes per option id in each of {@link #WINDOW_SECONDS}, ending with {@link #getSecond()}.
+         */
+        public long[][] getWindows() {
+            return windows;
+        }
+
+        /**
+         * Votes per option id in each of the last {@value #SERIES_LENGTH} seconds, oldest first.
+         */
+        public long[][] getSeries() {
+            return series;
+        }
+    }
+
+    /**
+     * Buckets of per-option counts. A bucket is claimed for a new period by swapping its tag to
+     * RESETTING, zeroing it and then tagging it; voters that see RESETTING wait for the tag.
+     */
+    private static final class Ring {
+        private final int options;
+        private final AtomicLongArray periods = new AtomicLongArray(SLOTS);
+        private final AtomicLongArray counts;
+
+        Ring(int options) {
+            this.options = options;
+            this.counts = new AtomicLongArray(SLOTS * options);
+        }
+
+        void increment(long period, int option) {
+            int slot = (int) (period & (SLOTS - 1));
+            while (true) {
+                long current = periods.get(slot);
+                if (current == period) {
+                    counts.getAndIncrement(slot * options + option);
+                    return;
+                }
+                if (current > period) {
+                    return; // stamped before a wrap-around; the bucket is long gone
+                }
+                if (current != RESETTING && periods.compareAndSet(slot, current, RESETTING)) {
+                    for (int i = 0; i < options; i++) {
+                        counts.set(slot * options + i, 0);
+                    }
+                    periods.set(slot, period);
+                    continue;
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        /**
+         * Adds the counts of {@code period} to {@code into}; a bucket reused meanwhile adds nothing.
+         */
+        void addTo(long period, long[] into) {
+            int slot = (int) (period & (SLOTS - 1));
+            if (periods.get(slot) != period) {
+                return;
+            }
+            long[] read = new long[options];
+            for (int i = 0; i < options; i++) {
+                read[i] = counts.get(slot * options + i);
+            }
+            if (periods.get(slot) == period) {
+                for (int i = 0; i < options; i++) {
+                    into[i] += read[i];
+                }
+            }
+        }
+    }
+
+    public VoteRates(ElectionRegistry elections) {
+        int count = elections.list().size();
+        seconds = new Ring[count];
+        minutes = new Ring[count];
+        for (Election election : elections.list()) {
+            seconds[election.getId()] = new Ring(election.getOptionCount());
+            minutes[election.getId()] = new Ring(election.getOptionCount());
+        }
+    }
+
+    @Override
+    public void onVote(long timestamp, int electionId, int voter, String clientId, String clientName, int optionId,
+                       int previousOptionId, long historySeq) {
+        if (electionId < 0 || electionId >= seconds.length) {
+            return;
+        }
+        long second = timestamp / 1000;
+        seconds[electionId].increment(second, optionId);
+        minutes[electionId].increment(second / 60, optionId);
+    }
+
+    /**
+     * The counts up to and including {@code second}, which should have passed. Windows longer
+     * than the series are the seconds of the current minute so far plus whole minutes before it.
+     */
+    public Snapshot snapshot(Election election, long second) {
+        Ring secondRing = seconds[election.getId()];
+        Ring minuteRing = minutes[election.getId()];
+        int options = election.getOptionCount();
+
+        long[][] series = new long[SERIES_LENGTH][];
+        for (int i = 0; i < SERIES_LENGTH; i++) {
+            series[i] = new long[options];
+            secondRing.addTo(second - SERIES_LENGTH + 1 + i, series[i]);
+        }
+        long[][] windows = new long[WINDOW_SECONDS.length][options];
+        for (int w = 0; w < WINDOW_SECONDS.length; w++) {
+            int length = WINDOW_SECONDS[w];
+            if (length <= SERIES_LENGTH) {
+                for (int i = SERIES_LENGTH - length; i < SERIES_LENGTH; i++) {
+                    for (int option = 0; option < options; option++) {
+                        windows[w][option] += series[i][option];
+                    }
+                }
+            } else {
+                long minute = second / 60;
+                for (long s = minute * 60; s <= second; s++) {
+                    secondRing.addTo(s, windows[w]);
+                }
+                for (long m = minute - length / 60 + 1; m < minute; m++) {
+                    minuteRing.addTo(m, windows[w]);
+                }
+            }
+        }
+        return new Snapshot(second, windows, series);
+    }
+}
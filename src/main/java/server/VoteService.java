@@ -1,69 +1,261 @@
 package server;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class VoteService {
-    private final Map<String, AtomicInteger> votes;
-    private final Map<String, String> clientVotes; // clientId -> votedOption
-    private final List<String> voteHistory; // Store vote history
+    public static final int DEFAULT_HISTORY_WINDOW = 10_000;
+
+    private final ElectionRegistry elections;
+    private final VoterRegistry voters = new VoterRegistry();
+    private final VoteHistory voteHistory;
+    private final List<VoteListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile VoteLog voteLog;
+    private volatile TallyAdjuster tallyAdjuster;
 
     public VoteService() {
-        votes = new ConcurrentHashMap<>();
-        clientVotes = new ConcurrentHashMap<>();
-        voteHistory = new ArrayList<>();
-        initializeOptions();
+        this(ElectionRegistry.parse(ElectionRegistry.DEFAULT_SPEC), new VoteHistory(DEFAULT_HISTORY_WINDOW));
+    }
+
+    public VoteService(ElectionRegistry elections, VoteHistory voteHistory) {
+        this.elections = elections;
+        this.voteHistory = voteHistory;
+    }
+
+    public ElectionRegistry getElections() {
+        return elections;
     }
 
-    private void initializeOptions() {
-        votes.put("Option A", new AtomicInteger(0));
-        votes.put("Option B", new AtomicInteger(0));
-        votes.put("Option C", new AtomicInteger(0));
+    public VoterRegistry getVoters() {
+        return voters;
     }
 
-    public synchronized boolean castVote(String clientId, String clientName, String option) {
+    /**
+     * Option names of the default election.
+     */
+    public List<String> getOptions() {
+        return elections.getDefault().getOptions();
+    }
+
+    /**
+     * Votes by option name in the default election.
+     */
+    public boolean castVote(String clientId, String clientName, String option) {
+        Election election = elections.getDefault();
+        return castVote(election.getId(), clientId, clientName, election.optionId(option));
+    }
 
-        if (votes.containsKey(option)) {
+    public boolean castVote(int electionId, String clientId, String clientName, int optionId) {
+        return castVote(electionId, voters.intern(clientId), clientName, optionId);
+    }
+
+    /**
+     * Votes as a voter already interned in {@link #getVoters()}, as connected clients are at
+     * handshake. Only this voter's lock is taken, so the old and new option counters move
+     * together for one voter while different voters cast in parallel.
+     */
+    public boolean castVote(int electionId, int voter, String clientName, int optionId) {
+        Election election = elections.get(electionId);
+        if (election == null || !election.isValidOption(optionId)) {
+            return false;
+        }
+        apply(election, voter, voters.clientId(voter), clientName, optionId);
+        return true;
+    }
 
-            if (clientVotes.containsKey(clientId)) {
-                String previousVote = clientVotes.get(clientId);
-                votes.get(previousVote).decrementAndGet();
-                voteHistory.add(clientName + " voted");
+    /**
+     * Applies many votes to one election in a single pass, e.g. an upload from a polling-station
+     * kiosk. Each entry behaves like {@link #castVote} with the voter id as the voter's name, and
+     * a voter listed twice ends up with its last choice. Invalid entries are rejected without
+     * affecting the rest. Call {@link #sync()} once afterwards to wait for the whole batch.
+     */
+    public BatchResult castVotes(int electionId, String[] voterIds, int[] optionIds) {
+        Election election = elections.get(electionId);
+        BatchResult result = new BatchResult(voterIds.length);
+        for (int i = 0; i < voterIds.length; i++) {
+            String voterId = voterIds[i];
+            if (voterId == null || voterId.isEmpty()) {
+                result.reject(i, BatchResult.INVALID_VOTER);
+            } else if (election == null || !election.isValidOption(optionIds[i])) {
+                result.reject(i, BatchResult.INVALID_OPTION);
             } else {
-                voteHistory.add(clientName + " voted");
+                apply(election, voters.intern(voterId), voterId, voterId, optionIds[i]);
+                result.accept();
+            }
+        }
+        return result;
+    }
+
+    private void apply(Election election, int voter, String clientId, String clientName, int optionId) {
+        int electionId = election.getId();
+        synchronized (voters.lockFor(voter)) {
+            int previousOptionId = election.choices.set(voter, optionId);
+            // snapshots see the whole vote or none of it, including the adjuster's part
+            election.tally.begin();
+            try {
+                if (previousOptionId >= 0) {
+                    election.tally.add(previousOptionId, -1);
+                }
+                election.tally.add(optionId, 1);
+                TallyAdjuster adjuster = tallyAdjuster;
+                if (adjuster != null) {
+                    adjuster.adjust(election, voter, optionId, previousOptionId);
+                }
+            } finally {
+                election.tally.end();
+            }
+            long timestamp = System.currentTimeMillis();
+            long seq = voteHistory.append(timestamp, clientName);
+            for (VoteListener listener : listeners) {
+                listener.onVote(timestamp, electionId, voter, clientId, clientName, optionId, previousOptionId, seq);
+            }
+        }
+    }
+
+    /**
+     * Moves the tally further when a vote is applied, together with the vote's own change.
+     * Called under the voter's lock, before the listeners. Must only touch the tally.
+     */
+    interface TallyAdjuster {
+        void adjust(Election election, int voter, int optionId, int previousOptionId);
+    }
+
+    void setTallyAdjuster(TallyAdjuster tallyAdjuster) {
+        this.tallyAdjuster = tallyAdjuster;
+    }
+
+    public void addListener(VoteListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Makes every vote accepted from now on durable in the given write-ahead log.
+     */
+    public void setVoteLog(VoteLog voteLog) {
+        this.voteLog = voteLog;
+        addListener(voteLog);
+    }
+
+    /**
+     * Completes once the votes this thread has cast so far are durable. Completes immediately
+     * when no write-ahead log is configured.
+     */
+    public CompletableFuture<Void> sync() {
+        VoteLog log = voteLog;
+        return log == null ? CompletableFuture.completedFuture(null) : log.sync();
+    }
+
+    /**
+     * Sets an election's recovered tally, ahead of the choices it was counted from, so results
+     * are right as soon as the server accepts connections. Counts of options that no longer
+     * exist are dropped, as their choices will be. Listeners are not notified. Only for
+     * recovery, before votes are accepted.
+     */
+    void recoverTally(int electionId, long[] tallies) {
+        Election election = elections.get(electionId);
+        if (election == null) {
+            return;
+        }
+        for (int optionId = 0; optionId < tallies.length; optionId++) {
+            if (election.isValidOption(optionId) && tallies[optionId] != 0) {
+                election.tally.add(optionId, tallies[optionId]);
+            }
+        }
+    }
+
+    /**
+     * Loads recovered choices of one election, {@code voters[i]} having chosen
+     * {@code optionIds[i]}, without touching the tally, which {@link #recoverTally} already
+     * counts them in.
+     */
+    void recoverChoices(int electionId, int[] voters, int[] optionIds, int count) {
+        Election election = elections.get(electionId);
+        if (election == null) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            if (election.isValidOption(optionIds[i])) {
+                election.choices.set(voters[i], optionIds[i]);
             }
+        }
+    }
 
-            votes.get(option).incrementAndGet();
-            clientVotes.put(clientId, option);
-            return true;
+    /**
+     * Loads one voter's recovered choice, replacing any earlier one, and moves the tally with it.
+     */
+    void recoverVote(int electionId, int voter, int optionId) {
+        Election election = elections.get(electionId);
+        if (election == null || !election.isValidOption(optionId)) {
+            return;
+        }
+        int previous = election.choices.set(voter, optionId);
+        if (previous != optionId) {
+            if (previous >= 0) {
+                election.tally.add(previous, -1);
+            }
+            election.tally.add(optionId, 1);
         }
-        return false;
+    }
+
+    /**
+     * Replaces the history with recovered entries.
+     */
+    void restoreHistory(List<HistoryEntry> recoveredHistory) {
+        voteHistory.restore(recoveredHistory);
     }
 
     public Map<String, Integer> getVoteResults() {
-        Map<String, Integer> results = new ConcurrentHashMap<>();
-        votes.forEach((option, count) -> results.put(option, count.get()));
-        return results;
+        return elections.getDefault().getResults();
+    }
+
+    public Map<String, Integer> getVoteResults(int electionId) {
+        Election election = elections.get(electionId);
+        return election == null ? Map.of() : election.getResults();
     }
 
     public int getTotalVotes() {
-        return clientVotes.size();
+        return elections.getDefault().getVoterCount();
+    }
+
+    /**
+     * A page of history: up to {@code limit} entries starting at {@code fromSeq}, oldest first.
+     */
+    public List<HistoryEntry> getVoteHistory(long fromSeq, int limit) {
+        return voteHistory.read(fromSeq, limit);
     }
 
-    public List<String> getVoteHistory() {
-        return new ArrayList<>(voteHistory);
+    /**
+     * The latest {@code limit} entries, oldest first.
+     */
+    public List<HistoryEntry> getRecentHistory(int limit) {
+        return voteHistory.read(voteHistory.getLatestSeq() - limit + 1, limit);
+    }
+
+    public long getLatestHistorySeq() {
+        return voteHistory.getLatestSeq();
+    }
+
+    public VoteHistory getVoteHistory() {
+        return voteHistory;
     }
 
     public String getClientVote(String clientId) {
-        return clientVotes.get(clientId);
+        return getClientVote(ElectionRegistry.DEFAULT_ELECTION, clientId);
+    }
+
+    public String getClientVote(int electionId, String clientId) {
+        Election election = elections.get(electionId);
+        int voter = voters.lookup(clientId);
+        return election == null || voter < 0 ? null : election.optionName(election.choices.get(voter));
     }
 
     public void resetVotes() {
-        votes.forEach((option, count) -> count.set(0));
-        clientVotes.clear();
+        for (Election election : elections.list()) {
+            election.tally.reset();
+            election.choices.clear();
+        }
         voteHistory.clear();
     }
-}
\ No newline at end of file
+}
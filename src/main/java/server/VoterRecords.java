@@ -0,0 +1,147 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Each voter's winning cluster record in one election, indexed by {@link VoterRegistry} id:
+ * option id, timestamp and the node that cast it, in chunked primitive arrays allocated as ids
+ * reach them. Also remembers which voters changed since they were last gossiped, and which of
+ * this node's own records its counters already count.
+ *
+ * Readers and writers of a voter's record hold the voter's registry lock, which also makes the
+ * three fields of one record change together.
+ */
+final class VoterRecords {
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final class Chunk {
+        final int[] options = new int[CHUNK_SIZE]; // option id + 1, 0 for no record
+        final long[] timestamps = new long[CHUNK_SIZE];
+        final int[] origins = new int[CHUNK_SIZE];
+        final int[] counted = new int[CHUNK_SIZE]; // option id + 1 this node's counters count, 0 for none
+        final boolean[] dirty = new boolean[CHUNK_SIZE];
+    }
+
+    private volatile Chunk[] chunks = new Chunk[0];
+    private int[] dirtyVoters = new int[64]; // guarded by this
+    private int dirtyCount;                  // guarded by this
+
+    /**
+     * The voter's recorded option id, or -1 if it has no record.
+     */
+    int optionId(int voter) {
+        Chunk chunk = find(voter);
+        return chunk == null ? -1 : chunk.options[voter & (CHUNK_SIZE - 1)] - 1;
+    }
+
+    long timestamp(int voter) {
+        Chunk chunk = find(voter);
+        return chunk == null ? 0 : chunk.timestamps[voter & (CHUNK_SIZE - 1)];
+    }
+
+    int origin(int voter) {
+        Chunk chunk = find(voter);
+        return chunk == null ? -1 : chunk.origins[voter & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * The option of this node's own record for the voter that its counters count, or -1.
+     */
+    int countedOptionId(int voter) {
+        Chunk chunk = find(voter);
+        return chunk == null ? -1 : chunk.counted[voter & (CHUNK_SIZE - 1)] - 1;
+    }
+
+    void setCounted(int voter, int optionId) {
+        chunk(voter >>> CHUNK_BITS).counted[voter & (CHUNK_SIZE - 1)] = optionId + 1;
+    }
+
+    /**
+     * Whether a record with this timestamp and origin replaces the voter's: the later timestamp
+     * wins, then the higher node id.
+     */
+    boolean isBeatenBy(int voter, long timestamp, int origin) {
+        Chunk chunk = find(voter);
+        int offset = voter & (CHUNK_SIZE - 1);
+        if (chunk == null || chunk.options[offset] == 0) {
+            return true;
+        }
+        long current = chunk.timestamps[offset];
+        return timestamp != current ? timestamp > current : origin > chunk.origins[offset];
+    }
+
+    /**
+     * Replaces the voter's record and marks it for the next gossip.
+     */
+    void set(int voter, int optionId, long timestamp, int origin) {
+        Chunk chunk = chunk(voter >>> CHUNK_BITS);
+        int offset = voter & (CHUNK_SIZE - 1);
+        chunk.options[offset] = optionId + 1;
+        chunk.timestamps[offset] = timestamp;
+        chunk.origins[offset] = origin;
+        markDirty(voter);
+    }
+
+    /**
+     * Queues the voter for the next gossip, e.g. again after a gossip could not be sent.
+     */
+    void markDirty(int voter) {
+        Chunk chunk = chunk(voter >>> CHUNK_BITS);
+        int offset = voter & (CHUNK_SIZE - 1);
+        if (!chunk.dirty[offset]) {
+            chunk.dirty[offset] = true;
+            addDirty(voter);
+        }
+    }
+
+    /**
+     * Voters changed since the last call. Each one's flag is cleared by {@link #clearDirty}
+     * when it is read for gossip, so a change made after that is queued again.
+     */
+    synchronized int[] drainDirty() {
+        int[] drained = Arrays.copyOf(dirtyVoters, dirtyCount);
+        dirtyCount = 0;
+        return drained;
+    }
+
+    void clearDirty(int voter) {
+        Chunk chunk = find(voter);
+        if (chunk != null) {
+            chunk.dirty[voter & (CHUNK_SIZE - 1)] = false;
+        }
+    }
+
+    private synchronized void addDirty(int voter) {
+        if (dirtyCount == dirtyVoters.length) {
+            dirtyVoters = Arrays.copyOf(dirtyVoters, dirtyCount * 2);
+        }
+        dirtyVoters[dirtyCount++] = voter;
+    }
+
+    private Chunk find(int voter) {
+        Chunk[] current = chunks;
+        int index = voter >>> CHUNK_BITS;
+        return index < current.length ? current[index] : null;
+    }
+
+    private Chunk chunk(int index) {
+        Chunk[] current = chunks;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        synchronized (this) {
+            current = chunks;
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, index + 1);
+            } else if (current[index] != null) {
+                return current[index];
+            } else {
+                current = current.clone();
+            }
+            current[index] = new Chunk();
+            chunks = current;
+            return current[index];
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Interns every voter's clientId once, to a dense int id shared by all elections, so per-voter
+ * state can live in primitive arrays indexed by that id instead of String-keyed maps.
+ *
+ * Lookups go through an open-addressing table of two parallel arrays and ids map back to
+ * clientIds through chunked arrays, so a voter costs about two array slots and its String, with
+ * no map entries or boxed values. Interning happens at handshake, not per vote, so a plain
+ * monitor is enough.
+ *
+ * Also hands out the per-voter locks that serialize all changes to one voter's choices.
+ *
+ * After a warm restart the recovered voters are loaded in the background; until then interning
+ * and lookups wait, so no vote is applied to a voter whose recovered choices are not yet in.
+ */
+public final class VoterRegistry {
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int LOCK_STRIPES = 4096; // power of two
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private String[] keys = new String[1024]; // length is a power of two, at most half full
+    private int[] ids = new int[1024];
+    private volatile String[][] clientIds = new String[0][];
+    private volatile int count;
+    private volatile CountDownLatch loading; // while recovered voters are being loaded
+
+    public VoterRegistry() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * The voter's id, assigning the next one on first sight.
+     */
+    public int intern(String clientId) {
+        awaitLoaded();
+        return internRecovered(clientId);
+    }
+
+    /**
+     * {@link #intern} for the loader of recovered voters, which must not wait for itself.
+     */
+    synchronized int internRecovered(String clientId) {
+        int slot = find(keys, clientId);
+        if (keys[slot] != null) {
+            return ids[slot];
+        }
+        int id = count;
+        keys[slot] = clientId;
+        ids[slot] = id;
+        if (id >> CHUNK_BITS == clientIds.length) {
+            String[][] grown = Arrays.copyOf(clientIds, clientIds.length + 1);
+            grown[grown.length - 1] = new String[CHUNK_SIZE];
+            clientIds = grown;
+        }
+        clientIds[id >> CHUNK_BITS][id & (CHUNK_SIZE - 1)] = clientId;
+        count = id + 1;
+        if (count * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return id;
+    }
+
+    /**
+     * Sizes the table for {@code voters} ids up front, so recovering a large snapshot interns
+     * without rehashing along the way.
+     */
+    public synchronized void reserve(int voters) {
+        int capacity = Integer.highestOneBit(Math.max(voters, 1) * 2 - 1) << 1;
+        if (capacity > keys.length) {
+            rehash(capacity);
+        }
+    }
+
+    /**
+     * The voter's id, or -1 for a clientId never interned.
+     */
+    public int lookup(String clientId) {
+        awaitLoaded();
+        synchronized (this) {
+            int slot = find(keys, clientId);
+            return keys[slot] == null ? -1 : ids[slot];
+        }
+    }
+
+    public String clientId(int id) {
+        if (id < 0 || id >= count) {
+            return null;
+        }
+        // count is written last, so reading it first makes the chunk and entry visible
+        return clientIds[id >> CHUNK_BITS][id & (CHUNK_SIZE - 1)];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Makes interning wait until {@link #finishLoading()}.
+     */
+    void startLoading() {
+        loading = new CountDownLatch(1);
+    }
+
+    void finishLoading() {
+        CountDownLatch latch = loading;
+        loading = null;
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    private void awaitLoaded() {
+        CountDownLatch latch = loading;
+        if (latch == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Held while a voter's choice in any election changes, together with the tally and the
+     * listeners that mirror it.
+     */
+    Object lockFor(int id) {
+        return locks[id & (LOCK_STRIPES - 1)];
+    }
+
+    private static int find(String[] table, String key) {
+        int mask = table.length - 1;
+        int slot = spread(key.hashCode()) & mask;
+        while (table[slot] != null && !table[slot].equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int spread(int hash) {
+        return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+    }
+
+    private void rehash(int capacity) {
+        String[] grownKeys = new String[capacity];
+        int[] grownIds = new int[grownKeys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                int slot = find(grownKeys, keys[i]);
+                grownKeys[slot] = keys[i];
+                grownIds[slot] = ids[i];
+            }
+        }
+        keys = grownKeys;
+        ids = grownIds;
+    }
+}
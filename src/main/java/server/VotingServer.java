@@ -1,79 +1,343 @@
 package server;
 
-import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
-public class VotingServer {
-    private static final int PORT = 12345;
-    private final List<ClientHandler> clients;
+public class VotingServer implements ConnectionAcceptor {
+    private static final int HISTORY_BROADCAST_PAGE = 1000;
+
+    private final ServerConfig config;
+    private final Set<ClientHandler> clients;
+    private final Map<Integer, Set<ClientHandler>> audiences = new ConcurrentHashMap<>(); // by election id
     private final VoteService voteService;
-    private boolean running;
+    private final BroadcastScheduler broadcastScheduler;
+    private final TextCodec textCodec = new TextCodec();
+    private final BinaryCodec binaryCodec = new BinaryCodec();
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final SessionRegistry sessions;
+    private final VoteRates voteRates;
+    private final SnapshotCache snapshots;
+    private final AdmissionControl admission;
+    private ConnectionEngine engine;
+    private VoteLog voteLog;
+    private VoteJournal voteJournal;
+    private MetricsEndpoint metricsEndpoint;
+    private ClusterNode clusterNode;
+    private long lastBroadcastHistorySeq;
+    private volatile boolean running;
 
     public VotingServer() {
-        clients = new CopyOnWriteArrayList<>();
-        voteService = new VoteService();
+        this(ServerConfig.fromSystemProperties());
+    }
+
+    public VotingServer(ServerConfig config) {
+        this.config = config;
+        // a copy-on-write list degrades to O(n^2) during connect storms with tens of thousands of clients
+        clients = ConcurrentHashMap.newKeySet();
+        voteService = new VoteService(ElectionRegistry.parse(config.getElections()), createHistory(config));
+        voteRates = new VoteRates(voteService.getElections());
+        voteService.addListener(voteRates);
+        snapshots = new SnapshotCache(voteService, voteRates, textCodec, binaryCodec);
+        admission = new AdmissionControl(config, metrics, textCodec, binaryCodec);
+        broadcastScheduler = new BroadcastScheduler(this, config.getBroadcastTickMillis());
+        sessions = new SessionRegistry(TimeUnit.SECONDS.toMillis(config.getSessionTtlSeconds()));
+    }
+
+    private static VoteHistory createHistory(ServerConfig config) {
+        if (config.getHistorySpillFile() != null) {
+            try {
+                return new VoteHistory(config.getHistoryWindow(), config.getHistorySpillFile());
+            } catch (IOException e) {
+                Log.error("Cannot open history spill file, keeping history in memory only: {}", e.getMessage());
+            }
+        }
+        return new VoteHistory(config.getHistoryWindow());
     }
 
     public void start() {
         running = true;
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Voting Server started on port " + PORT);
-            System.out.println("Server is accepting multiple votes per client");
-            System.out.println("Waiting for client connections...");
-
-            while (running) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    ClientHandler clientHandler = new ClientHandler(clientSocket, voteService, this);
-                    clients.add(clientHandler);
-                    new Thread(clientHandler).start();
-                    System.out.println("New client connected. Total clients: " + clients.size());
-                } catch (IOException e) {
-                    System.err.println("Error accepting client connection: " + e.getMessage());
+        if (config.getWalDirectory() != null) {
+            voteLog = new VoteLog(config.getWalDirectory(), config.getWalGroupCommitMillis(),
+                    config.getWalMaxBatchRecords(), config.getWalSnapshotEvery(), config.getHistoryWindow());
+            try {
+                voteLog.open(voteService);
+                Log.info("Vote log: {}", config.getWalDirectory().toAbsolutePath());
+            } catch (IOException e) {
+                Log.error("Cannot open vote log: {}", e.getMessage());
+                return;
+            }
+        }
+        if (config.getJournalFile() != null) {
+            try {
+                voteJournal = VoteJournal.open(config.getJournalFile(), voteService.getVoters());
+                voteService.addListener(voteJournal);
+                Log.info("Vote journal: {} ({} records)", config.getJournalFile().toAbsolutePath(),
+                        voteJournal.getRecordCount());
+            } catch (IOException e) {
+                Log.error("Cannot open vote journal: {}", e.getMessage());
+                return;
+            }
+        }
+        if (config.getClusterNodes() != null) {
+            try {
+                // after recovery, so recovered choices the cluster log has no record of are counted
+                if (voteLog != null) {
+                    voteLog.awaitRecovery();
                 }
+                clusterNode = new ClusterNode(config, voteService, this);
+                voteService.setTallyAdjuster(clusterNode);
+                voteService.addListener(clusterNode);
+                clusterNode.start();
+            } catch (IOException | IllegalArgumentException e) {
+                Log.error("Cannot start cluster node: {}", e.getMessage());
+                return;
+            }
+        }
+        metrics.start();
+        sessions.start();
+        if (config.getMetricsPort() > 0) {
+            try {
+                metricsEndpoint = new MetricsEndpoint(this, config.getMetricsPort());
+                metricsEndpoint.start();
+                Log.info("Metrics: http://127.0.0.1:{}/metrics", metricsEndpoint.getPort());
+            } catch (IOException e) {
+                Log.error("Cannot start metrics endpoint: {}", e.getMessage());
+            }
+        }
+        engine = ConnectionEngine.create(config);
+        broadcastScheduler.start();
+        try {
+            Log.info("Voting Server started on port {} ({} engine)", config.getPort(), config.getEngine());
+            Log.info("Server is accepting multiple votes per client");
+            for (Election election : voteService.getElections().list()) {
+                Log.info("Election {}: {} {}", election.getId(), election.getName(), election.getOptions());
             }
+            Log.info("Waiting for client connections...");
+            engine.serve(new InetSocketAddress(config.getPort()), this);
         } catch (IOException e) {
-            System.err.println("Server error: " + e.getMessage());
+            if (running) {
+                Log.error("Server error: {}", e.getMessage());
+            }
         }
     }
 
-    public void broadcastResults() {
-        Map<String, Integer> results = voteService.getVoteResults();
-        StringBuilder resultMessage = new StringBuilder("RESULTS:");
-        results.forEach((option, count) ->
-                resultMessage.append(option).append(":").append(count).append(";")
-        );
+    public void stop() {
+        running = false;
+        if (engine != null) {
+            engine.shutdown();
+        }
+        broadcastScheduler.shutdown();
+        if (clusterNode != null) {
+            clusterNode.shutdown();
+        }
+        if (voteLog != null) {
+            voteLog.close();
+        }
+        if (voteJournal != null) {
+            voteJournal.close();
+        }
+        for (ClientHandler client : clients) {
+            client.disconnect();
+        }
+        if (metricsEndpoint != null) {
+            metricsEndpoint.stop();
+        }
+        metrics.shutdown();
+        sessions.shutdown();
+        Log.flush(1000);
+    }
+
+    @Override
+    public ClientHandler accept(ClientConnection connection, InetAddress address) {
+        AdmissionControl.Source source = admission.open(address);
+        if (address != null && source == null) {
+            Log.debug("Rejected connection from {}: too many connections", address);
+            return null;
+        }
+        OutboundQueue outbound = new OutboundQueue(config.getOutboundCapacity(), config.getOverflowPolicy());
+        ClientHandler clientHandler = new ClientHandler(connection, voteService, this, outbound, address, source);
+        clients.add(clientHandler);
+        audience(clientHandler.getElection()).add(clientHandler);
+        metrics.connectionAccepted();
+        if (Log.isDebugEnabled()) {
+            Log.debug("New client connected. Total clients: {}", clients.size());
+        }
+        return clientHandler;
+    }
 
-        System.out.println("Current Results: " + resultMessage);
-        System.out.println("Total Unique Voters: " + voteService.getTotalVotes());
+    private Set<ClientHandler> audience(Election election) {
+        return audiences.computeIfAbsent(election.getId(), id -> ConcurrentHashMap.newKeySet());
+    }
 
-        for (ClientHandler client : clients) {
-            client.sendMessage(resultMessage.toString());
+    void changeElection(ClientHandler client, Election previous, Election next) {
+        if (client.isRelay()) {
+            return; // in every audience already
         }
+        audience(previous).remove(client);
+        audience(next).add(client);
     }
 
-    public void broadcastVoteHistory() {
-        StringBuilder historyMessage = new StringBuilder("HISTORY:");
-        voteService.getVoteHistory().forEach(entry ->
-                historyMessage.append(entry).append("|")
-        );
+    /**
+     * Schedules a results broadcast for the election and a history broadcast for the next tick
+     * instead of sending inline.
+     */
+    public void voteRecorded(Election election) {
+        broadcastScheduler.markResultsDirty(election.getId());
+        broadcastScheduler.markHistoryDirty();
+    }
 
-        for (ClientHandler client : clients) {
-            client.sendMessage(historyMessage.toString());
+    /**
+     * The election's tally changed without a local vote, e.g. merged from a cluster peer.
+     */
+    void resultsChanged(int electionId) {
+        broadcastScheduler.markResultsDirty(electionId);
+    }
+
+    /**
+     * Sends an election's results to the clients that joined it.
+     */
+    public void broadcastResults(int electionId) {
+        long started = System.nanoTime();
+        Election election = voteService.getElections().get(electionId);
+        if (Log.isDebugEnabled()) {
+            Log.debug("Current Results ({}): {}, {} unique voters", election.getName(), election.getResults(),
+                    election.getVoterCount());
+        }
+
+        Frame textFrame = snapshots.results(election, textCodec);
+        Frame binaryFrame = snapshots.results(election, binaryCodec);
+        for (ClientHandler client : audience(election)) {
+            if (client.isHandshakeDone()) {
+                client.send(client.getCodec() == binaryCodec ? binaryFrame : textFrame);
+            }
+        }
+        metrics.resultsBroadcast(System.nanoTime() - started);
+    }
+
+    /**
+     * Sends only the entries recorded since the previous history broadcast.
+     */
+    public synchronized void broadcastVoteHistory() {
+        long started = System.nanoTime();
+        List<HistoryEntry> entries;
+        while (!(entries = voteService.getVoteHistory(lastBroadcastHistorySeq + 1, HISTORY_BROADCAST_PAGE)).isEmpty()) {
+            lastBroadcastHistorySeq = entries.get(entries.size() - 1).getSeq();
+
+            // appends are deltas, so unlike RESULTS they must never be conflated
+            Frame textFrame = textCodec.historyAppend(entries, lastBroadcastHistorySeq + 1);
+            Frame binaryFrame = binaryCodec.historyAppend(entries, lastBroadcastHistorySeq + 1);
+            for (ClientHandler client : clients) {
+                if (client.isHandshakeDone()) {
+                    client.send(client.getCodec() == binaryCodec ? binaryFrame : textFrame);
+                }
+            }
+        }
+        metrics.historyBroadcast(System.nanoTime() - started);
+    }
+
+    /**
+     * Subscribes a relay to the results of every election.
+     */
+    void addRelay(ClientHandler relay) {
+        for (Election election : voteService.getElections().list()) {
+            audience(election).add(relay);
         }
     }
 
     public void removeClient(ClientHandler client) {
-        clients.remove(client);
-        System.out.println("Client removed. Total clients: " + clients.size());
+        if (clients.remove(client)) {
+            admission.close(client.getAddress());
+        }
+        if (client.isRelay()) {
+            audiences.values().forEach(audience -> audience.remove(client));
+        }
+        audience(client.getElection()).remove(client);
+        if (Log.isDebugEnabled()) {
+            Log.debug("Client removed. Total clients: {}", clients.size());
+        }
+    }
+
+    /**
+     * Frames waiting to be written, per connected client id.
+     */
+    public Map<String, Integer> getOutboundBacklog() {
+        Map<String, Integer> backlog = new HashMap<>();
+        for (ClientHandler client : clients) {
+            if (client.getClientId() != null) {
+                backlog.put(client.getClientId(), client.getOutboundDepth());
+            }
+        }
+        return backlog;
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * False while a restarted cluster node has yet to learn its own counters from a peer.
+     */
+    public boolean isAcceptingVotes() {
+        ClusterNode cluster = clusterNode;
+        return cluster == null || cluster.isSynced();
+    }
+
+    /**
+     * This server's cluster node, or null when it runs standalone.
+     */
+    public ClusterNode getClusterNode() {
+        return clusterNode;
+    }
+
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    public SessionRegistry getSessions() {
+        return sessions;
+    }
+
+    @Override
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    public SnapshotCache getSnapshots() {
+        return snapshots;
+    }
+
+    public VoteRates getVoteRates() {
+        return voteRates;
+    }
+
+    public TextCodec getTextCodec() {
+        return textCodec;
+    }
+
+    public BinaryCodec getBinaryCodec() {
+        return binaryCodec;
+    }
+
+    public VoteService getVoteService() {
+        return voteService;
     }
 
     public static void main(String[] args) {
         VotingServer server = new VotingServer();
+        // a terminated server closes its vote log cleanly, so the next start replays nothing
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "shutdown"));
         server.start();
     }
-}
\ No newline at end of file
+}
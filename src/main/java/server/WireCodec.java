@@ -0,0 +1,39 @@
+package server;
+
+import java.util.List;
+
+/**
+ * Encodes server messages for one wire protocol. Broadcasts encode once per codec, not per client.
+ */
+public interface WireCodec {
+    Frame elections(List<Election> elections);
+
+    Frame options(Election election);
+
+    Frame results(Election election, TallySnapshot tallies);
+
+    /**
+     * Reply to a rates query: the election's vote velocity and trend series.
+     */
+    Frame rates(Election election, VoteRates.Snapshot rates);
+
+    Frame historyAppend(List<HistoryEntry> entries, long nextSeq);
+
+    Frame historyPage(List<HistoryEntry> entries, long nextSeq);
+
+    Frame voteAccepted(Election election, int optionId);
+
+    Frame batchResult(Election election, BatchResult result);
+
+    Frame error(String message);
+
+    /**
+     * The session token to resume with, first thing after the handshake.
+     */
+    Frame session(String token, boolean resumed);
+
+    /**
+     * The reply tagged with the id of the request it answers. Tagged frames never coalesce.
+     */
+    Frame correlate(long requestId, Frame reply);
+}
@@ -0,0 +1,70 @@
+package client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A results feed of 5,000 messages a second against a stand-in for the FX thread, without a
+ * toolkit: the UI queue must never hold more than one flush, renders stay at frame rate, and
+ * the last result posted is the one shown.
+ */
+class UpdateCoalescerTest {
+    private static final int MESSAGES_PER_SECOND = 5_000;
+    private static final long FEED_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    @Test
+    void fastFeedKeepsTheUiQueueShallow() throws Exception {
+        ExecutorService uiThread = Executors.newSingleThreadExecutor(r -> new Thread(r, "fake-fx"));
+        AtomicInteger queued = new AtomicInteger();
+        AtomicInteger maxQueued = new AtomicInteger();
+        AtomicLong shown = new AtomicLong(-1);
+        AtomicInteger renders = new AtomicInteger();
+        UpdateCoalescer updates = new UpdateCoalescer(task -> {
+            maxQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+            uiThread.execute(() -> {
+                queued.decrementAndGet();
+                task.run();
+            });
+        }, UpdateCoalescer.FRAME_NANOS, () -> {
+            renders.incrementAndGet();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2)); // a render that takes its time
+        });
+
+        long start = System.nanoTime();
+        long sent = 0;
+        long elapsed;
+        while ((elapsed = System.nanoTime() - start) < FEED_NANOS) {
+            // catch up to the rate whatever the timer granularity
+            long due = elapsed * MESSAGES_PER_SECOND / TimeUnit.SECONDS.toNanos(1);
+            for (; sent < due; sent++) {
+                long value = sent;
+                updates.post("RESULTS", () -> shown.set(value));
+            }
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(200));
+        }
+        long last = sent - 1;
+        uiThread.submit(() -> { }).get(); // let a flush already queued run
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (shown.get() != last && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        uiThread.shutdown();
+
+        assertTrue(sent >= MESSAGES_PER_SECOND, "sent " + sent);
+        assertEquals(sent, updates.getPostedCount());
+        assertEquals(last, shown.get());
+        assertTrue(maxQueued.get() <= 1, "UI queue reached " + maxQueued.get());
+        long frames = (System.nanoTime() - start) / UpdateCoalescer.FRAME_NANOS;
+        assertTrue(renders.get() <= frames + 2, renders.get() + " renders in " + frames + " frames");
+        assertEquals(renders.get(), updates.getFlushCount());
+    }
+}
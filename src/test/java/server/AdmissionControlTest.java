@@ -0,0 +1,33 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * An address's request budget must survive its connections closing, or reconnecting refills it.
+ */
+class AdmissionControlTest {
+    @Test
+    void reconnectingKeepsTheAddressBudget() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setAddressRequestRate(0.01);
+        config.setAddressRequestBurst(2);
+        AdmissionControl admission = new AdmissionControl(config, new ServerMetrics(), new TextCodec(), new BinaryCodec());
+        InetAddress address = InetAddress.getByName("192.0.2.1");
+
+        AdmissionControl.Source source = admission.open(address);
+        assertTrue(admission.admit(null, source, 2));
+        admission.close(address);
+        assertEquals(0, admission.getConnectionCount());
+        assertEquals(1, admission.getAddressCount());
+
+        AdmissionControl.Source reopened = admission.open(address);
+        assertFalse(admission.admit(null, reopened, 1));
+        admission.close(address);
+    }
+}
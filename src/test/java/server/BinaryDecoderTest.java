@@ -0,0 +1,82 @@
+package server;
+
+import common.BinaryProtocol;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Frame lengths are checked as soon as the header is in, before any body is buffered.
+ */
+class BinaryDecoderTest {
+    private final List<ByteBuffer> frames = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+    private final BinaryDecoder.Sink sink = new BinaryDecoder.Sink() {
+        @Override
+        public void onFrame(ByteBuffer frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        public void protocolError(String message) {
+            errors.add(message);
+        }
+    };
+
+    @Test
+    void oversizedHeaderIsRefusedBeforeItsBody() {
+        // about 2 GB, trickled in a byte at a time
+        byte[] header = {(byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07};
+        BinaryDecoder decoder = new BinaryDecoder();
+        for (byte b : header) {
+            decoder.decode(ByteBuffer.wrap(new byte[] {b}), sink);
+        }
+        assertEquals(List.of("Invalid frame length " + 0x7ffffffe), errors);
+        assertTrue(frames.isEmpty());
+    }
+
+    @Test
+    void lengthOneOverTheMaximumIsRefused() {
+        ByteBuffer header = ByteBuffer.allocate(BinaryProtocol.MAX_LENGTH_BYTES);
+        int length = BinaryProtocol.MAX_FRAME_LENGTH + 1;
+        while ((length & ~0x7f) != 0) {
+            header.put((byte) ((length & 0x7f) | 0x80));
+            length >>>= 7;
+        }
+        header.put((byte) length).flip();
+        new BinaryDecoder().decode(header, sink);
+        assertEquals(List.of("Invalid frame length " + (BinaryProtocol.MAX_FRAME_LENGTH + 1)), errors);
+    }
+
+    @Test
+    void unterminatedLengthIsMalformed() {
+        BinaryDecoder decoder = new BinaryDecoder();
+        decoder.decode(ByteBuffer.wrap(new byte[] {(byte) 0x80, (byte) 0x80}), sink);
+        assertTrue(errors.isEmpty());
+        decoder.decode(ByteBuffer.wrap(new byte[] {(byte) 0x80, (byte) 0x80, (byte) 0x80}), sink);
+        assertEquals(List.of("Malformed frame length"), errors);
+    }
+
+    @Test
+    void zeroLengthIsRefused() {
+        new BinaryDecoder().decode(ByteBuffer.wrap(new byte[] {0}), sink);
+        assertEquals(List.of("Invalid frame length 0"), errors);
+    }
+
+    @Test
+    void frameSplitAcrossReadsIsReassembled() {
+        BinaryDecoder decoder = new BinaryDecoder();
+        decoder.decode(ByteBuffer.wrap(new byte[] {3, BinaryProtocol.VOTE}), sink);
+        assertTrue(frames.isEmpty());
+        decoder.decode(ByteBuffer.wrap(new byte[] {1, 2}), sink);
+        assertTrue(errors.isEmpty());
+        assertEquals(1, frames.size());
+        assertEquals(3, frames.get(0).remaining());
+        assertEquals(BinaryProtocol.VOTE, frames.get(0).get());
+    }
+}
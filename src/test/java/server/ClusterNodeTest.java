@@ -0,0 +1,122 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two cluster nodes on loopback, one of them restarted while the other keeps running.
+ */
+class ClusterNodeTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void restartFromTheVoteLogKeepsEveryVote() throws Exception {
+        ServerConfig[] configs = configs(true);
+        VotingServer node0 = TestServers.start(configs[0]);
+        VotingServer node1 = TestServers.start(configs[1]);
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertEquals("VOTE_ACCEPTED:Option A", voteWhenAccepted(configs[0], "a" + i, "Option A"));
+                assertEquals("VOTE_ACCEPTED:Option B", voteWhenAccepted(configs[1], "b" + i, "Option B"));
+            }
+            awaitResults(5, 5, node0, node1);
+
+            node0.stop();
+            node0 = TestServers.start(configs[0]);
+            // its own counters come from the cluster log, not from a peer
+            assertTrue(node0.isAcceptingVotes());
+            VotingServer restarted = node0;
+            TestServers.await("peers reconnected", () -> restarted.getClusterNode().getConnectedPeers() == 1
+                    && node1.getClusterNode().getConnectedPeers() == 1);
+            Thread.sleep(10 * configs[0].getClusterGossipMillis());
+            awaitResults(5, 5, node0, node1);
+
+            assertEquals("VOTE_ACCEPTED:Option A", vote(configs[0], "a5", "Option A"));
+            // a voter moving to the other node is counted once
+            assertEquals("VOTE_ACCEPTED:Option A", vote(configs[0], "b0", "Option A"));
+            awaitResults(7, 4, node0, node1);
+        } finally {
+            node0.stop();
+            node1.stop();
+        }
+    }
+
+    @Test
+    void nodeWithoutLogWaitsForItsCounters() throws Exception {
+        ServerConfig[] configs = configs(false);
+        VotingServer node0 = TestServers.start(configs[0]);
+        VotingServer node1 = null;
+        try {
+            assertFalse(node0.isAcceptingVotes());
+            assertEquals("ERROR: Not accepting votes yet, try again", vote(configs[0], "early", "Option A"));
+
+            node1 = TestServers.start(configs[1]);
+            for (int i = 0; i < 3; i++) {
+                assertEquals("VOTE_ACCEPTED:Option A", voteWhenAccepted(configs[0], "a" + i, "Option A"));
+            }
+            for (int i = 0; i < 2; i++) {
+                assertEquals("VOTE_ACCEPTED:Option B", voteWhenAccepted(configs[1], "b" + i, "Option B"));
+            }
+            awaitResults(3, 2, node0, node1);
+
+            node0.stop();
+            node0 = TestServers.start(configs[0]);
+            // cast while the restarted node catches up: it must not be absorbed by the counters it gets back
+            assertEquals("VOTE_ACCEPTED:Option A", voteWhenAccepted(configs[0], "a3", "Option A"));
+            awaitResults(4, 2, node0, node1);
+        } finally {
+            node0.stop();
+            if (node1 != null) {
+                node1.stop();
+            }
+        }
+    }
+
+    private ServerConfig[] configs(boolean voteLog) throws IOException {
+        String nodes = "127.0.0.1:" + TestServers.freePort() + ",127.0.0.1:" + TestServers.freePort();
+        ServerConfig[] configs = new ServerConfig[2];
+        for (int node = 0; node < configs.length; node++) {
+            configs[node] = TestServers.config();
+            configs[node].setClusterNodes(nodes);
+            configs[node].setClusterNodeId(node);
+            if (voteLog) {
+                configs[node].setWalDirectory(directory.resolve("node" + node));
+            }
+        }
+        return configs;
+    }
+
+    private static String vote(ServerConfig config, String clientId, String option) throws IOException {
+        try (TextClient client = new TextClient(config.getPort(), clientId)) {
+            client.send("VOTE:" + option);
+            return client.await("VOTE_ACCEPTED", "ERROR");
+        }
+    }
+
+    private static String voteWhenAccepted(ServerConfig config, String clientId, String option) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        String reply;
+        while ((reply = vote(config, clientId, option)).startsWith("ERROR") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        return reply;
+    }
+
+    private static void awaitResults(int optionA, int optionB, VotingServer... servers) throws InterruptedException {
+        for (VotingServer server : servers) {
+            TestServers.await("A:" + optionA + " B:" + optionB, () -> {
+                Map<String, Integer> results = server.getVoteService().getVoteResults();
+                return results.get("Option A") == optionA && results.get("Option B") == optionB;
+            });
+        }
+    }
+}
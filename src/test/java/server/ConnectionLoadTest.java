@@ -0,0 +1,102 @@
+package server;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Holds {@code voting.loadtest.connections} (50,000 by default) idle, handshaken clients on one
+ * server, with each engine, and checks that a sample of them can still vote. Client and server
+ * share this JVM, so it needs two descriptors per connection; below that it is skipped, and a
+ * smaller run can be asked for with {@code -Dvoting.loadtest.connections=...}.
+ */
+class ConnectionLoadTest {
+    private static final int CONNECTIONS = Integer.getInteger("voting.loadtest.connections", 50_000);
+    private static final int SAMPLE = 100;
+
+    @ParameterizedTest
+    @ValueSource(strings = {ServerConfig.ENGINE_VIRTUAL, ServerConfig.ENGINE_NIO})
+    void holdsConcurrentConnections(String engine) throws Exception {
+        long descriptors = openFileLimit();
+        assumeTrue(descriptors >= 2L * CONNECTIONS + 1000,
+                "needs " + (2L * CONNECTIONS + 1000) + " file descriptors, the limit is " + descriptors);
+        long baseline = openDescriptors();
+        ServerConfig config = TestServers.config();
+        config.setEngine(engine);
+        VotingServer server = TestServers.start(config);
+        List<SocketChannel> clients = new ArrayList<>(CONNECTIONS);
+        try {
+            for (int i = 0; i < CONNECTIONS; i++) {
+                SocketChannel client = SocketChannel.open();
+                // one loopback source address has fewer ephemeral ports than connections
+                client.bind(new InetSocketAddress("127.0.0." + (1 + i % 8), 0));
+                client.connect(new InetSocketAddress("127.0.0.1", config.getPort()));
+                client.write(ByteBuffer.wrap(("load-" + i + ":load-" + i + "\n").getBytes(StandardCharsets.UTF_8)));
+                clients.add(client);
+            }
+            TestServers.await(CONNECTIONS + " clients", () -> server.getClientCount() == CONNECTIONS);
+
+            for (int i = 0; i < SAMPLE; i++) {
+                SocketChannel client = clients.get(i * (CONNECTIONS / SAMPLE));
+                client.write(ByteBuffer.wrap("VOTE:Option A\n".getBytes(StandardCharsets.UTF_8)));
+                BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client),
+                        StandardCharsets.UTF_8));
+                String line;
+                do {
+                    line = in.readLine();
+                } while (line != null && !line.startsWith("VOTE_ACCEPTED") && !line.startsWith("ERROR"));
+                assertEquals("VOTE_ACCEPTED:Option A", line);
+            }
+            assertEquals(Integer.valueOf(SAMPLE), server.getVoteService().getVoteResults().get("Option A"));
+            assertEquals(CONNECTIONS, server.getClientCount(), "no client was dropped");
+        } finally {
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+            server.stop();
+        }
+        TestServers.await("disconnects", () -> server.getClientCount() == 0);
+        assertTrue(server.getMetrics().getConnectionsAccepted() >= CONNECTIONS);
+        // the server closes its side asynchronously, but must close every one of them
+        TestServers.await("descriptors released", () -> openDescriptors() < baseline + 100);
+    }
+
+    private static long openDescriptors() {
+        try (Stream<Path> open = Files.list(Path.of("/proc/self/fd"))) {
+            return open.count();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long openFileLimit() throws IOException {
+        Path limits = Path.of("/proc/self/limits");
+        if (!Files.exists(limits)) {
+            return Long.MAX_VALUE; // not Linux; let the test find out
+        }
+        for (String line : Files.readAllLines(limits)) {
+            if (line.startsWith("Max open files")) {
+                String soft = line.substring("Max open files".length()).trim().split("\\s+")[0];
+                return soft.equals("unlimited") ? Long.MAX_VALUE : Long.parseLong(soft);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
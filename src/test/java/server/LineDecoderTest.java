@@ -0,0 +1,93 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * A text client that never sends a newline is cut off at {@link LineDecoder#MAX_LINE_LENGTH}
+ * instead of growing the server's buffer.
+ */
+class LineDecoderTest {
+    @Test
+    void linesSplitAcrossReads() {
+        LineDecoder decoder = new LineDecoder();
+        assertNull(decoder.next(ascii("VOTE:Opt")));
+        ByteBuffer rest = ascii("ion A\r\nGET_RESULTS\n");
+        assertEquals("VOTE:Option A", decoder.next(rest));
+        assertEquals("GET_RESULTS", decoder.next(rest));
+        assertNull(decoder.next(rest));
+    }
+
+    @Test
+    void overlongLineIsRefused() {
+        LineDecoder decoder = new LineDecoder();
+        ByteBuffer chunk = ByteBuffer.wrap(new byte[64 * 1024]);
+        assertThrows(IllegalArgumentException.class, () -> {
+            for (int sent = 0; sent <= LineDecoder.MAX_LINE_LENGTH; sent += chunk.capacity()) {
+                decoder.next(chunk.clear());
+            }
+        });
+    }
+
+    @Test
+    void serverClosesAConnectionThatNeverEndsItsLine() throws Exception {
+        ServerConfig config = TestServers.config();
+        VotingServer server = TestServers.start(config);
+        try (Socket socket = new Socket("127.0.0.1", config.getPort())) {
+            socket.setSoTimeout(10_000);
+            OutputStream out = socket.getOutputStream();
+            out.write("flood:flood\n".getBytes(StandardCharsets.UTF_8));
+            byte[] chunk = new byte[64 * 1024];
+            Arrays.fill(chunk, (byte) 'x');
+            try {
+                for (int sent = 0; sent <= 2 * LineDecoder.MAX_LINE_LENGTH; sent += chunk.length) {
+                    out.write(chunk);
+                }
+            } catch (IOException closed) {
+                // the server hung up part way, as it should
+            }
+            assertEquals(-1, drain(socket.getInputStream()));
+
+            // and it still serves everyone else
+            try (TextClient client = new TextClient(config.getPort(), "after")) {
+                client.send("VOTE:Option A");
+                assertEquals("VOTE_ACCEPTED:Option A", client.await("VOTE_ACCEPTED", "ERROR"));
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Reads until the server closes: -1, or a timeout propagates.
+     */
+    private static int drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        try {
+            while (in.read(buffer) >= 0) {
+                // session, options, results, history
+            }
+            return -1;
+        } catch (SocketTimeoutException e) {
+            throw e;
+        } catch (IOException reset) {
+            return -1; // a reset is a close too
+        }
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,59 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * A server feeding a relay that feeds another relay, all on loopback: votes travel up both
+ * tiers, results come back down to the clients of each.
+ */
+class RelayTest {
+    private static final String SECRET = "relay-secret";
+
+    @Test
+    void votesAndResultsCrossTwoTiers() throws Exception {
+        ServerConfig config = TestServers.config();
+        config.setRelaySecret(SECRET);
+        VotingServer server = TestServers.start(config);
+        ServerConfig firstTier = relayConfig(config.getPort());
+        RelayServer relay1 = TestServers.startRelay(firstTier);
+        ServerConfig secondTier = relayConfig(firstTier.getPort());
+        RelayServer relay2 = TestServers.startRelay(secondTier);
+        try (TextClient edge = new TextClient(secondTier.getPort(), "edge");
+             TextClient middle = new TextClient(firstTier.getPort(), "middle");
+             TextClient direct = new TextClient(config.getPort(), "direct")) {
+            edge.send("VOTE:Option A");
+            assertEquals("VOTE_ACCEPTED:Option A", edge.await("VOTE_ACCEPTED", "ERROR"));
+            TestServers.await("edge vote counted upstream",
+                    () -> server.getVoteService().getVoteResults().get("Option A") == 1);
+
+            middle.send("VOTE:Option B");
+            assertEquals("VOTE_ACCEPTED:Option B", middle.await("VOTE_ACCEPTED", "ERROR"));
+            direct.send("VOTE:Option C");
+            assertEquals("VOTE_ACCEPTED:Option C", direct.await("VOTE_ACCEPTED", "ERROR"));
+
+            String expected = "Option A:1;Option B:1;Option C:1";
+            edge.awaitResults(expected);
+            middle.awaitResults(expected);
+            direct.awaitResults(expected);
+
+            // a vote changed through the second tier moves the count everywhere
+            edge.send("VOTE:Option C");
+            assertEquals("VOTE_ACCEPTED:Option C", edge.await("VOTE_ACCEPTED", "ERROR"));
+            direct.awaitResults("Option A:0;Option B:1;Option C:2");
+            edge.awaitResults("Option A:0;Option B:1;Option C:2");
+        } finally {
+            relay2.stop();
+            relay1.stop();
+            server.stop();
+        }
+    }
+
+    private static ServerConfig relayConfig(int upstreamPort) throws Exception {
+        ServerConfig config = TestServers.config();
+        config.setRelayUpstream("127.0.0.1:" + upstreamPort);
+        config.setRelaySecret(SECRET);
+        return config;
+    }
+}
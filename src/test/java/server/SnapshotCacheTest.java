@@ -0,0 +1,45 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The cached history page follows a reset back to sequence 1 and a change of page size.
+ */
+class SnapshotCacheTest {
+    private final VoteService voteService = new VoteService();
+    private final TextCodec textCodec = new TextCodec();
+    private final SnapshotCache snapshots = new SnapshotCache(voteService,
+            new VoteRates(voteService.getElections()), textCodec, new BinaryCodec());
+
+    @Test
+    void historyPageFollowsResetAndLimit() {
+        for (int i = 0; i < 5; i++) {
+            voteService.castVote("voter" + i, "voter" + i, "Option A");
+        }
+        assertEquals("HISTORY_PAGE:1|", prefix(page(10)));
+        assertEquals(5, entries(page(10)));
+        assertEquals("HISTORY_PAGE:4|", prefix(page(2)));
+        assertEquals(2, entries(page(2)));
+
+        voteService.resetVotes();
+        voteService.castVote("late", "late", "Option B");
+        assertEquals("HISTORY_PAGE:1|", prefix(page(10)));
+        assertEquals(1, entries(page(10)));
+    }
+
+    private String page(int limit) {
+        return StandardCharsets.UTF_8.decode(snapshots.recentHistory(limit, textCodec).buffer()).toString().trim();
+    }
+
+    private static String prefix(String page) {
+        return page.substring(0, page.indexOf('|') + 1);
+    }
+
+    private static int entries(String page) {
+        return page.split("\\|").length - 1;
+    }
+}
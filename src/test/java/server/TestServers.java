@@ -0,0 +1,74 @@
+package server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Servers on loopback ports for the tests.
+ */
+final class TestServers {
+    private TestServers() {
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    /**
+     * A config on a free port, without the per-client rate limit, which tests would trip.
+     */
+    static ServerConfig config() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setPort(freePort());
+        config.setClientRequestRate(0);
+        return config;
+    }
+
+    static VotingServer start(ServerConfig config) throws InterruptedException {
+        VotingServer server = new VotingServer(config);
+        Thread thread = new Thread(server::start, "test-server-" + config.getPort());
+        thread.setDaemon(true);
+        thread.start();
+        awaitListening(config.getPort());
+        return server;
+    }
+
+    static RelayServer startRelay(ServerConfig config) throws InterruptedException {
+        RelayServer relay = new RelayServer(config);
+        Thread thread = new Thread(relay::start, "test-relay-" + config.getPort());
+        thread.setDaemon(true);
+        thread.start();
+        awaitListening(config.getPort());
+        return relay;
+    }
+
+    static void awaitListening(int port) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket probe = new Socket("127.0.0.1", port)) {
+                probe.shutdownOutput();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+        throw new IllegalStateException("Nothing listening on port " + port);
+    }
+
+    /**
+     * Polls until the condition holds, failing after ten seconds.
+     */
+    static void await(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Timed out waiting for " + what);
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A blocking client speaking the text protocol, for tests.
+ */
+final class TextClient implements AutoCloseable {
+    private final Socket socket;
+    private final OutputStream out;
+    private final BufferedReader in;
+
+    TextClient(int port, String clientId) throws IOException {
+        this(port);
+        send(clientId + ":" + clientId);
+    }
+
+    private TextClient(int port) throws IOException {
+        socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout(10_000);
+        out = socket.getOutputStream();
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A client that connects with the given handshake line, e.g. a KIOSK one.
+     */
+    static TextClient withHandshake(int port, String handshake) throws IOException {
+        TextClient client = new TextClient(port);
+        client.send(handshake);
+        return client;
+    }
+
+    void send(String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * Skips lines until one starts with any of the {@code prefixes} and returns it.
+     */
+    String await(String... prefixes) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            for (String prefix : prefixes) {
+                if (line.startsWith(prefix)) {
+                    return line;
+                }
+            }
+        }
+        throw new IOException("Connection closed before " + String.join(" or ", prefixes));
+    }
+
+    /**
+     * Skips lines until a RESULTS line contains {@code expected}, e.g. "Option A:2;".
+     */
+    String awaitResults(String expected) throws IOException {
+        String line;
+        do {
+            line = await("RESULTS");
+        } while (!line.contains(expected));
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,77 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Vote batches cast votes for other voters, so a server and a relay only take them from kiosks.
+ */
+class VoteBatchTest {
+    private static final String KIOSK_SECRET = "kiosk-secret";
+    private static final String BATCH = "VOTE_BATCH:k1=Option A;k2=Option B";
+
+    @Test
+    void onlyKiosksMaySendBatches() throws Exception {
+        ServerConfig config = TestServers.config();
+        config.setKioskSecret(KIOSK_SECRET);
+        VotingServer server = TestServers.start(config);
+        try {
+            assertRefused(config.getPort());
+            assertEquals("BATCH_RESULT:2|", kioskBatch(config.getPort()));
+            Map<String, Integer> results = server.getVoteService().getVoteResults();
+            assertEquals(1, results.get("Option A"));
+            assertEquals(1, results.get("Option B"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void relayOnlyForwardsBatchesFromKiosks() throws Exception {
+        ServerConfig config = TestServers.config();
+        config.setRelaySecret("relay-secret");
+        VotingServer server = TestServers.start(config);
+        ServerConfig relayConfig = TestServers.config();
+        relayConfig.setRelayUpstream("127.0.0.1:" + config.getPort());
+        relayConfig.setRelaySecret("relay-secret");
+        relayConfig.setKioskSecret(KIOSK_SECRET);
+        RelayServer relay = TestServers.startRelay(relayConfig);
+        try {
+            assertRefused(relayConfig.getPort());
+            // upstream has no kiosk secret of its own; it takes the batch because the relay does
+            assertEquals("BATCH_RESULT:2|", kioskBatch(relayConfig.getPort()));
+            assertEquals(2, server.getVoteService().getElections().getDefault().getVoterCount());
+        } finally {
+            relay.stop();
+            server.stop();
+        }
+    }
+
+    private static void assertRefused(int port) throws Exception {
+        try (TextClient client = new TextClient(port, "plain")) {
+            client.send(BATCH);
+            assertEquals("ERROR: Vote batches need a kiosk connection", client.await("BATCH_RESULT", "ERROR"));
+        }
+        try (TextClient client = TextClient.withHandshake(port, "KIOSK:wrong:kiosk:kiosk")) {
+            String reply;
+            try {
+                reply = client.await("SESSION", "ERROR");
+            } catch (IOException closed) {
+                reply = "ERROR"; // the close can overtake the error line
+            }
+            assertTrue(reply.startsWith("ERROR"), reply);
+        }
+    }
+
+    private static String kioskBatch(int port) throws Exception {
+        try (TextClient client = TextClient.withHandshake(port, "KIOSK:" + KIOSK_SECRET + ":kiosk:kiosk")) {
+            client.send(BATCH);
+            return client.await("BATCH_RESULT", "ERROR");
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VoteHistoryTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsOnlyTheWindowWithoutSpill() {
+        VoteHistory history = new VoteHistory(10);
+        for (int i = 1; i <= 25; i++) {
+            history.append(i, "voter-" + i);
+        }
+        List<HistoryEntry> entries = history.read(1, 100);
+        assertEquals(10, entries.size());
+        assertEquals(16, entries.get(0).getSeq());
+        assertEquals("voter-16", entries.get(0).getClientName());
+        assertEquals(10, history.getRetainedCount());
+    }
+
+    @Test
+    void spilledEntriesKeepTheirNames() throws IOException {
+        VoteHistory history = new VoteHistory(10, directory.resolve("history.spill"));
+        int count = 5000; // several spill batches, the last one still buffered
+        for (int i = 1; i <= count; i++) {
+            history.append(i, name(i));
+        }
+        List<HistoryEntry> entries = history.read(1, count);
+        assertEquals(count, entries.size());
+        for (HistoryEntry entry : entries) {
+            assertEquals(entry.getSeq(), entry.getTimestamp());
+            assertEquals(name((int) entry.getSeq()), entry.getClientName());
+        }
+        history.close();
+    }
+
+    @Test
+    void concurrentAppendsAreAllSpilled() throws Exception {
+        VoteHistory history = new VoteHistory(64, directory.resolve("history.spill"));
+        int threads = 4;
+        int perThread = 5000;
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    long seq = history.append(System.nanoTime(), "pending");
+                    assertTrue(seq > 0);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        int count = threads * perThread;
+        assertEquals(count, history.getLatestSeq());
+        List<HistoryEntry> entries = history.read(1, count);
+        assertEquals(count, entries.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + 1, entries.get(i).getSeq());
+            assertEquals("pending", entries.get(i).getClientName());
+        }
+        history.close();
+    }
+
+    @Test
+    void clearForgetsEverything() throws IOException {
+        VoteHistory history = new VoteHistory(4, directory.resolve("history.spill"));
+        for (int i = 1; i <= 3000; i++) {
+            history.append(i, name(i));
+        }
+        history.clear();
+        assertTrue(history.read(1, 10).isEmpty());
+        history.append(7, "after");
+        for (int i = 0; i < 2000; i++) {
+            history.append(8 + i, name(i));
+        }
+        assertEquals("after", history.read(1, 1).get(0).getClientName());
+        history.close();
+    }
+
+    private static String name(int i) {
+        // names of different lengths, some multi-byte
+        return "voter-" + i + "-é".repeat(i % 7);
+    }
+}
@@ -0,0 +1,98 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VoteJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void voterIdsMayContainNewlines() throws IOException {
+        Path path = directory.resolve("votes.journal");
+        VoterRegistry voters = new VoterRegistry();
+        VoteJournal journal = VoteJournal.open(path, voters);
+        vote(journal, voters, "kiosk\nvoter", 0);
+        vote(journal, voters, "plain", 1);
+        vote(journal, voters, "kiosk\nvoter", 2);
+        journal.close();
+
+        assertEquals(List.of("kiosk\nvoter", "plain"), JournalScanner.readVoters(path));
+        assertEquals(List.of("kiosk\nvoter", "plain", "kiosk\nvoter"), votersOf(path));
+    }
+
+    @Test
+    void reopenedJournalKeepsIndexes() throws IOException {
+        Path path = directory.resolve("votes.journal");
+        VoterRegistry voters = new VoterRegistry();
+        VoteJournal journal = VoteJournal.open(path, voters);
+        vote(journal, voters, "a", 0);
+        vote(journal, voters, "b", 0);
+        journal.close();
+
+        // a restarted server interns voters in a different order
+        VoterRegistry restarted = new VoterRegistry();
+        restarted.intern("c");
+        journal = VoteJournal.open(path, restarted);
+        vote(journal, restarted, "c", 1);
+        journal.onVote(System.currentTimeMillis(), 0, restarted.intern("b"), "b", "b", 1, 0, 0);
+        journal.close();
+
+        assertEquals(List.of("a", "b", "c"), JournalScanner.readVoters(path));
+        assertEquals(List.of("a", "b", "c", "b"), votersOf(path));
+        assertArrayEquals(new long[] {1, 2}, JournalScanner.rebuildTallies(path, 0, 2));
+    }
+
+    @Test
+    void entryCutShortByACrashIsDropped() throws IOException {
+        Path path = directory.resolve("votes.journal");
+        VoterRegistry voters = new VoterRegistry();
+        VoteJournal journal = VoteJournal.open(path, voters);
+        vote(journal, voters, "a", 0);
+        journal.close();
+        Files.write(VoteJournal.dictionaryPath(path), new byte[] {0, 0, 0, 9, 'x'}, StandardOpenOption.APPEND);
+
+        voters = new VoterRegistry();
+        journal = VoteJournal.open(path, voters);
+        vote(journal, voters, "b", 0);
+        journal.close();
+
+        assertEquals(List.of("a", "b"), JournalScanner.readVoters(path));
+    }
+
+    @Test
+    void legacyDictionaryIsMigrated() throws IOException {
+        Path path = directory.resolve("votes.journal");
+        Files.writeString(VoteJournal.legacyDictionaryPath(path), "a\nb\n", StandardCharsets.UTF_8);
+        VoterRegistry voters = new VoterRegistry();
+        VoteJournal journal = VoteJournal.open(path, voters);
+        vote(journal, voters, "b", 0);
+        vote(journal, voters, "c", 0);
+        journal.close();
+
+        assertEquals(List.of("a", "b", "c"), JournalScanner.readVoters(path));
+        assertEquals(List.of("b", "c"), votersOf(path));
+    }
+
+    private static void vote(VoteJournal journal, VoterRegistry voters, String clientId, int optionId) {
+        journal.onVote(System.currentTimeMillis(), 0, voters.intern(clientId), clientId, clientId, optionId, -1, 0);
+    }
+
+    private static List<String> votersOf(Path path) throws IOException {
+        List<String> dictionary = JournalScanner.readVoters(path);
+        List<String> voters = new ArrayList<>();
+        JournalScanner.scan(path, (timestamp, voter, election, option, previousOption) -> voters.add(dictionary.get(voter)));
+        return voters;
+    }
+}
@@ -0,0 +1,180 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Votes survive a restart: from the snapshot a clean close leaves, from the segments a killed
+ * server leaves, with a record torn at the tail, and from a snapshot in the older VOT3 layout.
+ */
+class VoteLogTest {
+    private static final String ELECTIONS = "General=Option A,Option B,Option C;Budget=Yes,No";
+    private static final int WINDOW = 100;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void cleanCloseRestoresFromTheSnapshot() throws IOException {
+        Path logDirectory = directory.resolve("log");
+        VoteLog log = new VoteLog(logDirectory, 0, 100, 0, WINDOW);
+        VoteService service = open(log);
+        vote(service, 0, "alice", 0);
+        vote(service, 0, "bob", 1);
+        vote(service, 1, "alice", 1);
+        vote(service, 0, "alice", 2); // changed
+        log.close();
+        assertEquals(List.of("snapshot.bin"), files(logDirectory));
+
+        VoteLog reopened = new VoteLog(logDirectory, 0, 100, 0, WINDOW);
+        VoteService restored = open(reopened);
+        reopened.awaitRecovery(); // nothing to replay, so the voters load in the background
+        try {
+            assertEquals(Map.of("Option A", 0, "Option B", 1, "Option C", 1), restored.getVoteResults(0));
+            assertEquals(Map.of("Yes", 0, "No", 1), restored.getVoteResults(1));
+            assertEquals("Option C", restored.getClientVote(0, "alice"));
+            assertEquals("Option B", restored.getClientVote(0, "bob"));
+            assertEquals("No", restored.getClientVote(1, "alice"));
+            assertNull(restored.getClientVote(1, "bob"));
+            assertHistory(restored, "alice", "bob", "alice", "alice");
+
+            // and it logs on where it left off
+            vote(restored, 0, "carol", 0);
+            assertEquals(5, restored.getLatestHistorySeq());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void killedServerReplaysItsSegmentsUpToATornRecord() throws IOException {
+        Path logDirectory = directory.resolve("log");
+        // a snapshot every 4 records, so the restart reads a snapshot and replays segments after it
+        VoteLog log = new VoteLog(logDirectory, 0, 100, 4, WINDOW);
+        VoteService service = open(log);
+        for (int i = 0; i < 9; i++) {
+            vote(service, 0, "voter" + i, i % 3);
+        }
+        vote(service, 0, "voter0", 1); // the last record, which the crash tears
+
+        // what a kill -9 leaves on disk: everything synced, nothing folded into a snapshot
+        Path crashed = directory.resolve("crashed");
+        copy(logDirectory, crashed);
+        log.close();
+        Path lastSegment = crashed.resolve(files(crashed).stream()
+                .filter(name -> name.endsWith(".log")).reduce((first, second) -> second).orElseThrow());
+        try (FileChannel segment = FileChannel.open(lastSegment, StandardOpenOption.WRITE)) {
+            segment.truncate(segment.size() - 3);
+        }
+
+        VoteLog reopened = new VoteLog(crashed, 0, 100, 4, WINDOW);
+        VoteService restored = open(reopened);
+        try {
+            assertEquals(Map.of("Option A", 3, "Option B", 3, "Option C", 3), restored.getVoteResults(0));
+            assertEquals("Option A", restored.getClientVote(0, "voter0"));
+            assertEquals("Option C", restored.getClientVote(0, "voter8"));
+            assertEquals(9, restored.getLatestHistorySeq());
+            assertEquals(9, restored.getVoteHistory(1, WINDOW).size());
+
+            // the replayed tail was folded into a snapshot, so a second restart agrees
+            vote(restored, 0, "voter0", 2);
+        } finally {
+            reopened.close();
+        }
+        VoteLog again = new VoteLog(crashed, 0, 100, 4, WINDOW);
+        VoteService twice = open(again);
+        again.awaitRecovery();
+        try {
+            assertEquals(Map.of("Option A", 2, "Option B", 3, "Option C", 4), twice.getVoteResults(0));
+            assertEquals(10, twice.getLatestHistorySeq());
+        } finally {
+            again.close();
+        }
+    }
+
+    @Test
+    void legacySnapshotIsRead() throws IOException {
+        Path logDirectory = directory.resolve("log");
+        Files.createDirectories(logDirectory);
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(logDirectory.resolve("snapshot.bin")))) {
+            out.writeInt(0x564f5433); // "VOT3"
+            out.writeLong(1);
+            out.writeInt(2);
+            out.writeInt(0);
+            out.writeInt(2);
+            out.writeUTF("alice");
+            out.writeInt(0);
+            out.writeUTF("bob");
+            out.writeInt(2);
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeUTF("bob");
+            out.writeInt(0);
+            out.writeInt(2);
+            out.writeLong(1);
+            out.writeLong(1_000);
+            out.writeUTF("alice");
+            out.writeLong(2);
+            out.writeLong(2_000);
+            out.writeUTF("bob");
+        }
+
+        VoteLog log = new VoteLog(logDirectory, 0, 100, 0, WINDOW);
+        VoteService restored = open(log);
+        try {
+            assertEquals(Map.of("Option A", 1, "Option B", 0, "Option C", 1), restored.getVoteResults(0));
+            assertEquals(Map.of("Yes", 1, "No", 0), restored.getVoteResults(1));
+            assertEquals("Option C", restored.getClientVote(0, "bob"));
+            assertEquals("Yes", restored.getClientVote(1, "bob"));
+            assertHistory(restored, "alice", "bob");
+        } finally {
+            log.close();
+        }
+    }
+
+    private static VoteService open(VoteLog log) throws IOException {
+        VoteService service = new VoteService(ElectionRegistry.parse(ELECTIONS), new VoteHistory(WINDOW));
+        log.open(service);
+        return service;
+    }
+
+    private static void vote(VoteService service, int electionId, String voter, int optionId) {
+        service.castVote(electionId, voter, voter, optionId);
+        service.sync().join();
+    }
+
+    private static void assertHistory(VoteService service, String... voters) {
+        List<HistoryEntry> history = service.getVoteHistory(1, WINDOW);
+        assertEquals(voters.length, history.size());
+        for (int i = 0; i < voters.length; i++) {
+            assertEquals(i + 1, history.get(i).getSeq());
+            assertEquals(voters[i], history.get(i).getClientName());
+        }
+    }
+
+    private static List<String> files(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        Files.createDirectories(to);
+        for (String name : files(from)) {
+            Files.copy(from.resolve(name), to.resolve(name));
+        }
+    }
+}
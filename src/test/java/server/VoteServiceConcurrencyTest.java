@@ -0,0 +1,98 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Many threads voting and changing their votes at once, with readers taking snapshots
+ * throughout: the totals must always equal the number of distinct voters so far, and every
+ * vote must land in the history exactly once.
+ */
+class VoteServiceConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int VOTERS = 2_000;
+    private static final int VOTES_PER_THREAD = 20_000;
+
+    @Test
+    void totalsMatchVotersUnderContention() throws Exception {
+        VoteService service = new VoteService(ElectionRegistry.parse(ElectionRegistry.DEFAULT_SPEC),
+                new VoteHistory(THREADS * VOTES_PER_THREAD));
+        Election election = service.getElections().getDefault();
+        int options = election.getOptions().size();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean voting = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> {
+            long lastTotal = 0;
+            while (voting.get()) {
+                long total = 0;
+                for (long count : election.getTallies()) {
+                    total += count;
+                }
+                if (total < lastTotal || total > VOTERS) {
+                    failure.compareAndSet(null, "snapshot total went from " + lastTotal + " to " + total);
+                }
+                lastTotal = total;
+            }
+        }, "snapshot-reader");
+        reader.start();
+
+        List<Thread> voters = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < VOTES_PER_THREAD; i++) {
+                    String voter = "voter-" + random.nextInt(VOTERS);
+                    service.castVote(election.getId(), voter, voter, random.nextInt(options));
+                }
+            }, "voter-" + t);
+            thread.start();
+            voters.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : voters) {
+            thread.join();
+        }
+        voting.set(false);
+        reader.join();
+        assertNull(failure.get());
+
+        Map<String, Integer> results = service.getVoteResults();
+        int total = results.values().stream().mapToInt(Integer::intValue).sum();
+        assertEquals(service.getVoters().size(), total);
+        assertEquals(election.getVoterCount(), total);
+        for (String option : election.getOptions()) {
+            int chosen = 0;
+            for (int v = 0; v < VOTERS; v++) {
+                if (option.equals(service.getClientVote("voter-" + v))) {
+                    chosen++;
+                }
+            }
+            assertEquals(chosen, results.get(option), option);
+        }
+
+        long votes = (long) THREADS * VOTES_PER_THREAD;
+        assertEquals(votes, service.getLatestHistorySeq());
+        List<HistoryEntry> history = service.getVoteHistory(1, (int) votes);
+        assertEquals(votes, history.size());
+        for (int i = 0; i < history.size(); i++) {
+            assertEquals(i + 1, history.get(i).getSeq());
+        }
+    }
+}